@@ -1,10 +1,14 @@
 package project;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created with IntelliJ IDEA.
@@ -14,264 +18,838 @@ import java.util.*;
  */
 public class Assembler {
     private final String GROUPNAME = "asmGroup";
-    private Set<String> preLoadedOpcodes = new HashSet<String>();
     public int INT = 4;
     public int INSTRUCTION = 12;
     public int BYT = 1;
-    public HashMap<String, String> reg = new LinkedHashMap<String, String>();
-    public List<Memory> mem = new ArrayList<Memory>();
+    // each kxi thread has its own registers
+    private final ThreadLocal<RegisterFile> threadRegisters = new ThreadLocal<RegisterFile>() {
+        @Override
+        protected RegisterFile initialValue() {
+            return new RegisterFile();
+        }
+    };
+    private MemoryBlock mem = new MemoryBlock();
     HashMap<String, Integer> symbolTable = new HashMap<String, Integer>();
+    HashMap<String, Integer> dataLabels = new HashMap<String, Integer>();
+    Map<String, String> instructionCells = new HashMap<String, String>();
+    private int iniiAddress;
+    private int sizeAddress = -1;
+    private int inctAddress;
+    HashMap<String, Integer> labelTable = new HashMap<String, Integer>();
+    // labels used before they were defined, with the error printed if they never are
+    private final Map<String, String> forwardLabels = new LinkedHashMap<String, String>();
     ThreadGroup threadGroup = new ThreadGroup(GROUPNAME);
 
-    public List<String> nameRegRegList = new ArrayList<String>();
-    public int threadCount = 1;
-
-    private final int ADD = 20;
-    private final int SUB = 21;
-    private final int MUL = 22;
-    private final int DIV = 23;
-    private final int LDR = 24;
-    private final int TRP = 25;
-    private final int LDA = 26;
-    private final int JMP = 27;
-    private final int CMP = 28;
-    private final int BNZ = 29;
-    private final int ADDI = 30;
-    private final int MOV = 31;
-    private final int ADI = 32;
-    private final int JMR = 33;
-    private final int STR = 34;
-    private final int STRI = 35;
-    private final int BLT = 36;
-    private final int BRZ = 37;
-    private final int RUN = 38;
-    private final int END = 39;
-    private final int BLK = 40;
-    private final int BGT = 41;
-
-    private void initalizeRegReglist() {
-        nameRegRegList.add("ADD");
-        nameRegRegList.add("SUB");
-        nameRegRegList.add("MUL");
-        nameRegRegList.add("DIV");
-        nameRegRegList.add("CMP");
-        nameRegRegList.add("ADDI");
-        nameRegRegList.add("MOV");
-        nameRegRegList.add("STRI");
-    }
-    private void preloadReg() {
-        for (int i = 0; i < 101; i++) {
-            reg.put(Integer.toString(i), "0");
-        }
-    }
-
-    private void loadOpcodes() {
-        preLoadedOpcodes.add("TRP");
-        preLoadedOpcodes.add("ADD");
-        preLoadedOpcodes.add("SUB");
-        preLoadedOpcodes.add("DIV");
-        preLoadedOpcodes.add("MUL");
-        preLoadedOpcodes.add("LDR");
-        preLoadedOpcodes.add("LDA");
-        preLoadedOpcodes.add("JMP");
-        preLoadedOpcodes.add("CMP");
-        preLoadedOpcodes.add("BNZ");
-        preLoadedOpcodes.add("ADDI");
-        preLoadedOpcodes.add("MOV");
-        preLoadedOpcodes.add("ADI");
-        preLoadedOpcodes.add("JMR");
-        preLoadedOpcodes.add("STR");
-        preLoadedOpcodes.add("STRI");
-        preLoadedOpcodes.add("BLT");
-        preLoadedOpcodes.add("BRZ");
-        preLoadedOpcodes.add("RUN");
-        preLoadedOpcodes.add("END");
-        preLoadedOpcodes.add("BLK");
-        preLoadedOpcodes.add("BGT");
-    }
-
-    public void action(String file) {
-        loadOpcodes();
-        initalizeRegReglist();
+    private int threadCount = 1;
+
+    // threads started by RUN that have not ended, and the stacks of threads that have
+    private boolean virtualThreads = Boolean.getBoolean("kxi.virtual");
+    private int maxThreads = Integer.getInteger("kxi.maxThreads", 256);
+    private int threadStackSize = Integer.getInteger("kxi.threadStack", TCode.STACK_SIZE);
+    private final Set<RunnableThread> threads = new LinkedHashSet<RunnableThread>();
+    private final Deque<Integer> freeStacks = new ArrayDeque<Integer>();
+
+    // stack registers set up by TCode
+    static final int STACK_BASE = 97;
+    static final int STACK_LIMIT = 98;
+    static final int FRAME_POINTER = 99;
+    static final int STACK_POINTER = 100;
+
+    static final int ADD = 20;
+    static final int SUB = 21;
+    static final int MUL = 22;
+    static final int DIV = 23;
+    static final int LDR = 24;
+    static final int TRP = 25;
+    static final int LDA = 26;
+    static final int JMP = 27;
+    static final int CMP = 28;
+    static final int BNZ = 29;
+    static final int ADDI = 30;
+    static final int MOV = 31;
+    static final int ADI = 32;
+    static final int JMR = 33;
+    static final int STR = 34;
+    static final int STRI = 35;
+    static final int BLT = 36;
+    static final int BRZ = 37;
+    static final int RUN = 38;
+    static final int END = 39;
+    static final int BLK = 40;
+    static final int BGT = 41;
+
+    // forms of LDR and STR chosen when the program is encoded
+    static final int LDRA = 42;
+    static final int STRA = 43;
+    static final int LDRC = 44;
+
+    // superinstructions; each replaces the first slot of the sequence it covers
+    static final int LDFS = 45; // MOV X Y; ADI X k; LDR Z X
+    static final int STFS = 46; // MOV X Y; ADI X k; STR X Z
+    static final int FADR = 47; // MOV X Y; ADI X k
+    static final int CMPB = 48; // CMP X Y; BNZ/BLT/BGT/BRZ X label
+
+    // atomic access to shared memory
+    static final int CAS = 49; // CAS X Y Z; mem[X] = Z if mem[X] == Y, Z = 1 if it was set, 0 if not
+    static final int FAA = 50; // FAA X Y; mem[X] += Y, Y = old mem[X]
+    static final int LCK = 51; // LCK X; lock the range of memory holding address X
+    static final int ULK = 52; // ULK X
+
+    // LCK locks ranges of LOCK_RANGE cells; ranges share LOCK_STRIPES locks
+    static final int LOCK_RANGE = 16;
+    static final int LOCK_STRIPES = 64;
+    private final ReentrantLock[] locks = newLocks();
+
+    // channels between threads; send and receive park while the channel is full or empty
+    static final int CHN = 53; // CHN X Y; X = id of a new channel holding Y messages
+    static final int SND = 54; // SND X Y; send Y on channel X
+    static final int RCV = 55; // RCV X Y; Y = next message on channel X
+    private final List<Channel> channels = new CopyOnWriteArrayList<Channel>();
+
+    // green mode runs every kxi thread on the thread that called runVM, switching after a fixed
+    // number of instructions; -Dkxi.green=<quantum> turns it on, -Dkxi.seed=<seed> picks threads at random
+    private int greenQuantum = Integer.getInteger("kxi.green", 0);
+    private Random greenPicker = Long.getLong("kxi.seed") == null ? null : new Random(Long.getLong("kxi.seed"));
+    private final GreenThread[] greenLockOwners = new GreenThread[LOCK_STRIPES];
+    private final int[] greenLockHolds = new int[LOCK_STRIPES];
+
+    static final int STRIDE = 4;
+    private int[] code;
+    private List<Instruction> codeList;
+
+    // tiered mode; -Dkxi.interpret=true turns compilation of hot blocks off
+    private boolean interpretOnly = Boolean.getBoolean("kxi.interpret");
+    private BlockCompiler compiler;
+    private AtomicReferenceArray<CompiledBlock> blocks;
+    // times each block has been entered in this run, -1 once it is known not to compile
+    private int[] blockCounts;
+
+    // limits on a run; threads take fuel in slices from the instruction budget at backward branches,
+    // and check the clock when they do
+    static final int FUEL_SLICE = 1 << 16;
+    private Budget budget = Budget.fromProperties();
+    private AtomicLong fuel;
+    private long deadline;
+    private volatile StopReason stopReason;
+    // set when the watchdog stops a run at its deadline and interrupts its threads
+    private volatile boolean timedOut;
+
+    // trap input and output; System.in and System.out unless set
+    private BufferedReader input;
+    private Writer output;
+
+    /**
+     * @param name mnemonic of an instruction
+     * @return its opcode, -1 if it is not an instruction
+     */
+    static int opCode(String name) {
+        switch (name) {
+            case "ADD":
+                return ADD;
+            case "SUB":
+                return SUB;
+            case "MUL":
+                return MUL;
+            case "DIV":
+                return DIV;
+            case "LDR":
+                return LDR;
+            case "TRP":
+                return TRP;
+            case "LDA":
+                return LDA;
+            case "JMP":
+                return JMP;
+            case "CMP":
+                return CMP;
+            case "BNZ":
+                return BNZ;
+            case "ADDI":
+                return ADDI;
+            case "MOV":
+                return MOV;
+            case "ADI":
+                return ADI;
+            case "JMR":
+                return JMR;
+            case "STR":
+                return STR;
+            case "STRI":
+                return STRI;
+            case "BLT":
+                return BLT;
+            case "BRZ":
+                return BRZ;
+            case "RUN":
+                return RUN;
+            case "END":
+                return END;
+            case "BLK":
+                return BLK;
+            case "BGT":
+                return BGT;
+            case "CAS":
+                return CAS;
+            case "FAA":
+                return FAA;
+            case "LCK":
+                return LCK;
+            case "ULK":
+                return ULK;
+            case "CHN":
+                return CHN;
+            case "SND":
+                return SND;
+            case "RCV":
+                return RCV;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * splits each line on spaces and tabs, the same as trim().split("[\t ]+") but without a regex
+     *
+     * @param lines assembly source
+     * @return the fields of each line; a blank line has none
+     */
+    static List<String[]> tokenize(List<String> lines) {
+        List<String[]> records = new ArrayList<String[]>(lines.size());
+        List<String> fields = new ArrayList<String>(4);
+        for (String line : lines) {
+            records.add(split(line, 0, line.length(), fields));
+        }
+        return records;
+    }
+
+    /**
+     * splits assembly text into lines, the same as readLine, and each line into its fields
+     *
+     * @param text assembly source
+     * @return the fields of each line; a blank line has none
+     */
+    static List<String[]> tokenize(String text) {
+        List<String[]> records = new ArrayList<String[]>();
+        List<String> fields = new ArrayList<String>(4);
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+                end++;
+            }
+            records.add(split(text, start, end, fields));
+
+            if (end + 1 < length && text.charAt(end) == '\r' && text.charAt(end + 1) == '\n') {
+                end++;
+            }
+            start = end + 1;
+        }
+        return records;
+    }
+
+    private static String[] split(String line, int start, int end, List<String> fields) {
+        fields.clear();
+        // trim, as String.trim does
+        int i = start;
+        while (i < end && line.charAt(i) <= ' ') {
+            i++;
+        }
+        while (end > i && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        while (i < end) {
+            int from = i;
+            while (i < end && line.charAt(i) != ' ' && line.charAt(i) != '\t') {
+                i++;
+            }
+            fields.add(line.substring(from, i));
+            while (i < end && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) {
+                i++;
+            }
+        }
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    private static ReentrantLock[] newLocks() {
+        ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    /**
+     * assembles and runs a program file
+     *
+     * @param file assembly file
+     * @return false if the program could not be assembled
+     */
+    public boolean action(String file) {
+        // the file is mapped and decoded in one go, then scanned by hand
+        String text;
+        try {
+            FileChannel channel = new FileInputStream(file).getChannel();
+            try {
+                text = Charset.defaultCharset().decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())).toString();
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            println("STOP! An error has been found.");
+            return false;
+        }
+        ProgramImage image = load(tokenize(text));
+        return image != null && run(image);
+    }
+
+    /**
+     * assembles and runs a program
+     *
+     * @param lines assembly source, one instruction or directive per line
+     * @return false if the program could not be assembled
+     */
+    public boolean action(List<String> lines) {
+        ProgramImage image = assemble(lines);
+        return image != null && run(image);
+    }
+
+    /**
+     * assembles a program once, so it can be run any number of times, by any number of
+     * assemblers at once
+     *
+     * @param lines assembly source, one instruction or directive per line
+     * @return the assembled program, null if it could not be assembled
+     */
+    public ProgramImage assemble(List<String> lines) {
+        return load(tokenize(lines));
+    }
+
+    /**
+     * assembles a program in one pass over its lines; labels used before they are defined are
+     * checked and patched once every line has been read
+     *
+     * @param records fields of each line of assembly source
+     * @return the assembled program, null if it could not be assembled
+     */
+    private ProgramImage load(List<String[]> records) {
+        // nothing is left from a program loaded before
+        mem = new MemoryBlock();
+        symbolTable.clear();
+        dataLabels.clear();
+        instructionCells.clear();
+        labelTable.clear();
+        forwardLabels.clear();
+        iniiAddress = 0;
+        inctAddress = 0;
+        sizeAddress = -1;
 
         try {
             String lastLabelLoaded = null;
             String lastDirectiveLoaded = null;
 
-            // pass one; build symbol table
             symbolTable.put("INII", INT);
-            mem.add(new Memory("INII", "0"));
+            dataLabels.put("INII", mem.add(0, RegisterFile.INT));
             symbolTable.put("INPT", INT);
             symbolTable.put("INCT", INT);
-            mem.add(new Memory("INPT", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("", ""));
-            mem.add(new Memory("INCT", "0"));
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            String line;
-            String[] lineInfo;
+            dataLabels.put("INPT", mem.add(0, RegisterFile.INT));
+            mem.reserve(29);
+            dataLabels.put("INCT", mem.add(0, RegisterFile.INT));
             int byteCount = 0;
             int num = 0;
 
-            while ((line = reader.readLine()) != null) {
+            List<Instruction> instructionList = new ArrayList<Instruction>();
+            // instructions whose label operand was not defined when they were read
+            List<Instruction> fixups = new ArrayList<Instruction>();
+
+            int counter = 1;
+            for (String[] lineInfo : records) {
                 num++;
-                if (line.trim().length() == 0) {
+                if (lineInfo.length == 0) {
+                    counter++;
                     continue;
                 }
 
-                lineInfo = line.trim().split("[\t ]+");
-
+                // labels and data
+                boolean labeled = opCode(lineInfo[0]) < 0;
+                if (labeled) {
 
-                if (!preLoadedOpcodes.contains(lineInfo[0])) {
-
-                    if (symbolTable.containsKey(lineInfo[0].trim())) {
-                        System.out.println("Assembly file cannot have duplicate Label names: line number: " + num);
-                        return;
+                    if (symbolTable.containsKey(lineInfo[0])) {
+                        println("Assembly file cannot have duplicate Label names: line number: " + num);
+                        return null;
                     }
 
                     // handle int arrays
-                    if (lastLabelLoaded != null) {
-                        if (isDirective(lineInfo[0].trim())) {
-                            if (!lastDirectiveLoaded.equals(lineInfo[0].trim())) {
-                                System.out.println("Array elements must be of the same type");
-                                return;
-                            }
-                            mem.add(new Memory("", lineInfo[1]));
-                            if (lineInfo[0].equals(".INT")) {
-                                byteCount += INT;
-                            } else {
-                                byteCount += BYT;
-                            }
-                            continue;
+                    if (lastLabelLoaded != null && isDirective(lineInfo[0])) {
+                        if (!lastDirectiveLoaded.equals(lineInfo[0])) {
+                            println("Array elements must be of the same type");
+                            return null;
                         }
-                    }
-
-                    symbolTable.put(lineInfo[0].trim(), byteCount);
+                        addDirective(lineInfo[0], lineInfo[1]);
+                        if (lineInfo[0].equals(".INT")) {
+                            byteCount += INT;
+                        } else {
+                            byteCount += BYT;
+                        }
+                    } else {
+                        symbolTable.put(lineInfo[0], byteCount);
 
-                    if (lineInfo[1].equals(".INT")) {
-                        byteCount += INT;
-                        mem.add(new Memory(lineInfo[0].trim(), lineInfo[2]));
+                        if (lineInfo[1].equals(".INT")) {
+                            byteCount += INT;
+                            dataLabels.put(lineInfo[0], addDirective(lineInfo[1], lineInfo[2]));
 
-                        lastDirectiveLoaded = lineInfo[1].trim();
-                        lastLabelLoaded = lineInfo[0].trim();
+                            lastDirectiveLoaded = lineInfo[1];
+                            lastLabelLoaded = lineInfo[0];
 
-                        if (lineInfo[0].equals(TCode.RUN_TIME_STACK) || lineInfo[0].equals(TCode.THE_HEAP)) {
-                            for (int i = 0; i < TCode.STACK_SIZE; i++) {
-                                mem.add(new Memory("", ""));
+                            if (lineInfo[0].equals(TCode.RUN_TIME_STACK) || lineInfo[0].equals(TCode.THE_HEAP)) {
+                                mem.reserve(TCode.STACK_SIZE);
                             }
-                        }
 
-                    } else if (lineInfo[1].equals(".BYT")) {
-                        byteCount += BYT;
-                        int asciiTest;
-
-                        if (lineInfo[2].substring(1, lineInfo[2].length() - 1).matches("^[0-9]+$")) {
-                            asciiTest = Integer.parseInt(lineInfo[2].substring(1, lineInfo[2].length() - 1));
-                            if (asciiTest == 32) {
-                                mem.add(new Memory(lineInfo[0].trim(), " "));
-                            } else if (asciiTest == 13) {
-                                mem.add(new Memory(lineInfo[0].trim(), "\r\n"));
+                        } else if (lineInfo[1].equals(".BYT")) {
+                            byteCount += BYT;
+                            dataLabels.put(lineInfo[0], addDirective(lineInfo[1], lineInfo[2]));
+
+                            lastDirectiveLoaded = lineInfo[1];
+                            lastLabelLoaded = lineInfo[0];
+                        } else if (lineInfo[0].length() > 4) {
+                            // labeled instructions keep a cell; the text is only needed by LDR
+                            mem.add(0, RegisterFile.INT);
+                            if (lineInfo.length < 3) {
+                                instructionCells.put(lineInfo[0], lineInfo[1]);
+                            } else if (lineInfo.length < 4 || lineInfo[1].equals("TRP") || lineInfo[1].equals("JMP") || lineInfo[1].equals("JMR")) {
+                                instructionCells.put(lineInfo[0], lineInfo[1] + "\t" + lineInfo[2]);
                             } else {
-                                mem.add(new Memory(lineInfo[0].trim(), lineInfo[2].substring(1, lineInfo[2].length() - 1)));
+                                instructionCells.put(lineInfo[0], lineInfo[1] + "\t" + lineInfo[2] + "\t" + lineInfo[3]);
                             }
-                        } else {
-                            mem.add(new Memory(lineInfo[0].trim(), lineInfo[2].substring(1, lineInfo[2].length() - 1)));
+                            byteCount += INSTRUCTION;
                         }
+                    }
+                }
 
-                        lastDirectiveLoaded = lineInfo[1].trim();
-                        lastLabelLoaded = lineInfo[0].trim();
-                    } else if (lineInfo[0].trim().length() > 4) {
-                        if (lineInfo[1].equals("TRP") || lineInfo[1].equals("JMP") || lineInfo[1].equals("JMR")) {
-                            mem.add(new Memory(lineInfo[0].trim(), lineInfo[1] + "\t" + lineInfo[2]));
+                // instructions; only the check for the line's opcode is run
+                int opCode = labeled ? (lineInfo.length > 1 ? opCode(lineInfo[1]) : -1) : opCode(lineInfo[0]);
+                int added = instructionList.size();
+
+                boolean failed = false;
+                switch (opCode) {
+                    case END:
+                    case BLK:
+                        if (labeled) {
+                            instructionList.add(new Instruction(opCode, "", "", lineInfo[0]));
                         } else {
-                            mem.add(new Memory(lineInfo[0].trim(), lineInfo[1] + "\t" + lineInfo[2] + "\t" + lineInfo[3]));
+                            instructionList.add(new Instruction(opCode, ""));
                         }
-                        byteCount += INSTRUCTION;
-                    }
+                        link(instructionList, added, fixups);
+                        continue;
+                    case TRP:
+                        failed = checkForTRPLayout(lineInfo, counter, instructionList);
+                        break;
+                    case ADI:
+                        failed = checkForRegImmLabels(lineInfo, counter, instructionList);
+                        break;
+                    case JMP:
+                        failed = checkForJMPLayout(lineInfo, counter, instructionList);
+                        break;
+                    case JMR:
+                        failed = checkForJMRLayout(lineInfo, counter, instructionList);
+                        break;
+                    case RUN:
+                        failed = checkMultiThreadLayout(lineInfo, counter, instructionList);
+                        break;
+                    case ADD:
+                    case SUB:
+                    case MUL:
+                    case DIV:
+                    case CMP:
+                    case ADDI:
+                    case MOV:
+                    case STRI:
+                        failed = checkForRegRegLabels(lineInfo, counter, instructionList);
+                        break;
+                    case CAS:
+                    case FAA:
+                    case LCK:
+                    case ULK:
+                    case CHN:
+                    case SND:
+                    case RCV:
+                        failed = checkForRegisterLayout(lineInfo, counter, instructionList);
+                        break;
+                    case LDR:
+                    case LDA:
+                    case BNZ:
+                    case STR:
+                    case BLT:
+                    case BRZ:
+                    case BGT:
+                        failed = checkForRegMemLabels(lineInfo, counter, instructionList);
+                        break;
+                    default:
+                        break;
+                }
+                if (failed) {
+                    return null;
+                }
+                link(instructionList, added, fixups);
+
+                counter++;
+            }
+
+            // backpatch the labels that were used before they were defined
+            for (Map.Entry<String, String> label : forwardLabels.entrySet()) {
+                if (!symbolTable.containsKey(label.getKey())) {
+                    println(label.getValue());
+                    return null;
                 }
             }
+            for (Instruction instruction : fixups) {
+                resolve(instruction);
+            }
 
+            // cells used by the input traps
+            iniiAddress = dataLabels.get("INII");
+            inctAddress = dataLabels.get("INCT");
+            if (dataLabels.containsKey("SIZE")) {
+                sizeAddress = dataLabels.get("SIZE");
+            }
 
-            // pass two; check syntax, references
-            BufferedReader reader3 = new BufferedReader(new FileReader(file));
-            List<Instruction> instructionList = new ArrayList<Instruction>();
+            decodeOperands(instructionList);
 
-            int counter = 1;
-            while ((line = reader3.readLine()) != null) {
-                if (line.trim().length() == 0) {
-                    counter++;
-                    continue;
+            // the image keeps a copy of its own, since the assembler goes on using mem
+            return new ProgramImage(encode(instructionList), instructionList, instructionCells, iniiAddress, inctAddress,
+                    sizeAddress, dataAddress(TCode.THE_HEAP), dataAddress(TCode.HEAP_LIMIT), startsThreads(instructionList),
+                    threadStackSize, mem.copy(mem.initializedSize(), 0));
+
+        } catch (Exception e) {
+            flushOutput();
+            println("STOP! An error has been found.");
+            return null;
+        } finally {
+            flushOutput();
+        }
+    }
+
+    /**
+     * runs an assembled program on its own registers and a fresh copy of the program's memory
+     *
+     * @param image assembled program
+     * @return false if the program did not run to its end; getStopReason says why
+     */
+    public boolean run(ProgramImage image) {
+        code = image.code;
+        codeList = image.codeList;
+        instructionCells = image.instructionCells;
+        iniiAddress = image.iniiAddress;
+        inctAddress = image.inctAddress;
+        sizeAddress = image.sizeAddress;
+        threadStackSize = image.threadStackSize;
+
+        // room for the thread stacks is left after the program's memory; takeStack hands it out
+        mem = image.newMemory(image.startsThreads ? maxThreads * (threadStackSize + 1) : 0);
+        freeStacks.clear();
+
+        // thread ids, channels and green locks belong to the run that made them
+        threadCount = 1;
+        channels.clear();
+        clearGreenLocks();
+
+        // hot blocks compiled by one run are kept for the next; each run counts for itself
+        compiler = image.compiler;
+        blocks = image.blocks;
+        blockCounts = new int[blocks.length()];
+
+        stopReason = null;
+        fuel = budget.getInstructions() > 0 ? new AtomicLong(budget.getInstructions()) : null;
+        deadline = budget.getMillis() > 0 ? System.nanoTime() + budget.getMillis() * 1000000 : 0;
+        if (image.heapLimitAddress >= 0) {
+            int cells = budget.getHeapCells() > 0 ? Math.min(budget.getHeapCells(), TCode.STACK_SIZE) : TCode.STACK_SIZE;
+            mem.setInt(image.heapLimitAddress, image.heapAddress + cells);
+        }
+
+        timedOut = false;
+        Thread watchdog = deadline != 0 ? startWatchdog(Thread.currentThread()) : null;
+        try {
+            runVM(codeList, 0, codeList.size());
+        } catch (Exception e) {
+            flushOutput();
+            println("STOP! An error has been found.");
+            stop(StopReason.VM_ERROR);
+        } finally {
+            if (watchdog != null) {
+                stopWatchdog(watchdog);
+            }
+            flushOutput();
+        }
+        stop(StopReason.FINISHED);
+        return stopReason == StopReason.FINISHED;
+    }
+
+    /**
+     * starts a thread that stops the run at its deadline. threads only look at the clock at
+     * backward branches, so the ones waiting on input, a channel, a lock or BLK are interrupted
+     *
+     * @param runner thread running the program
+     */
+    private Thread startWatchdog(final Thread runner) {
+        Thread watchdog = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long wait;
+                    while ((wait = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                } catch (InterruptedException e) {
+                    // the run ended in time
+                    return;
+                }
+
+                overBudget(StopReason.TIME_LIMIT, "Error: the program ran longer than " + budget.getMillis() + " ms");
+                timedOut = true;
+                runner.interrupt();
+                synchronized (threads) {
+                    for (RunnableThread thread : threads) {
+                        thread.getThread().interrupt();
+                    }
                 }
+            }
+        }, "watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        return watchdog;
+    }
 
-                lineInfo = line.trim().split("[\t ]+");
+    // waits for the watchdog to end, and clears an interrupt it left on this thread
+    private void stopWatchdog(Thread watchdog) {
+        watchdog.interrupt();
+        while (watchdog.isAlive()) {
+            try {
+                watchdog.join();
+            } catch (InterruptedException e) {
+                // interrupted by the watchdog itself
+            }
+        }
+        if (timedOut) {
+            Thread.interrupted();
+        }
+    }
 
-                if (lineInfo[0].equals("END")) {
-                    instructionList.add(new Instruction(END, ""));
-                    continue;
-                } else if (lineInfo[1].equals("END")) {
-                    instructionList.add(new Instruction(END, "", "", lineInfo[0]));
-                    continue;
+    /**
+     * limits on each run; the default comes from Budget.fromProperties
+     *
+     * @param budget run limits
+     */
+    public void setBudget(Budget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return why the last run stopped, null while it runs
+     */
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    // records why the program stopped; the first reason wins
+    private synchronized void stop(StopReason reason) {
+        if (stopReason == null) {
+            stopReason = reason;
+        }
+    }
+
+    /**
+     * charges the instructions a backward branch repeats to the thread's fuel
+     *
+     * @return false if the program is over its budget and the thread has to stop
+     */
+    private boolean charge(RegisterFile registers, int instructions) {
+        int[] rv = registers.values();
+        rv[RegisterFile.FUEL] -= instructions;
+        return rv[RegisterFile.FUEL] >= 0 || refuel(registers);
+    }
+
+    /**
+     * gives a thread that has run out of fuel another slice, unless the program is over its
+     * instruction or time budget
+     *
+     * @return false if the thread has to stop
+     */
+    private boolean refuel(RegisterFile registers) {
+        int[] rv = registers.values();
+        while (rv[RegisterFile.FUEL] < 0) {
+            if (stopReason != null) {
+                // another thread went over the budget
+                return false;
+            }
+            if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                return overBudget(StopReason.TIME_LIMIT, "Error: the program ran longer than " + budget.getMillis() + " ms");
+            }
+
+            int slice = deadline != 0 || fuel != null ? FUEL_SLICE : Integer.MAX_VALUE / 2;
+            if (fuel != null) {
+                long left = fuel.getAndAdd(-slice);
+                if (left <= 0) {
+                    return overBudget(StopReason.INSTRUCTION_LIMIT, "Error: the program ran more than " + budget.getInstructions() + " instructions");
                 }
+                slice = (int) Math.min(slice, left);
+            }
+            rv[RegisterFile.FUEL] += slice;
+        }
+        return true;
+    }
 
-                // check TRP for correct layout
-                if (checkForTRPLayout(lineInfo, counter, instructionList)) return;
+    private boolean overBudget(StopReason reason, String message) {
+        synchronized (this) {
+            if (stopReason != null) {
+                return false;
+            }
+            stopReason = reason;
+        }
+        flushOutput();
+        println(message);
+        return false;
+    }
 
-                if (checkForRegImmLabels(lineInfo, counter, instructionList)) return;
+    // address of a data label, -1 if the program does not have it
+    private int dataAddress(String label) {
+        Integer address = dataLabels.get(label);
+        return address == null ? -1 : address;
+    }
 
-                // check for operator Labels
-                if (checkForRegRegLabels(lineInfo, counter, instructionList)) return;
+    /**
+     * adds the initial value of a .INT or .BYT directive to memory
+     *
+     * @param directive .INT or .BYT
+     * @param data      directive operand
+     * @return address of the new cell
+     */
+    private int addDirective(String directive, String data) {
+        if (data.startsWith("'") && data.endsWith("'") && data.length() > 1) {
+            data = data.substring(1, data.length() - 1);
+        }
 
-                // check for LDR labels
-                if (checkForRegMemLabels(symbolTable, lineInfo, counter, instructionList)) return;
+        if (directive.equals(".INT") && data.length() > 0 && isInteger(data)) {
+            return mem.add(Integer.parseInt(data), RegisterFile.INT);
+        }
 
-                // check for valid jmp
-                if (checkForJMPLayout(symbolTable, lineInfo, counter, instructionList)) return;
+        if (data.length() == 0) {
+            return mem.add(0, RegisterFile.INT);
+        }
 
-                // check for valid jmr
-                if (checkForJMRLayout(lineInfo, counter, instructionList)) return;
+        if (isInteger(data)) {
+            int asciiTest = Integer.parseInt(data);
+            if (asciiTest == 32) {
+                return mem.add(' ', RegisterFile.CHAR);
+            } else if (asciiTest == 13) {
+                return mem.add(13, RegisterFile.CHAR);
+            }
+            return mem.add(asciiTest, RegisterFile.INT);
+        }
 
-                if(checkMultiThreadLayout(lineInfo, counter, symbolTable, instructionList)) return;
+        return mem.add(data.charAt(0), RegisterFile.CHAR);
+    }
 
-                counter++;
+    /**
+     * records the labels of the instructions added from index on, and resolves their label operands
+     *
+     * @param instructionList instructions read so far
+     * @param index           first new instruction
+     * @param fixups          instructions left to patch once every label is known
+     */
+    private void link(List<Instruction> instructionList, int index, List<Instruction> fixups) {
+        for (int i = index; i < instructionList.size(); i++) {
+            Instruction instruction = instructionList.get(i);
+            String label = instruction.getLabel();
+            if (label != null && !labelTable.containsKey(label)) {
+                labelTable.put(label, i);
+            }
+            if (!resolve(instruction)) {
+                fixups.add(instruction);
             }
-            reader.close();
+        }
+    }
+
+    // sets the target or data address named by an instruction; false if the label is not known yet
+    private boolean resolve(Instruction instruction) {
+        String targetLabel;
+        switch (instruction.getOpCode()) {
+            case JMP:
+                targetLabel = instruction.getOpd1();
+                break;
+            case BNZ:
+            case BLT:
+            case BGT:
+            case BRZ:
+            case RUN:
+                targetLabel = instruction.getOpd2();
+                break;
+            case LDA:
+            case LDR:
+            case STR:
+                targetLabel = instruction.getOpd2();
+                Integer address = dataLabels.get(targetLabel);
+                if (address != null) {
+                    instruction.setAddress(address);
+                    return true;
+                }
+                break;
+            default:
+                return true;
+        }
 
-            // virtual machine
-            runVM(instructionList, 0, instructionList.size());
+        Integer target = labelTable.get(targetLabel);
+        if (target == null) {
+            return false;
+        }
+        instruction.setTarget(target);
+        return true;
+    }
 
-        } catch (Exception e) {
-            System.out.println("STOP! An error has been found.");
+    private void decodeOperands(List<Instruction> instructionList) {
+        for (Instruction instruction : instructionList) {
+            switch (instruction.getOpCode()) {
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                case CMP:
+                case ADDI:
+                case MOV:
+                case STRI:
+                    instruction.setReg1(Integer.parseInt(instruction.getOpd1()));
+                    instruction.setReg2(Integer.parseInt(instruction.getOpd2()));
+                    break;
+                case LDR:
+                case STR:
+                    instruction.setReg1(Integer.parseInt(instruction.getOpd1()));
+                    if (isValidRegister(instruction.getOpd2())) {
+                        instruction.setReg2(registerNumber(instruction.getOpd2()));
+                    }
+                    break;
+                case ADI:
+                    instruction.setReg1(Integer.parseInt(instruction.getOpd1()));
+                    instruction.setImmediate(Integer.parseInt(instruction.getOpd2()));
+                    break;
+                case LDA:
+                case BNZ:
+                case BLT:
+                case BGT:
+                case BRZ:
+                case JMR:
+                case RUN:
+                    instruction.setReg1(Integer.parseInt(instruction.getOpd1()));
+                    break;
+                case TRP:
+                    instruction.setImmediate(Integer.parseInt(instruction.getOpd1()));
+                    break;
+                default:
+                    break;
+            }
         }
     }
 
-    private boolean checkMultiThreadLayout(String[] lineInfo, int counter, HashMap<String, Integer> symbolTable, List<Instruction> instructionList) {
+    private boolean checkMultiThreadLayout(String[] lineInfo, int counter, List<Instruction> instructionList) {
         if (lineInfo[0].equals("RUN") || lineInfo[0].equals("END")) {
             if (lineInfo[0].equals("END")) {
                 instructionList.add(new Instruction(END, ""));
@@ -279,15 +857,12 @@ public class Assembler {
             }
 
             if (!isValidRegister(lineInfo[1])) {
-                System.out.println("Line " + counter + ": operand 1 must be a valid register");
-                return true;
-            }
-            if (!symbolTable.containsKey(lineInfo[2])) {
-                System.out.println("Label at line: " + counter + " operand 2 does not exist.");
+                println("Line " + counter + ": operand 1 must be a valid register");
                 return true;
             }
+            expectLabel(lineInfo[2], counter, " operand 2 does not exist.");
             if (lineInfo[2].length() <= 4) {
-                System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
+                println("Label at line: " + counter + " must be associated with an instruction not a directive.");
                 return true;
             }
             instructionList.add(new Instruction(RUN, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2]));
@@ -299,15 +874,12 @@ public class Assembler {
             }
 
             if (!isValidRegister(lineInfo[2])) {
-                System.out.println("Line " + counter + ": operand 1 must be a valid register");
-                return true;
-            }
-            if (!symbolTable.containsKey(lineInfo[3])) {
-                System.out.println("Label at line: " + counter + " operand 2 does not exist.");
+                println("Line " + counter + ": operand 1 must be a valid register");
                 return true;
             }
+            expectLabel(lineInfo[3], counter, " operand 2 does not exist.");
             if (lineInfo[3].length() <= 4) {
-                System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
+                println("Label at line: " + counter + " must be associated with an instruction not a directive.");
                 return true;
             }
             instructionList.add(new Instruction(RUN, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3], lineInfo[0].trim()));
@@ -316,63 +888,68 @@ public class Assembler {
         return false;
     }
 
+    // atomic and channel instructions; every operand is a register
+    private boolean checkForRegisterLayout(String[] lineInfo, int counter, List<Instruction> instructions) {
+        int at;
+        if (registerOpCode(lineInfo[0]) >= 0) {
+            at = 0;
+        } else if (lineInfo.length > 1 && registerOpCode(lineInfo[1]) >= 0) {
+            at = 1;
+        } else {
+            return false;
+        }
+
+        String name = lineInfo[at];
+        int operands = name.equals("CAS") ? 3 : name.equals("LCK") || name.equals("ULK") ? 1 : 2;
+        int[] regs = new int[3];
+        for (int i = 0; i < operands; i++) {
+            if (lineInfo.length <= at + 1 + i || !isValidRegister(lineInfo[at + 1 + i])) {
+                println("Line " + counter + ": operand " + (i + 1) + " must be a valid register");
+                return true;
+            }
+            regs[i] = registerNumber(lineInfo[at + 1 + i]);
+        }
+
+        int opCode = registerOpCode(name);
+        Instruction instruction = new Instruction(opCode, Integer.toString(regs[0]), Integer.toString(regs[1]), at == 1 ? lineInfo[0].trim() : null);
+        instruction.setReg1(regs[0]);
+        instruction.setReg2(regs[1]);
+        instruction.setReg3(regs[2]);
+        instructions.add(instruction);
+        return false;
+    }
+
     private boolean checkForJMRLayout(String[] lineInfo, int counter, List<Instruction> instructions) {
         if (lineInfo[0].equals("JMR")) {
             if (!isValidRegister(lineInfo[1])) {
-                System.out.println("Line " + counter + ": operand 1 must be a valid register");
-                return true;
-            }
-            if (isValidAddress(reg.get(lineInfo[1].substring(1, lineInfo[1].length())), instructions.size())) {
-                System.out.println("Data in Register" + lineInfo[1] + " at line: " + counter + " must contain an integer address.");
+                println("Line " + counter + ": operand 1 must be a valid register");
                 return true;
             }
-
             instructions.add(new Instruction(JMR, lineInfo[1].substring(1, lineInfo[1].length())));
         } else if (lineInfo[1].equals("JMR")) {
             if (!isValidRegister(lineInfo[2])) {
-                System.out.println("Line " + counter + ": operand 1 must be a valid register");
+                println("Line " + counter + ": operand 1 must be a valid register");
                 return true;
             }
-            if (isValidAddress(reg.get(lineInfo[2].substring(1, lineInfo[2].length())), instructions.size())) {
-                System.out.println("Data in Register" + lineInfo[1] + " at line: " + counter + " must contain an integer address.");
-                return true;
-            }
-
             instructions.add(new Instruction(JMR, lineInfo[2].substring(1, lineInfo[2].length()), "", lineInfo[0].trim()));
         }
         return false;
     }
 
-    private boolean isValidAddress(String s, int size) {
-        int address = 0;
-        try {
-            address = Integer.parseInt(s);
-        } catch (NumberFormatException e) {
-            return false;
-        }
-        return address <= size - 1;
-    }
-
-    private boolean checkForJMPLayout(HashMap<String, Integer> symbolTable, String[] lineInfo, int counter, List<Instruction> instructions) {
+    private boolean checkForJMPLayout(String[] lineInfo, int counter, List<Instruction> instructions) {
         if (lineInfo[0].equals("JMP")) {
-            if (!symbolTable.containsKey(lineInfo[1])) {
-                System.out.println("Label at line: " + counter + " operand 2 does not exist.");
-                return true;
-            }
+            expectLabel(lineInfo[1], counter, " operand 2 does not exist.");
             if (lineInfo[1].length() <= 4) {
-                System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
+                println("Label at line: " + counter + " must be associated with an instruction not a directive.");
                 return true;
             }
 
             instructions.add(new Instruction(JMP, lineInfo[1]));
         } else if (lineInfo[1].equals("JMP")) {
-            if (!symbolTable.containsKey(lineInfo[2])) {
-                System.out.println("Label at line: " + counter + " operand 2 does not exist.");
-                return true;
-            }
+            expectLabel(lineInfo[2], counter, " operand 2 does not exist.");
 
             if (lineInfo[2].length() <= 4) {
-                System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
+                println("Label at line: " + counter + " must be associated with an instruction not a directive.");
                 return true;
             }
 
@@ -385,511 +962,1250 @@ public class Assembler {
         return (possDirective.equals(".INT") || possDirective.equals(".BYT"));
     }
 
-    public void runVM(List<Instruction> instructionList, int startInstructionAt, int endInstr) {
-        preloadReg();
-        boolean stopVM = false;
-        String lastRegUsedInt = "";
-        String lastRegUsedChar = "";
-
-        for (int i = startInstructionAt; i < endInstr; i++) {
-            Integer newValue;
-            switch (instructionList.get(i).getOpCode()) {
+    /**
+     * packs the instruction list into the int form run by the virtual machine:
+     * opcode, operand a, operand b and the resolved target for each instruction
+     *
+     * @param instructionList decoded instructions
+     * @return packed code, STRIDE ints per instruction
+     */
+    private int[] encode(List<Instruction> instructionList) {
+        int[] packed = new int[instructionList.size() * STRIDE];
+
+        for (int i = 0; i < instructionList.size(); i++) {
+            Instruction instruction = instructionList.get(i);
+            int opCode = instruction.getOpCode();
+            int a = instruction.getReg1();
+            int b = instruction.getReg2();
+            int target = instruction.getTarget() >= 0 ? instruction.getTarget() : i + 1;
+
+            switch (opCode) {
                 case ADI:
-                    if (!validADIOpd(instructionList.get(i))) {
-                        System.out.println("Error on instruction: " + instructionList.get(i).getOpCode() + " " + instructionList.get(i).getOpd1() + " " + instructionList.get(i).getOpd2() + " the ADI instruction requires integer values in the registers being added");
-                        stopVM = true;
-                        break;
+                case TRP:
+                    b = instruction.getImmediate();
+                    break;
+                case LDR:
+                    if (b < 0) {
+                        if (instruction.getAddress() >= 0) {
+                            opCode = LDRA;
+                            b = instruction.getAddress();
+                        } else {
+                            opCode = LDRC;
+                        }
                     }
-                    Integer value = Integer.parseInt(reg.get(instructionList.get(i).getOpd1())) + Integer.parseInt(instructionList.get(i).getOpd2());
-                    reg.put(instructionList.get(i).getOpd1(), value.toString());
                     break;
-                case ADD:
-                    if (!validOpd(instructionList.get(i))) {
-                        System.out.println("Error on instruction: " + instructionList.get(i).getOpCode() + " " + instructionList.get(i).getOpd1() + " " + instructionList.get(i).getOpd2() + " the ADD instruction requires integer values in the registers being added");
-                        stopVM = true;
-                        break;
+                case STR:
+                    if (b < 0) {
+                        opCode = STRA;
+                        b = instruction.getAddress();
                     }
+                    break;
+                case LDA:
+                    b = instruction.getAddress() >= 0 ? instruction.getAddress() : instruction.getTarget();
+                    break;
+                case RUN:
+                    target = Math.max(instruction.getTarget(), 0);
+                    break;
+                case CAS:
+                    target = instruction.getReg3();
+                    break;
+                default:
+                    break;
+            }
 
-                    newValue = Integer.parseInt(reg.get(instructionList.get(i).getOpd1())) + Integer.parseInt(reg.get(instructionList.get(i).getOpd2()));
-                    reg.put(instructionList.get(i).getOpd1(), newValue.toString());
-                    lastRegUsedInt = reg.get(instructionList.get(i).getOpd1());
+            if (opCode == TRP) {
+                a = instruction.getImmediate();
+            }
 
-                    break;
-                case ADDI:
+            packed[i * STRIDE] = opCode;
+            packed[i * STRIDE + 1] = a;
+            packed[i * STRIDE + 2] = b;
+            packed[i * STRIDE + 3] = target;
+        }
 
-                    String newValue1 = mem.get(Integer.parseInt(reg.get(instructionList.get(i).getOpd2()))).getData();
-                    reg.put(instructionList.get(i).getOpd1(), newValue1);
-                    lastRegUsedInt = reg.get(instructionList.get(i).getOpd1());
+        fuse(packed);
+        return packed;
+    }
 
-                    break;
-                case SUB:
-                    if (!validOpd(instructionList.get(i))) {
-                        System.out.println("Error on instruction: " + instructionList.get(i).getOpCode() + " " + instructionList.get(i).getOpd1() + " " + instructionList.get(i).getOpd2() + " the SUB instruction requires integer values in the registers being subtracted");
-                        stopVM = true;
-                        break;
-                    }
+    /**
+     * rewrites the first slot of common instruction sequences to a superinstruction.
+     * the remaining slots are left as they were so jumps into the middle of a
+     * sequence still land on the original instructions
+     *
+     * @param packed encoded program
+     */
+    private void fuse(int[] packed) {
+        int count = packed.length / STRIDE;
+
+        for (int i = 0; i + 1 < count; i++) {
+            int at = i * STRIDE;
+            int next = at + STRIDE;
+
+            if (packed[at] == MOV && packed[next] == ADI && packed[next + 1] == packed[at + 1]) {
+                int x = packed[at + 1];
+                int third = next + STRIDE;
+
+                if (i + 2 < count && packed[third] == LDR && packed[third + 2] == x) {
+                    packed[at] = LDFS;
+                } else if (i + 2 < count && packed[third] == STR && packed[third + 1] == x) {
+                    packed[at] = STFS;
+                } else {
+                    packed[at] = FADR;
+                }
+            } else if (packed[at] == CMP && packed[next + 1] == packed[at + 1]) {
+                int branch = packed[next];
+                if (branch == BNZ || branch == BLT || branch == BGT || branch == BRZ) {
+                    packed[at] = CMPB;
+                }
+            }
+        }
+    }
 
-                    newValue = Integer.parseInt(reg.get(instructionList.get(i).getOpd1())) - Integer.parseInt(reg.get(instructionList.get(i).getOpd2()));
-                    reg.put(instructionList.get(i).getOpd1(), newValue.toString());
-                    lastRegUsedInt = reg.get(instructionList.get(i).getOpd1());
+    public void runVM(List<Instruction> instructionList, int startInstructionAt, int endInstr) {
+        RegisterFile registers = registers();
+        registers.clear();
+        if (instructionList != codeList) {
+            code = encode(instructionList);
+            codeList = instructionList;
+            compiler = null;
+        }
+        openChannels();
 
-                    break;
-                case MUL:
-                    if (!validOpd(instructionList.get(i))) {
-                        System.out.println("Error on instruction: " + instructionList.get(i).getOpCode() + " " + instructionList.get(i).getOpd1() + " " + instructionList.get(i).getOpd2() + " the MUL instruction requires integer values in the registers being multiplied");
-                        stopVM = true;
-                        break;
-                    }
+        // a slice of the program is only interpreted
+        try {
+            if (greenQuantum > 0) {
+                runGreen(registers, instructionList, startInstructionAt, endInstr);
+            } else if (interpretOnly || endInstr != instructionList.size()) {
+                interpret(registers, instructionList, startInstructionAt, Integer.MIN_VALUE, endInstr);
+            } else {
+                runTiered(registers, instructionList, startInstructionAt, endInstr);
+            }
+        } finally {
+            // the program ends when its last thread does
+            joinThreads(null);
+            flushOutput();
+        }
+    }
 
-                    newValue = Integer.parseInt(reg.get(instructionList.get(i).getOpd1())) * Integer.parseInt(reg.get(instructionList.get(i).getOpd2()));
-                    reg.put(instructionList.get(i).getOpd1(), newValue.toString());
-                    lastRegUsedInt = reg.get(instructionList.get(i).getOpd1());
+    /**
+     * runs a thread started by RUN on its own registers and stack until END or TRP 0
+     *
+     * @param registers registers of the new thread
+     * @param stack     address of the thread's stack
+     */
+    void runThread(RegisterFile registers, List<Instruction> instructionList, int startInstructionAt, int stack) {
+        threadRegisters.set(registers);
+        try {
+            // threads are not compiled; BlockCompiler is used by the main thread only
+            interpret(registers, instructionList, startInstructionAt, Integer.MIN_VALUE, instructionList.size());
+        } catch (Exception e) {
+            vmError("STOP! An error has been found.");
+        } finally {
+            // locks the thread still holds are freed for the threads waiting on them
+            for (ReentrantLock lock : locks) {
+                while (lock.isHeldByCurrentThread()) {
+                    lock.unlock();
+                }
+            }
+            synchronized (freeStacks) {
+                freeStacks.push(stack);
+            }
+            flushOutput();
+        }
+    }
 
-                    break;
-                case DIV:
-                    if (!validOpd(instructionList.get(i))) {
-                        System.out.println("Error on instruction: " + instructionList.get(i).getOpCode() + " " + instructionList.get(i).getOpd1() + " " + instructionList.get(i).getOpd2() + " the DIV instruction requires integer values in the registers being divided");
-                        stopVM = true;
+    /**
+     * runs the program and every thread it starts on this thread, giving each thread greenQuantum
+     * instructions a turn. threads are picked in the order they were started, or at random from
+     * greenPicker, so the same program and seed always run the same way
+     */
+    private void runGreen(RegisterFile registers, List<Instruction> instructionList, int pc, int endInstr) {
+        List<GreenThread> live = new ArrayList<GreenThread>();
+        live.add(new GreenThread(registers, pc, -1, null));
+        int[] runEnd = straightRuns(endInstr);
+
+        int turn = 0;
+        while (!live.isEmpty() && stopReason == null) {
+            turn = greenPicker == null ? turn % live.size() : greenPicker.nextInt(live.size());
+            GreenThread thread = live.get(turn);
+            threadRegisters.set(thread.registers);
+
+            int steps = 0;
+            while (steps < greenQuantum && thread.pc >= 0 && thread.pc < endInstr) {
+                int at = thread.pc;
+                int next;
+                if (runEnd[at] > at) {
+                    // straight-line instructions are interpreted together, up to the end of the turn
+                    next = interpret(thread.registers, instructionList, at, at, Math.min(runEnd[at], at + greenQuantum - steps));
+                    steps += next > at ? next - at : 1;
+                } else {
+                    next = stepGreen(thread, live, instructionList);
+                    if (next == at) {
                         break;
                     }
+                    steps++;
+                }
+                thread.pc = next;
+            }
 
-                    if (Integer.parseInt(reg.get(instructionList.get(i).getOpd2())) == 0) {
-                        System.out.println("Error on instruction: " + instructionList.get(i).getOpCode() + " " + instructionList.get(i).getOpd1() + " " + instructionList.get(i).getOpd2() + " Can not divide by zero");
-                        stopVM = true;
-                        break;
-                    }
+            if (steps > 0) {
+                for (GreenThread other : live) {
+                    other.waiting = false;
+                }
+            }
+
+            if (thread.pc < 0 || thread.pc >= endInstr) {
+                live.remove(turn);
+                if (thread.stack >= 0) {
+                    freeStacks.push(thread.stack);
+                }
+                releaseGreenLocks(thread);
+                continue;
+            }
+
+            if (steps == 0) {
+                thread.waiting = true;
+                if (allWaiting(live)) {
+                    clearGreenLocks();
+                    vmError("Error: every thread is waiting on another");
+                    return;
+                }
+            }
+            turn++;
+        }
+        threadRegisters.set(registers);
+    }
 
-                    newValue = Integer.parseInt(reg.get(instructionList.get(i).getOpd1())) / Integer.parseInt(reg.get(instructionList.get(i).getOpd2()));
-                    reg.put(instructionList.get(i).getOpd1(), newValue.toString());
-                    lastRegUsedInt = reg.get(instructionList.get(i).getOpd1());
+    /**
+     * runs the instruction at thread.pc; the instructions that would block the carrier are run
+     * here instead of by interpret
+     *
+     * @return index of the next instruction, thread.pc if the thread has to wait, -1 if it stopped
+     */
+    private int stepGreen(GreenThread thread, List<GreenThread> live, List<Instruction> instructionList) {
+        final int pc = thread.pc;
+        final int at = pc * STRIDE;
+        final int a = code[at + 1];
+        final int b = code[at + 2];
+        final int[] rv = thread.registers.values();
+        final byte[] rt = thread.registers.tags();
+
+        switch (code[at]) {
+            case RUN: {
+                // with every stack in use the thread waits for one to be freed, as LCK waits for a lock
+                Integer stack = takeStack();
+                if (stack == null) {
+                    return pc;
+                }
+                live.add(new GreenThread(childRegisters(thread.registers, stack), code[at + 3], stack, thread));
+                thread.registers.setInt(a, threadCount++);
+                return pc + 1;
+            }
+            case END:
+                return -1;
+            case BLK:
+                for (GreenThread other : live) {
+                    if (other.parent == thread) {
+                        return pc;
+                    }
+                }
+                return pc + 1;
+            case LCK:
+            case ULK: {
+                int stripe = lockStripe(rv, rt, a, instructionList.get(pc));
+                if (stripe < 0) {
+                    return -1;
+                }
+                if (code[at] == LCK) {
+                    if (greenLockOwners[stripe] != null && greenLockOwners[stripe] != thread) {
+                        return pc;
+                    }
+                    greenLockOwners[stripe] = thread;
+                    greenLockHolds[stripe]++;
+                } else if (greenLockOwners[stripe] == thread) {
+                    if (--greenLockHolds[stripe] == 0) {
+                        greenLockOwners[stripe] = null;
+                    }
+                } else {
+                    instructionError(instructionList.get(pc), "the ULK instruction requires a lock held by this thread");
+                    return -1;
+                }
+                return pc + 1;
+            }
+            case SND:
+            case RCV: {
+                Channel channel = channel(rv, rt, a, instructionList.get(pc));
+                if (channel == null) {
+                    return -1;
+                }
+                if (code[at] == SND) {
+                    if (!channel.offer(Channel.message(rv[b], rt[b]))) {
+                        return pc;
+                    }
+                } else {
+                    long message = channel.poll();
+                    if (message == Channel.EMPTY) {
+                        return pc;
+                    }
+                    rv[b] = Channel.value(message);
+                    rt[b] = Channel.tag(message);
+                    thread.registers.touch(b);
+                }
+                return pc + 1;
+            }
+            default:
+                return interpret(thread.registers, instructionList, pc, pc, pc + 1);
+        }
+    }
 
+    /**
+     * @return for each instruction, the index of the first jump, branch or thread instruction at or after it
+     */
+    private int[] straightRuns(int endInstr) {
+        int[] runEnd = new int[endInstr + 1];
+        runEnd[endInstr] = endInstr;
+        for (int i = endInstr - 1; i >= 0; i--) {
+            switch (code[i * STRIDE]) {
+                case JMP:
+                case JMR:
+                case BNZ:
+                case BRZ:
+                case BLT:
+                case BGT:
+                case CMPB:
+                case RUN:
+                case END:
+                case BLK:
+                case LCK:
+                case ULK:
+                case SND:
+                case RCV:
+                    runEnd[i] = i;
                     break;
-                case STR:
+                default:
+                    runEnd[i] = runEnd[i + 1];
+                    break;
+            }
+        }
+        return runEnd;
+    }
+
+    // locks a thread still holds when it ends are freed for the threads waiting on them
+    private void releaseGreenLocks(GreenThread thread) {
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            if (greenLockOwners[stripe] == thread) {
+                greenLockOwners[stripe] = null;
+                greenLockHolds[stripe] = 0;
+            }
+        }
+    }
 
-                    if (isValidRegister(instructionList.get(i).getOpd2())) {
+    // locks held by the threads of a run that was stopped
+    private void clearGreenLocks() {
+        Arrays.fill(greenLockOwners, null);
+        Arrays.fill(greenLockHolds, 0);
+    }
 
-                        String r2 = instructionList.get(i).getOpd2().substring(1, instructionList.get(i).getOpd2().length());
+    private boolean allWaiting(List<GreenThread> live) {
+        for (GreenThread thread : live) {
+            if (!thread.waiting) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                        mem.get(Integer.parseInt(reg.get(instructionList.get(i).getOpd1()))).setData(reg.get(r2));
-                        lastRegUsedChar = reg.get(instructionList.get(i).getOpd2());
+    /**
+     * interprets until a hot block is found, then runs the compiled form of it from then on
+     */
+    private void runTiered(RegisterFile registers, List<Instruction> instructionList, int pc, int endInstr) {
+        if (compiler == null) {
+            compiler = new BlockCompiler(code);
+            blocks = new AtomicReferenceArray<CompiledBlock>(endInstr);
+            blockCounts = new int[endInstr];
+        }
 
-                    } else {
+        final int[] rv = registers.values();
+        final byte[] rt = registers.tags();
+        final int[] mv = mem.values();
+        final byte[] mt = mem.tags();
+        final int[] last = registers.lastWritten();
+
+        while (pc >= 0 && pc < endInstr) {
+            CompiledBlock block = blocks.get(pc);
+            if (block != null) {
+                pc = block.run(rv, rt, mv, mt, last);
+                if (rv[RegisterFile.FUEL] < 0 && !refuel(registers)) {
+                    return;
+                }
+                if (pc < 0) {
+                    // a check failed; the interpreter reports it
+                    pc = interpret(registers, instructionList, ~pc, ~pc, ~pc + 1);
+                }
+                continue;
+            }
 
-                        if (instructionList.get(i).getOpd2().trim().length() > 4) {
-                            System.out.println("Error on instruction: " + instructionList.get(i).getOpCode() + " " + instructionList.get(i).getOpd1() + " " + instructionList.get(i).getOpd2() + " operand two must be a label for a directive");
-                            stopVM = true;
-                            break;
-                        }
+            if (blockCounts[pc] >= 0 && ++blockCounts[pc] == BlockCompiler.THRESHOLD) {
+                // the compiler may be shared with other runs of the same image
+                CompiledBlock compiled;
+                synchronized (compiler) {
+                    compiled = compiler.compile(pc);
+                }
+                if (compiled == null) {
+                    blockCounts[pc] = -1;
+                } else {
+                    blocks.compareAndSet(pc, null, compiled);
+                }
+                continue;
+            }
 
-                        for (Memory m : mem) {
+            pc = interpret(registers, instructionList, pc, pc, compiler.blockEnd(pc));
+        }
+    }
 
-                            if (m.getLabel() != null && m.getLabel().equals(instructionList.get(i).getOpd2())) {
-                                m.setData(reg.get(instructionList.get(i).getOpd1()));
-                                break;
-                            }
+    /**
+     * runs instructions until control leaves the range [low, endInstr)
+     *
+     * @return index of the next instruction, -1 if the program stopped
+     */
+    private int interpret(RegisterFile registers, List<Instruction> instructionList, int startInstructionAt, int low, int endInstr) {
+        final int[] code = this.code;
+        final int[] rv = registers.values();
+        final byte[] rt = registers.tags();
+        final int[] mv = mem.values();
+        final byte[] mt = mem.tags();
+
+        int pc = startInstructionAt;
+        while (pc < endInstr && pc >= low) {
+            final int at = pc * STRIDE;
+            final int a = code[at + 1];
+            final int b = code[at + 2];
+            pc++;
+
+            switch (code[at]) {
+                case ADI:
+                    if (rt[a] != RegisterFile.INT) {
+                        operandError(instructionList.get(pc - 1), "the ADI instruction requires integer values in the registers being added");
+                        return -1;
+                    }
+                    rv[a] += b;
+                    break;
+                case ADD:
+                    if ((rt[a] | rt[b]) != RegisterFile.INT) {
+                        operandError(instructionList.get(pc - 1), "the ADD instruction requires integer values in the registers being added");
+                        return -1;
+                    }
+                    rv[a] += rv[b];
+                    registers.touch(a);
+                    break;
+                case SUB:
+                    if ((rt[a] | rt[b]) != RegisterFile.INT) {
+                        operandError(instructionList.get(pc - 1), "the SUB instruction requires integer values in the registers being subtracted");
+                        return -1;
+                    }
+                    rv[a] -= rv[b];
+                    registers.touch(a);
+                    break;
+                case MUL:
+                    if ((rt[a] | rt[b]) != RegisterFile.INT) {
+                        operandError(instructionList.get(pc - 1), "the MUL instruction requires integer values in the registers being multiplied");
+                        return -1;
+                    }
+                    rv[a] *= rv[b];
+                    registers.touch(a);
+                    break;
+                case DIV:
+                    if ((rt[a] | rt[b]) != RegisterFile.INT) {
+                        operandError(instructionList.get(pc - 1), "the DIV instruction requires integer values in the registers being divided");
+                        return -1;
+                    }
+                    if (rv[b] == 0) {
+                        instructionError(instructionList.get(pc - 1), "Can not divide by zero");
+                        return -1;
+                    }
+                    rv[a] /= rv[b];
+                    registers.touch(a);
+                    break;
+                case ADDI: {
+                    int cell = rv[b];
+                    rv[a] = mv[cell];
+                    rt[a] = mt[cell];
+                    registers.touch(a);
+                    break;
+                }
+                case STR:
+                case STRI: {
+                    int cell = rv[a];
+                    mv[cell] = rv[b];
+                    mt[cell] = rt[b];
+                    registers.touch(b);
+                    break;
+                }
+                case STRA:
+                    if (b < 0) {
+                        instructionError(instructionList.get(pc - 1), "operand two must be a label for a directive");
+                        return -1;
+                    }
+                    mv[b] = rv[a];
+                    mt[b] = rt[a];
+                    break;
+                case LDR: {
+                    int cell = rv[b];
+                    if (cell >= 0 && cell < mv.length) {
+                        rv[a] = mv[cell];
+                        rt[a] = mt[cell];
+                    } else {
+                        rv[a] = 0;
+                        rt[a] = RegisterFile.INT;
+                    }
+                    registers.touch(a);
+                    break;
+                }
+                case LDRA:
+                    rv[a] = mv[b];
+                    rt[a] = mt[b];
+                    registers.touch(a);
+                    break;
+                case LDRC: {
+                    flushOutput();
+                    String opd2 = handleInstruction(instructionCells.get(instructionList.get(pc - 1).getOpd2()));
+                    if (opd2 == null) {
+                        vmError("Error: unknown error has occurred with LDR operation. Instruction num: " + (pc - 1));
+                        return -1;
+                    }
+                    loadRegister(a, opd2);
+                    registers.touch(a);
+                    break;
+                }
+                case LDA:
+                    if (b < 0) {
+                        instructionError(instructionList.get(pc - 1), "the LDA instruction requires a valid label.");
+                        return -1;
+                    }
+                    rv[a] = b;
+                    rt[a] = RegisterFile.INT;
+                    break;
+                case CMP:
+                    if ((rt[a] | rt[b]) == RegisterFile.INT) {
+                        rv[a] = rv[b] - rv[a];
+                    } else {
+                        rv[a] = rv[a] - rv[b];
+                        rt[a] = RegisterFile.INT;
+                    }
+                    break;
+                case MOV:
+                    rv[a] = rv[b];
+                    rt[a] = rt[b];
+                    registers.touch(a);
+                    break;
+                case JMP:
+                    // backward branches are charged to the thread's fuel
+                    if (code[at + 3] < pc && !charge(registers, pc - code[at + 3])) {
+                        return -1;
+                    }
+                    pc = code[at + 3];
+                    break;
+                case JMR:
+                    if (rv[a] + 1 < pc && !charge(registers, pc - rv[a] - 1)) {
+                        return -1;
+                    }
+                    pc = rv[a] + 1;
+                    break;
+                case BNZ:
+                    if (rv[a] != 0) {
+                        if (code[at + 3] < pc && !charge(registers, pc - code[at + 3])) {
+                            return -1;
                         }
+                        pc = code[at + 3];
                     }
-
                     break;
-                case STRI:
-                    // oprand 1 must be an index to a value in mem
-                    mem.get(Integer.parseInt(reg.get(instructionList.get(i).getOpd1()))).setData(reg.get(instructionList.get(i).getOpd2()));
-                    lastRegUsedChar = reg.get(instructionList.get(i).getOpd2());
-
+                case BLT:
+                    if (rv[a] > 0) {
+                        if (code[at + 3] < pc && !charge(registers, pc - code[at + 3])) {
+                            return -1;
+                        }
+                        pc = code[at + 3];
+                    }
                     break;
-                case LDR:
-                    String opd2 = "";
-
-                    if (isValidRegister(instructionList.get(i).getOpd2())) {
-
-                        for (Integer p = 0; p < mem.size(); p++) {
-                            if (p.toString().equals(reg.get(instructionList.get(i).getOpd2().substring(1, instructionList.get(i).getOpd2().length())))) {
-                                opd2 = mem.get(p).getData();
-                                break;
-                            }
+                case BGT:
+                    if (rv[a] < 0) {
+                        if (code[at + 3] < pc && !charge(registers, pc - code[at + 3])) {
+                            return -1;
                         }
-
-                    } else if (instructionList.get(i).getOpd2().length() > 4) {
-                        String instruction = null;
-                        for (Memory m : mem) {
-                            if (m.getLabel().equals(instructionList.get(i).getOpd2())) {
-                                instruction = m.getData();
-                                break;
-                            }
+                        pc = code[at + 3];
+                    }
+                    break;
+                case BRZ:
+                    if (rv[a] == 0) {
+                        if (code[at + 3] < pc && !charge(registers, pc - code[at + 3])) {
+                            return -1;
+                        }
+                        pc = code[at + 3];
+                    }
+                    break;
+                case TRP:
+                    if (a == 0 || !trap(registers, a)) {
+                        return -1;
+                    }
+                    break;
+                case RUN:
+                    if (!startThread(registers, instructionList, a, code[at + 3])) {
+                        return -1;
+                    }
+                    break;
+                case END:
+                    // ends only the thread running it
+                    return -1;
+                case BLK:
+                    joinThreads(Thread.currentThread());
+                    if (stopReason != null) {
+                        return -1;
+                    }
+                    break;
+                case CAS: {
+                    final int c = code[at + 3];
+                    if (!isIntCell(rv, rt, a) || rt[b] != RegisterFile.INT || rt[c] != RegisterFile.INT) {
+                        instructionError(instructionList.get(pc - 1), "the CAS instruction requires the address of an int and int values");
+                        return -1;
+                    }
+                    rv[c] = mem.compareAndSet(rv[a], rv[b], rv[c]) ? 1 : 0;
+                    registers.touch(c);
+                    break;
+                }
+                case FAA:
+                    if (!isIntCell(rv, rt, a) || rt[b] != RegisterFile.INT) {
+                        instructionError(instructionList.get(pc - 1), "the FAA instruction requires the address of an int and an int value");
+                        return -1;
+                    }
+                    rv[b] = mem.getAndAdd(rv[a], rv[b]);
+                    registers.touch(b);
+                    break;
+                case LCK:
+                case ULK: {
+                    int stripe = lockStripe(rv, rt, a, instructionList.get(pc - 1));
+                    if (stripe < 0) {
+                        return -1;
+                    }
+                    ReentrantLock lock = locks[stripe];
+                    if (code[at] == LCK) {
+                        try {
+                            lock.lockInterruptibly();
+                        } catch (InterruptedException e) {
+                            // the run was stopped while the thread waited
+                            return -1;
                         }
-                        opd2 = handleInstruction(instruction);
+                    } else if (lock.isHeldByCurrentThread()) {
+                        lock.unlock();
                     } else {
-                        for (Memory m : mem) {
-                            if (m.getLabel().equals(instructionList.get(i).getOpd2())) {
-                                opd2 = m.getData();
-                                break;
-                            }
+                        instructionError(instructionList.get(pc - 1), "the ULK instruction requires a lock held by this thread");
+                        return -1;
+                    }
+                    break;
+                }
+                case CHN:
+                    if (rt[b] != RegisterFile.INT || rv[b] <= 0) {
+                        instructionError(instructionList.get(pc - 1), "the CHN instruction requires a capacity greater than 0");
+                        return -1;
+                    }
+                    synchronized (channels) {
+                        channels.add(new Channel(rv[b]));
+                        rv[a] = channels.size() - 1;
+                    }
+                    rt[a] = RegisterFile.INT;
+                    registers.touch(a);
+                    break;
+                case SND:
+                case RCV: {
+                    Channel channel = channel(rv, rt, a, instructionList.get(pc - 1));
+                    if (channel == null) {
+                        return -1;
+                    }
+                    // a thread interrupted while it waits on the channel has been stopped
+                    if (code[at] == SND) {
+                        if (!channel.send(Channel.message(rv[b], rt[b]))) {
+                            return -1;
                         }
+                    } else {
+                        long message = channel.receive();
+                        if (message == Channel.EMPTY) {
+                            return -1;
+                        }
+                        rv[b] = Channel.value(message);
+                        rt[b] = Channel.tag(message);
+                        registers.touch(b);
                     }
-
-                    if (opd2 == null) {
-                        System.out.println("Error: unknown error has occurred with LDR operation. Instruction num: " + i);
-                        stopVM = true;
+                    break;
+                }
+                case LDFS:
+                case STFS:
+                case FADR: {
+                    // the MOV part; a char base register is left for ADI to report
+                    rv[a] = rv[b];
+                    rt[a] = rt[b];
+                    registers.touch(a);
+                    if (rt[a] != RegisterFile.INT) {
                         break;
                     }
 
-                    reg.put(instructionList.get(i).getOpd1(), opd2);
+                    int cell = rv[a] + code[at + STRIDE + 2];
+                    rv[a] = cell;
+                    pc++;
 
-                    if (reg.get(instructionList.get(i).getOpd1()).matches("^(-|\\+)?[0-9]+$")) {
-                        lastRegUsedInt = reg.get(instructionList.get(i).getOpd1());
-                    } else {
-                        lastRegUsedChar = reg.get(instructionList.get(i).getOpd1());
+                    if (code[at] == LDFS) {
+                        int z = code[at + 2 * STRIDE + 1];
+                        if (cell >= 0 && cell < mv.length) {
+                            rv[z] = mv[cell];
+                            rt[z] = mt[cell];
+                        } else {
+                            rv[z] = 0;
+                            rt[z] = RegisterFile.INT;
+                        }
+                        registers.touch(z);
+                        pc++;
+                    } else if (code[at] == STFS) {
+                        int z = code[at + 2 * STRIDE + 2];
+                        mv[cell] = rv[z];
+                        mt[cell] = rt[z];
+                        registers.touch(z);
+                        pc++;
                     }
                     break;
-                case TRP:
-                    if (instructionList.get(i).getOpd1().equals("0")) {
-                        stopVM = true;
-                        break;
+                }
+                case CMPB: {
+                    int value;
+                    if ((rt[a] | rt[b]) == RegisterFile.INT) {
+                        value = rv[b] - rv[a];
+                    } else {
+                        value = rv[a] - rv[b];
                     }
-                    if (instructionList.get(i).getOpd1().equals("1")) {
-                        System.out.print(lastRegUsedInt);
-                        break;
+                    rv[a] = value;
+                    rt[a] = RegisterFile.INT;
+
+                    boolean taken;
+                    switch (code[at + STRIDE]) {
+                        case BNZ:
+                            taken = value != 0;
+                            break;
+                        case BLT:
+                            taken = value > 0;
+                            break;
+                        case BGT:
+                            taken = value < 0;
+                            break;
+                        default:
+                            taken = value == 0;
+                            break;
                     }
-                    if (instructionList.get(i).getOpd1().equals("3")) {
-                        System.out.print(lastRegUsedChar);
-                        break;
+                    if (!taken) {
+                        pc++;
+                    } else if (code[at + STRIDE + 3] < pc + 1 && !charge(registers, pc + 1 - code[at + STRIDE + 3])) {
+                        return -1;
+                    } else {
+                        pc = code[at + STRIDE + 3];
                     }
-                    if (instructionList.get(i).getOpd1().equals("2")) {
-                        Integer number = 0;
-                        try {
-                            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(System.in));
-                            String input = bufferedReader.readLine();
-                            number = Integer.parseInt(input);
-                        } catch (NumberFormatException ex) {
-                            System.out.println("Not a number !");
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
+                    break;
+                }
+                default:
+                    // do nothing
+                    break;
+            }
+        }
+
+        return pc;
+    }
+
+    public void setInterpretOnly(boolean interpretOnly) {
+        this.interpretOnly = interpretOnly;
+    }
+
+    /**
+     * runs every kxi thread on the calling thread, switching threads after quantum instructions or
+     * when one has to wait; 0 turns green mode off
+     *
+     * @param seed threads are picked at random from this seed, or in turn if it is null
+     */
+    public void setGreenThreads(int quantum, Long seed) {
+        this.greenQuantum = quantum;
+        this.greenPicker = seed == null ? null : new Random(seed);
+    }
+
+    /**
+     * runs kxi threads on virtual threads, which park instead of holding an os thread while they
+     * wait on input or BLK; platform threads are used when the jvm has no virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * sets how many kxi threads can run at once and the stack size of each; a stack is taken from
+     * the end of memory the first time a thread needs one, and reused once that thread ends
+     */
+    public void setThreadLimits(int maxThreads, int threadStackSize) {
+        this.maxThreads = maxThreads;
+        this.threadStackSize = threadStackSize;
+    }
+
+    /**
+     * sets where TRP 2 and TRP 4 read from
+     *
+     * @param input program input
+     */
+    public void setInput(Reader input) {
+        this.input = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input);
+    }
+
+    /**
+     * sets where TRP 1 and TRP 3 write to; output is buffered and flushed when the program stops
+     * or reads input
+     *
+     * @param output program output
+     */
+    public void setOutput(Writer output) {
+        this.output = output instanceof BufferedWriter ? output : new BufferedWriter(output);
+    }
+
+    private void openChannels() {
+        if (input == null) {
+            setInput(new InputStreamReader(System.in));
+        }
+        if (output == null) {
+            setOutput(new OutputStreamWriter(System.out));
+        }
+    }
+
+    private void write(String s) {
+        try {
+            output.write(s);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // assembler and vm messages go to the program output, so they stay in order with it
+    private void println(String s) {
+        if (output == null) {
+            System.out.println(s);
+        } else {
+            write(s + System.lineSeparator());
+        }
+    }
+
+    private void flushOutput() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void operandError(Instruction instruction, String message) {
+        if (instruction.getOpCode() == ADI) {
+            validADIOpd(instruction);
+        } else {
+            validOpd(instruction);
+        }
+        instructionError(instruction, message);
+    }
+
+    private void instructionError(Instruction instruction, String message) {
+        vmError("Error on instruction: " + instruction.getOpCode() + " " + instruction.getOpd1() + " " + instruction.getOpd2() + " " + message);
+    }
+
+    // the program stops on an error in an instruction; the run does not count as finished
+    private boolean vmError(String message) {
+        stop(StopReason.VM_ERROR);
+        flushOutput();
+        println(message);
+        return false;
+    }
+
+    /**
+     * TRP 1 and 3 write the last int or char written to a register, TRP 2 and 4 read into INII,
+     * TRP 5 and 6 write or read the whole char array whose address is the last int written
+     *
+     * @return false if the program has to stop
+     */
+    private boolean trap(RegisterFile registers, int trapCode) {
+        if (trapCode == 7) {
+            // new went past the heap limit set by run
+            return overBudget(StopReason.HEAP_LIMIT, "Error: the program ran out of heap");
+        }
+        if (trapCode == 5 || trapCode == 6) {
+            return arrayTrap(trapCode == 5, registers.getLastInt());
+        }
+
+        if (trapCode == 1) {
+            write(Integer.toString(registers.getLastInt()));
+        } else if (trapCode == 3) {
+            write(charData(registers.getLastChar()));
+        } else if (trapCode == 2) {
+            Integer number = 0;
+            String line = readLine();
+            if (stopReason != null) {
+                return false;
+            }
+            try {
+                number = Integer.parseInt(line);
+            } catch (NumberFormatException ex) {
+                write("Not a number !" + System.getProperty("line.separator"));
+            }
+
+            mem.setInt(iniiAddress, number);
+        } else if (trapCode == 4) {
+            if (!mem.isInt(iniiAddress) && mem.get(iniiAddress) == 13) {
+                int size = 30;
+                if (sizeAddress >= 0) {
+                    size = mem.get(sizeAddress);
+                }
 
-                        for (Memory m : mem) {
-                            if (m.getLabel().equals("INII")) {
-                                m.setData(number.toString());
-                                break;
-                            }
-                        }
+                int inCount = mem.get(inctAddress);
+
+                int count = 0;
+                String line = readLine();
+                if (stopReason != null) {
+                    return false;
+                }
+                // end of input reads as an empty line
+                if (line == null) {
+                    line = "";
+                }
+                for (int i = 0; i < line.length(); i++) {
+                    if (count < size - 2) {
+                        mem.set(count, line.charAt(i), RegisterFile.CHAR);
                     }
-                    if (instructionList.get(i).getOpd1().equals("4")) {
-                        if (mem.get(0).getData().equals("") || mem.get(0).getData().equals("\r\n")) {
-                            Integer size = 30;
-                            for (Memory m : mem) {
-                                if (m.getLabel().equals("SIZE")) {
-                                    size = Integer.parseInt(m.getData());
-                                    break;
-                                }
-                            }
+                    inCount++;
+                    count++;
+                }
+                mem.set(count, 13, RegisterFile.CHAR);
+                inCount++;
+                count++;
 
-                            Integer inCount = 0;
+                mem.setInt(inctAddress, inCount);
+            }
+        }
+        return true;
+    }
 
-                            for (Memory m : mem) {
-                                if (m.getLabel().equals("INCT")) {
-                                    inCount = Integer.parseInt(m.getData());
-                                    break;
-                                }
-                            }
+    // a line of input, null at its end; a thread interrupted while it waits reads nothing
+    private String readLine() {
+        flushOutput();
+        try {
+            return input.readLine();
+        } catch (IOException e) {
+            if (stopReason == null) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
 
-                            int count = 0;
-                            boolean firstPass = true;
-                            try {
-                                char c;
-                                while ((c = (char) System.in.read()) != '\n') {
-                                    if (count < size - 2) {
-                                        mem.get(count).setData(String.valueOf(c));
-                                        if (firstPass) {
-                                            lastRegUsedInt = String.valueOf(c);
-                                            firstPass = false;
-                                        }
-                                    }
-                                    inCount++;
-                                    count++;
-                                }
-                                mem.get(count).setData("\r\n");
-                                inCount++;
-                                count++;
-
-                                for (Memory m : mem) {
-                                    if (m.getLabel().equals("INCT")) {
-                                        m.setData(inCount.toString());
-                                        break;
-                                    }
-                                }
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                    break;
-                case CMP:
+    // a char array is its length followed by the chars; a 0 char ends the text early
+    private boolean arrayTrap(boolean write, int address) {
+        int length = address >= 0 && address < mem.size() ? mem.get(address) : -1;
+        if (length < 0 || address + length >= mem.size()) {
+            return vmError("Error: TRP " + (write ? 5 : 6) + " requires the address of a char array. Address: " + address);
+        }
 
-                    if (reg.get(instructionList.get(i).getOpd1()).matches("^(-|\\+)?[0-9]+$") && reg.get(instructionList.get(i).getOpd2()).matches("^(-|\\+)?[0-9]+$")) {
-                        newValue = new Integer(reg.get(instructionList.get(i).getOpd2())) - new Integer(reg.get(instructionList.get(i).getOpd1()));
-                    } else {
-                        newValue = reg.get(instructionList.get(i).getOpd1()).compareTo(reg.get(instructionList.get(i).getOpd2()));
-                    }
+        if (write) {
+            StringBuilder text = new StringBuilder(length);
+            for (int i = address + 1; i <= address + length && mem.get(i) != 0; i++) {
+                if (mem.get(i) == 13) {
+                    text.append("\r\n");
+                } else {
+                    text.append((char) mem.get(i));
+                }
+            }
+            write(text.toString());
+            return true;
+        }
 
-                    reg.put(instructionList.get(i).getOpd1(), newValue.toString());
-                    break;
-                case JMP:
-                    for (Instruction jmptest : instructionList) {
-                        if (jmptest.getLabel() != null && jmptest.getLabel().equals(instructionList.get(i).getOpd1())) {
-                            i = instructionList.indexOf(jmptest) - 1;
-                            break;
-                        }
-                    }
+        String line = readLine();
+        if (stopReason != null) {
+            return false;
+        }
+        if (line == null) {
+            line = "";
+        }
 
-                    break;
-                case JMR:
-                    i = Integer.parseInt(reg.get(instructionList.get(i).getOpd1()));
-                    break;
-                case LDA:
-                    newValue = -1;
-                    if (instructionList.get(i).getOpd2().length() < 5) {
-                        for (Memory m : mem) {
-                            if (m.getLabel() != null && m.getLabel().equals(instructionList.get(i).getOpd2())) {
-                                newValue = mem.indexOf(m);
-                                reg.put(instructionList.get(i).getOpd1(), newValue.toString());
-                                break;
-                            }
-                        }
-                    } else if (instructionList.get(i).getOpd2().length() > 4) {
-                        for (Instruction instruction : instructionList) {
-                            if (instruction.getLabel() != null && instruction.getLabel().equals(instructionList.get(i).getOpd2())) {
-                                newValue = instructionList.indexOf(instruction);
-                                reg.put(instructionList.get(i).getOpd1(), newValue.toString());
-                                break;
-                            }
-                        }
+        // the rest of the array is cleared so writing it back stops at the end of the line
+        for (int i = 0; i < length; i++) {
+            mem.set(address + 1 + i, i < line.length() ? line.charAt(i) : 0, RegisterFile.CHAR);
+        }
+        return true;
+    }
 
-                    }
+    /**
+     * starts a thread at index with a copy of the registers of the thread running RUN, and a stack of its own
+     *
+     * @param r register that gets the id of the new thread
+     * @return false if there is no stack left for the thread
+     */
+    private boolean startThread(RegisterFile registers, List<Instruction> instructionList, int r, int index) {
+        Integer stack = takeStack();
+        if (stack == null) {
+            return vmError("Error: can not run more than " + maxThreads + " threads at once");
+        }
+        RegisterFile child = childRegisters(registers, stack);
 
-                    if (newValue < 0) {
-                        System.out.println("Error on instruction: " + instructionList.get(i).getOpCode() + " " + instructionList.get(i).getOpd1() + " " + instructionList.get(i).getOpd2() + " the LDA instruction requires a valid label.");
-                        stopVM = true;
-                    }
+        synchronized (threads) {
+            int id = threadCount++;
+            RunnableThread thread = new RunnableThread(this, child, instructionList, index, stack);
+            registers.setInt(r, id);
 
-                    break;
-                case BNZ:
-                    newValue = 0;
-                    if (!reg.get(instructionList.get(i).getOpd1()).equals(newValue.toString())) {
-                        for (Instruction bnxTest : instructionList) {
-                            if (bnxTest.getLabel() != null && bnxTest.getLabel().equals(instructionList.get(i).getOpd2())) {
-                                i = instructionList.indexOf(bnxTest) - 1;
-                                break;
-                            }
-                        }
-                    }
+            // started while holding the list so joinThreads never sees a thread that has not started
+            thread.start(threadGroup, "thread_" + id, virtualThreads);
+            threads.add(thread);
+        }
+        return true;
+    }
 
-                    break;
-                case BLT:
-                    newValue = 0;
-                    if (Integer.parseInt(reg.get(instructionList.get(i).getOpd1())) > newValue) {
-                        for (Instruction bnxTest : instructionList) {
-                            if (bnxTest.getLabel() != null && bnxTest.getLabel().equals(instructionList.get(i).getOpd2())) {
-                                i = instructionList.indexOf(bnxTest) - 1;
-                                break;
-                            }
-                        }
-                    }
+    // a free thread stack, null if maxThreads are running
+    private Integer takeStack() {
+        synchronized (freeStacks) {
+            Integer stack = freeStacks.poll();
+            if (stack == null && mem.capacity() - mem.size() >= threadStackSize + 1) {
+                stack = mem.size();
+                mem.reserve(threadStackSize + 1);
+            }
+            return stack;
+        }
+    }
 
-                    break;
-                case BGT:
-                    newValue = 0;
-                    if (Integer.parseInt(reg.get(instructionList.get(i).getOpd1())) < newValue) {
-                        for (Instruction bnxTest : instructionList) {
-                            if (bnxTest.getLabel() != null && bnxTest.getLabel().equals(instructionList.get(i).getOpd2())) {
-                                i = instructionList.indexOf(bnxTest) - 1;
-                                break;
-                            }
-                        }
-                    }
+    // a copy of the parent's registers with the stack registers pointing at the new thread's stack
+    private RegisterFile childRegisters(RegisterFile parent, int stack) {
+        RegisterFile child = new RegisterFile();
+        child.copyFrom(parent);
+        child.setInt(STACK_BASE, stack);
+        child.setInt(FRAME_POINTER, stack);
+        child.setInt(STACK_POINTER, stack + 1);
+        child.setInt(STACK_LIMIT, stack + threadStackSize);
+        return child;
+    }
 
-                    break;
-                case BRZ:
-                    newValue = 0;
-                    if (reg.get(instructionList.get(i).getOpd1()).equals(newValue.toString())) {
-                        for (Instruction bnxTest : instructionList) {
-                            if (bnxTest.getLabel() != null && bnxTest.getLabel().equals(instructionList.get(i).getOpd2())) {
-                                i = instructionList.indexOf(bnxTest) - 1;
-                                break;
-                            }
-                        }
-                    }
+    // stripe of the lock covering the address in register r, -1 if it is not an address
+    private int lockStripe(int[] rv, byte[] rt, int r, Instruction instruction) {
+        if (rt[r] != RegisterFile.INT || rv[r] < 0 || rv[r] >= mem.values().length) {
+            instructionError(instruction, "the lock instructions require a memory address");
+            return -1;
+        }
+        return (rv[r] / LOCK_RANGE) % LOCK_STRIPES;
+    }
 
-                    break;
-                case MOV:
-                    reg.put(instructionList.get(i).getOpd1(), reg.get(instructionList.get(i).getOpd2()));
+    // channel whose id is in register r, null if there is none
+    private Channel channel(int[] rv, byte[] rt, int r, Instruction instruction) {
+        if (rt[r] != RegisterFile.INT || rv[r] < 0 || rv[r] >= channels.size()) {
+            instructionError(instruction, "the " + (instruction.getOpCode() == SND ? "SND" : "RCV") + " instruction requires a channel made by CHN");
+            return null;
+        }
+        return channels.get(rv[r]);
+    }
 
-                    if (reg.get(instructionList.get(i).getOpd1()).matches("^(-|\\+)?[0-9]+$")) {
-                        lastRegUsedInt = reg.get(instructionList.get(i).getOpd1());
-                    } else {
-                        lastRegUsedChar = reg.get(instructionList.get(i).getOpd1());
-                    }
-                    break;
-                case RUN:
-                    int index = 0;
-                    for (Instruction findLabel : instructionList) {
-                        if (findLabel.getLabel() != null && findLabel.getLabel().equals(instructionList.get(i).getOpd2())) {
-                            index = instructionList.indexOf(findLabel);
-                            break;
-                        }
-                    }
+    // register r holds the address of an int cell
+    private boolean isIntCell(int[] rv, byte[] rt, int r) {
+        return rt[r] == RegisterFile.INT && rv[r] >= 0 && rv[r] < mem.size() && mem.isInt(rv[r]);
+    }
 
-                    RunnableThread thread = new RunnableThread(threadGroup, "thread_" + threadCount++, this, instructionList, index, index + 8);
-                    reg.put(instructionList.get(i).getOpd1(), Long.valueOf(thread.getId()).toString());
-                    thread.start();
+    private RegisterFile registers() {
+        return threadRegisters.get();
+    }
 
-                    break;
-                case END:
-                    RunnableThread test[] = new RunnableThread[threadGroup.activeCount()];
-                    threadGroup.enumerate(test);
-                    Thread.currentThread().interrupt();
+    /**
+     * called by a thread started by RUN as it ends
+     */
+    void endThread(RunnableThread thread) {
+        synchronized (threads) {
+            threads.remove(thread);
+        }
+    }
 
-                    break;
-                case BLK:
+    /**
+     * waits for the threads started by parent to end, or for every thread if parent is null
+     */
+    private void joinThreads(Thread parent) {
+        while (true) {
+            // ended threads are no longer in the set, so only running ones are looked at
+            RunnableThread thread = null;
+            synchronized (threads) {
+                for (RunnableThread running : threads) {
+                    if (running.getThread() != Thread.currentThread() && (parent == null || running.getParent() == parent)) {
+                        thread = running;
+                        break;
+                    }
+                }
+            }
+            if (thread == null) {
+                return;
+            }
 
-//                    Thread test[] = new Thread[threadGroup.activeCount()];
-//                    threadGroup.enumerate(test);
-//                    test[1].suspend();
-                    break;
-                default:
-                    // do nothing
-                    break;
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                // a stopped run still waits for its threads, which were interrupted as well
+                if (stopReason == null) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
             }
+        }
+    }
 
-            if (stopVM) {
-                break;
+    // only programs that start threads get room for thread stacks
+    private boolean startsThreads(List<Instruction> instructionList) {
+        for (Instruction instruction : instructionList) {
+            if (instruction.getOpCode() == RUN) {
+                return true;
             }
         }
+        return false;
     }
 
-    private String handleInstruction(String opd2) {
-        String[] instructions = opd2.split("[\t ]+");
-        int switcher = 0;
-
-        if (instructions[0].equals("ADD")) {
-            switcher = ADD;
-        } else if (instructions[0].equals("ADDI")) {
-            switcher = ADDI;
-        } else if (instructions[0].equals("ADI")) {
-            switcher = ADI;
-        } else if (instructions[0].equals("SUB")) {
-            switcher = SUB;
-        } else if (instructions[0].equals("MUL")) {
-            switcher = MUL;
-        } else if (instructions[0].equals("DIV")) {
-            switcher = DIV;
-        } else if (instructions[0].equals("LDR")) {
-            switcher = LDR;
-        } else if (instructions[0].equals("TRP")) {
-            System.out.println("Error: Can not use TRP as an operand of LDR");
-            return null;
-        } else if (instructions[0].equals("MOV")) {
-            switcher = MOV;
+    /**
+     * loads the data of a memory cell into a register, tagging it as an int or a char
+     *
+     * @param r    register number
+     * @param data memory cell data
+     */
+    private void loadRegister(int r, String data) {
+        if (data.length() == 0) {
+            registers().setInt(r, 0);
+        } else if (isInteger(data)) {
+            registers().setInt(r, Integer.parseInt(data));
+        } else if (data.equals("\r\n")) {
+            registers().set(r, 13, RegisterFile.CHAR);
         } else {
+            registers().set(r, data.charAt(0), RegisterFile.CHAR);
+        }
+    }
+
+    private String registerData(int r) {
+        if (registers().isInt(r)) {
+            return Integer.toString(registers().get(r));
+        }
+        return charData(registers().get(r));
+    }
+
+    private String charData(int c) {
+        if (c == 13) {
+            return "\r\n";
+        }
+        return String.valueOf((char) c);
+    }
+
+    private boolean isInteger(String s) {
+        int start = (s.charAt(0) == '-' || s.charAt(0) == '+') ? 1 : 0;
+        if (start == s.length()) {
+            return false;
+        }
+        for (int i = start; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int registerNumber(String s) {
+        return Integer.parseInt(s.substring(1, s.length()));
+    }
+
+    private String handleInstruction(String opd2) {
+        if (opd2 == null) {
             return null;
         }
 
-        Instruction instr = new Instruction();
+        String[] instructions = opd2.split("[\t ]+");
+        int switcher = opCode(instructions[0]);
+        switch (switcher) {
+            case ADD:
+            case ADDI:
+            case ADI:
+            case SUB:
+            case MUL:
+            case DIV:
+            case LDR:
+            case MOV:
+                break;
+            case TRP:
+                println("Error: Can not use TRP as an operand of LDR");
+                return null;
+            default:
+                return null;
+        }
 
-        Integer retValue = 0;
+        Instruction instr = new Instruction(switcher, instructions[1].substring(1, instructions[1].length()), instructions[2]);
+        int r1 = registerNumber(instructions[1]);
+        int r2 = isValidRegister(instructions[2]) ? registerNumber(instructions[2]) : -1;
+        instr.setReg1(r1);
+        instr.setReg2(r2);
 
         switch (switcher) {
             case ADI:
-                if (!reg.get(instr.getOpd1()).matches("^(-|\\+)?[0-9]+$")) {
-                    System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADD instruction requires integer values in the registers being added");
+                if (!validADIOpd(instr)) {
+                    println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADD instruction requires integer values in the registers being added");
                     return null;
                 }
 
-                return reg.put(instr.getOpd1(), instr.getOpd2());
+                return Integer.toString(registers().get(r1) + Integer.parseInt(instructions[2]));
             case ADD:
-                instr = new Instruction(switcher, instructions[1].substring(1, instructions[1].length()), instructions[2].substring(1, instructions[2].length()));
                 if (!validOpd(instr)) {
-                    System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADD instruction requires integer values in the registers being added");
+                    println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADD instruction requires integer values in the registers being added");
                     return null;
                 }
 
-                retValue = Integer.parseInt(reg.get(instr.getOpd1())) + Integer.parseInt(reg.get(instr.getOpd2()));
-                return retValue.toString();
+                return Integer.toString(registers().get(r1) + registers().get(r2));
             case ADDI:
-                if (!reg.get(instr.getOpd1()).matches("^(-|\\+)?[0-9]+$")) {
-                    System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADDI instruction requires integer values in the registers being added");
+                if (!registers().isInt(r1)) {
+                    println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADDI instruction requires integer values in the registers being added");
                     break;
                 }
-                if (!mem.get(Integer.parseInt(reg.get(instr.getOpd2()))).getData().matches("^(-|\\+)?[0-9]+$")) {
-                    System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADDI instruction requires integer values in the registers being added");
+                if (!mem.isInt(registers().get(r2))) {
+                    println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADDI instruction requires integer values in the registers being added");
                     break;
                 }
 
-                Integer newValue = Integer.parseInt(reg.get(instr.getOpd1())) + Integer.parseInt(mem.get(Integer.parseInt(reg.get(instr.getOpd2()))).getData());
-                return newValue.toString();
+                return Integer.toString(registers().get(r1) + mem.get(registers().get(r2)));
             case SUB:
-                instr = new Instruction(switcher, instructions[1].substring(1, instructions[1].length()), instructions[2].substring(1, instructions[2].length()));
                 if (!validOpd(instr)) {
-                    System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the SUB instruction requires integer values in the registers being subtracted");
+                    println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the SUB instruction requires integer values in the registers being subtracted");
                     return null;
                 }
 
-                retValue = Integer.parseInt(reg.get(instr.getOpd1())) - Integer.parseInt(reg.get(instr.getOpd2()));
-                return retValue.toString();
+                return Integer.toString(registers().get(r1) - registers().get(r2));
             case MUL:
-                instr = new Instruction(switcher, instructions[1].substring(1, instructions[1].length()), instructions[2].substring(1, instructions[2].length()));
                 if (!validOpd(instr)) {
-                    System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the MUL instruction requires integer values in the registers being multiplied");
+                    println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the MUL instruction requires integer values in the registers being multiplied");
                     return null;
                 }
 
-                retValue = Integer.parseInt(reg.get(instr.getOpd1())) * Integer.parseInt(reg.get(instr.getOpd2()));
-                return retValue.toString();
+                return Integer.toString(registers().get(r1) * registers().get(r2));
             case DIV:
-                instr = new Instruction(switcher, instructions[1].substring(1, instructions[1].length()), instructions[2].substring(1, instructions[2].length()));
                 if (!validOpd(instr)) {
-                    System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the DIV instruction requires integer values in the registers being divided");
+                    println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the DIV instruction requires integer values in the registers being divided");
                     return null;
                 }
 
-                if (Integer.parseInt(reg.get(instr.getOpd2())) == 0) {
-                    System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " -> Can not divide by zero");
+                if (registers().get(r2) == 0) {
+                    println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " -> Can not divide by zero");
                     return null;
                 }
 
-                retValue = Integer.parseInt(reg.get(instr.getOpd1())) / Integer.parseInt(reg.get(instr.getOpd2()));
-                return retValue.toString();
+                return Integer.toString(registers().get(r1) / registers().get(r2));
             case LDR:
-                instr = new Instruction(switcher, instructions[1].substring(1, instructions[1].length()), instructions[2]);
-                String opdTwo = "";
-
-                if (instr.getOpd2().length() > 4) {
-                    opdTwo = handleInstruction(instr.getOpd2());
-                } else {
-                    for (Memory m : mem) {
-                        if (m.getLabel().equals(instr.getOpd2())) {
-                            return m.getData();
-                        }
-                    }
-                }
-
-                break;
-            case LDA:
-                newValue = -1;
-                for (Memory m : mem) {
-                    if (m.getLabel().equals(instr.getOpd2())) {
-                        newValue = mem.indexOf(m);
-                        return newValue.toString();
-                    }
-                }
-
-                if (newValue < 0) {
-                    System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the LDA instruction requires a valid label.");
+                if (!dataLabels.containsKey(instr.getOpd2())) {
                     return null;
                 }
 
-                break;
+                int address = dataLabels.get(instr.getOpd2());
+                if (mem.isInt(address)) {
+                    return Integer.toString(mem.get(address));
+                }
+                return charData(mem.get(address));
             case MOV:
-                return reg.get(instr.getOpd2());
+                return registerData(r2);
             default:
                 // do nothing
                 break;
@@ -898,20 +2214,20 @@ public class Assembler {
     }
 
     private boolean validOpd(Instruction instr) {
-        if (!reg.get(instr.getOpd1()).matches("^(-|\\+)?[0-9]+$")) {
-            System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADD instruction requires integer values in the registers being added");
+        if (!registers().isInt(instr.getReg1())) {
+            println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADD instruction requires integer values in the registers being added");
             return false;
         }
-        if (!reg.get(instr.getOpd2()).matches("^(-|\\+)?[0-9]+$")) {
-            System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADD instruction requires integer values in the registers being added");
+        if (!registers().isInt(instr.getReg2())) {
+            println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADD instruction requires integer values in the registers being added");
             return false;
         }
         return true;
     }
 
     private boolean validADIOpd(Instruction instr) {
-        if (!reg.get(instr.getOpd1()).matches("^(-|\\+)?[0-9]+$")) {
-            System.out.println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADI instruction requires integer values in the registers being added");
+        if (!registers().isInt(instr.getReg1())) {
+            println("Error on instruction: " + instr.getOpCode() + " " + instr.getOpd1() + " " + instr.getOpd2() + " the ADI instruction requires integer values in the registers being added");
             return false;
         }
         return true;
@@ -919,14 +2235,14 @@ public class Assembler {
 
     private boolean checkForTRPLayout(String[] lineInfo, int counter, List<Instruction> instructions) {
         if (lineInfo[0].equals("TRP")) {
-            if (!lineInfo[1].matches("^(\\d|4)$")) {
-                System.out.println("invalid trap type on line: " + counter + ".  Must choose from 0 - 4");
+            if (!isTrap(lineInfo[1])) {
+                println("invalid trap type on line: " + counter + ".  Must choose from 0 - 7");
                 return true;
             }
             instructions.add(new Instruction(TRP, lineInfo[1]));
         } else if (lineInfo[1].equals("TRP")) {
-            if (!lineInfo[2].matches("^(\\d|4)$")) {
-                System.out.println("invalid trap type on line: " + counter + ".  Must choose from 0 - 4");
+            if (!isTrap(lineInfo[2])) {
+                println("invalid trap type on line: " + counter + ".  Must choose from 0 - 7");
                 return true;
             }
             instructions.add(new Instruction(TRP, lineInfo[2], "", lineInfo[0].trim()));
@@ -937,21 +2253,21 @@ public class Assembler {
     private boolean checkForRegImmLabels(String[] lineInfo, int counter, List<Instruction> instructions) {
         if (lineInfo[0].equals("ADI")) {
             if (!isValidRegister(lineInfo[1])) {
-                System.out.println("Line " + counter + ": operand 1 must be a valid register");
+                println("Line " + counter + ": operand 1 must be a valid register");
                 return true;
             }
-            if (!lineInfo[2].matches("^(-|\\+)?[0-9]+$")) {
-                System.out.println("Line " + counter + ": operand 2 must be a valid integer");
+            if (!isInteger(lineInfo[2])) {
+                println("Line " + counter + ": operand 2 must be a valid integer");
                 return true;
             }
             instructions.add(new Instruction(ADI, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2]));
         } else if (lineInfo[1].equals("ADI")) {
             if (!isValidRegister(lineInfo[2])) {
-                System.out.println("Line " + counter + ": operand 1 must be a valid register");
+                println("Line " + counter + ": operand 1 must be a valid register");
                 return true;
             }
-            if (!lineInfo[3].matches("^(-|\\+)?[0-9]+$")) {
-                System.out.println("Line " + counter + ": operand 2 must be a valid integer");
+            if (!isInteger(lineInfo[3])) {
+                println("Line " + counter + ": operand 2 must be a valid integer");
                 return true;
             }
             instructions.add(new Instruction(ADI, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3].trim(), lineInfo[0].trim()));
@@ -960,166 +2276,129 @@ public class Assembler {
     }
 
     private boolean checkForRegRegLabels(String[] lineInfo, int counter, List<Instruction> instructions) {
-        if (lineInfo[0].equals("ADD") || lineInfo[0].equals("SUB") || lineInfo[0].equals("MUL") || lineInfo[0].equals("DIV") || lineInfo[0].equals("CMP") || lineInfo[0].equals("ADDI") || lineInfo[0].equals("MOV") || lineInfo[0].equals("STRI")) {
-            if (!isValidRegister(lineInfo[1])) {
-                System.out.println("Line " + counter + ": operand 1 must be a valid register");
-                return true;
-            }
-            if (!isValidRegister(lineInfo[2])) {
-                System.out.println("Line " + counter + ": operand 2 must be a valid register");
-                return true;
-            }
-
-            if (lineInfo[0].equals("ADD")) {
-                instructions.add(new Instruction(ADD, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2].substring(1, lineInfo[2].length())));
-            } else if (lineInfo[0].equals("SUB")) {
-                instructions.add(new Instruction(SUB, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2].substring(1, lineInfo[2].length())));
-            } else if (lineInfo[0].equals("MUL")) {
-                instructions.add(new Instruction(MUL, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2].substring(1, lineInfo[2].length())));
-            } else if (lineInfo[0].equals("DIV")) {
-                instructions.add(new Instruction(DIV, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2].substring(1, lineInfo[2].length())));
-            } else if (lineInfo[0].equals("ADDI")) {
-                instructions.add(new Instruction(ADDI, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2].substring(1, lineInfo[2].length())));
-            } else if (lineInfo[0].equals("MOV")) {
-                instructions.add(new Instruction(MOV, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2].substring(1, lineInfo[2].length())));
-            } else if (lineInfo[0].equals("STRI")) {
-                instructions.add(new Instruction(STRI, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2].substring(1, lineInfo[2].length())));
-            } else {
-                instructions.add(new Instruction(CMP, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2].substring(1, lineInfo[2].length())));
-            }
+        // the opcode is the first field, or the second after a label
+        int at = opCode(lineInfo[0]) >= 0 ? 0 : 1;
+        int opCode = opCode(lineInfo[at]);
+        switch (opCode) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+            case CMP:
+            case ADDI:
+            case MOV:
+            case STRI:
+                break;
+            default:
+                return false;
+        }
 
-        } else if (lineInfo[1].equals("ADD") || lineInfo[1].equals("SUB") || lineInfo[1].equals("MUL") || lineInfo[1].equals("DIV") || lineInfo[1].equals("CMP") || lineInfo[1].equals("ADDI") || lineInfo[1].equals("MOV") || lineInfo[1].equals("STRI")) {
-            if (!isValidRegister(lineInfo[2])) {
-                System.out.println("Line " + counter + ": operand 1 must be a valid register");
-                return true;
-            }
-            if (!isValidRegister(lineInfo[3])) {
-                System.out.println("Line " + counter + ": operand 2 must be a valid register");
-                return true;
-            }
+        if (!isValidRegister(lineInfo[at + 1])) {
+            println("Line " + counter + ": operand 1 must be a valid register");
+            return true;
+        }
+        if (!isValidRegister(lineInfo[at + 2])) {
+            println("Line " + counter + ": operand 2 must be a valid register");
+            return true;
+        }
 
-            if (lineInfo[1].equals("ADD")) {
-                instructions.add(new Instruction(ADD, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3].substring(1, lineInfo[3].length()), lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("SUB")) {
-                instructions.add(new Instruction(SUB, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3].substring(1, lineInfo[3].length()), lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("MUL")) {
-                instructions.add(new Instruction(MUL, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3].substring(1, lineInfo[3].length()), lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("DIV")) {
-                instructions.add(new Instruction(DIV, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3].substring(1, lineInfo[3].length()), lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("ADDI")) {
-                instructions.add(new Instruction(ADDI, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3].substring(1, lineInfo[3].length()), lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("MOV")) {
-                instructions.add(new Instruction(MOV, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3].substring(1, lineInfo[3].length()), lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("STRI")) {
-                instructions.add(new Instruction(STRI, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3].substring(1, lineInfo[3].length()), lineInfo[0].trim()));
-            } else {
-                instructions.add(new Instruction(CMP, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3].substring(1, lineInfo[3].length()), lineInfo[0].trim()));
-            }
+        String opd1 = lineInfo[at + 1].substring(1, lineInfo[at + 1].length());
+        String opd2 = lineInfo[at + 2].substring(1, lineInfo[at + 2].length());
+        if (at == 0) {
+            instructions.add(new Instruction(opCode, opd1, opd2));
+        } else {
+            instructions.add(new Instruction(opCode, opd1, opd2, lineInfo[0].trim()));
         }
         return false;
     }
 
-    private boolean checkForRegMemLabels(HashMap<String, Integer> symbolTable, String[] lineInfo, int counter, List<Instruction> instructions) {
-        if (lineInfo[0].equals("LDR") || lineInfo[0].equals("LDA") || lineInfo[0].equals("BNZ") || lineInfo[0].equals("STR") || lineInfo[0].equals("BLT") || lineInfo[0].equals("BRZ") || lineInfo[0].equals("BGT")) {
-
-            if (!isValidRegister(lineInfo[1])) {
-                System.out.println("Line " + counter + ": operand 1 must be a valid register");
-                return true;
-            }
-
-            if (!symbolTable.containsKey(lineInfo[2]) && !isValidRegister(lineInfo[2]) && !lineInfo[0].equals("STR")) {
-                System.out.println("Label at line: " + counter + " operand 2 does not exist");
-                return true;
-            }
-
-            if (lineInfo[0].equals("LDR")) {
-                instructions.add(new Instruction(LDR, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2]));
-            } else if (lineInfo[0].equals("LDA")) {
-                instructions.add(new Instruction(LDA, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2]));
-            } else if (lineInfo[0].equals("BNZ")) {
-                if (lineInfo[2].length() <= 4) {
-                    System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
-                    return true;
-                }
-
-                instructions.add(new Instruction(BNZ, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2]));
-            } else if (lineInfo[0].equals("BLT")) {
-                if (lineInfo[2].length() <= 4) {
-                    System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
-                    return true;
-                }
+    private boolean checkForRegMemLabels(String[] lineInfo, int counter, List<Instruction> instructions) {
+        // the opcode is the first field, or the second after a label
+        int at = opCode(lineInfo[0]) >= 0 ? 0 : 1;
+        int opCode = opCode(lineInfo[at]);
+        switch (opCode) {
+            case LDR:
+            case LDA:
+            case STR:
+            case BNZ:
+            case BLT:
+            case BGT:
+            case BRZ:
+                break;
+            default:
+                return false;
+        }
 
-                instructions.add(new Instruction(BLT, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2]));
-            }  else if (lineInfo[0].equals("BGT")) {
-                if (lineInfo[2].length() <= 4) {
-                    System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
-                    return true;
-                }
+        if (!isValidRegister(lineInfo[at + 1])) {
+            println("Line " + counter + ": operand 1 must be a valid register");
+            return true;
+        }
+        if (opCode != STR && !isValidRegister(lineInfo[at + 2])) {
+            expectLabel(lineInfo[at + 2], counter, " operand 2 does not exist");
+        }
 
-                instructions.add(new Instruction(BGT, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2]));
-            } else if (lineInfo[0].equals("BRZ")) {
-                if (lineInfo[2].length() <= 4) {
-                    System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
+        switch (opCode) {
+            case BNZ:
+            case BLT:
+            case BGT:
+            case BRZ:
+                if (lineInfo[at + 2].length() <= 4) {
+                    println("Label at line: " + counter + " must be associated with an instruction not a directive.");
                     return true;
                 }
+                break;
+            default:
+                break;
+        }
 
-                instructions.add(new Instruction(BRZ, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2]));
-            } else if (lineInfo[0].equals("STR")) {
-                instructions.add(new Instruction(STR, lineInfo[1].substring(1, lineInfo[1].length()), lineInfo[2]));
-            }
-
-        } else if (lineInfo[1].equals("LDR") || lineInfo[1].equals("LDA") || lineInfo[1].equals("BNZ") || lineInfo[1].equals("STR") || lineInfo[1].equals("BLT") || lineInfo[1].equals("BRZ") || lineInfo[1].equals("BGT")) {
-
-            if (!isValidRegister(lineInfo[2])) {
-                System.out.println("Line " + counter + ": operand 1 must be a valid register");
-                return true;
-            }
+        String opd1 = lineInfo[at + 1].substring(1, lineInfo[at + 1].length());
+        if (at == 0) {
+            instructions.add(new Instruction(opCode, opd1, lineInfo[at + 2]));
+        } else {
+            instructions.add(new Instruction(opCode, opd1, lineInfo[at + 2], lineInfo[0].trim()));
+        }
+        return false;
+    }
 
-            if (!symbolTable.containsKey(lineInfo[3]) && !lineInfo[1].equals("STR")) {
-                System.out.println("Label at line: " + counter + " operand 2 does not exist");
-                return true;
+    private boolean isValidRegister(String reg) {
+        // R0 to R99, or R100
+        int length = reg.length();
+        if (length < 2 || length > 4 || reg.charAt(0) != 'R') {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            if (reg.charAt(i) < '0' || reg.charAt(i) > '9') {
+                return false;
             }
+        }
+        return length < 4 || reg.equals("R100");
+    }
 
-            if (lineInfo[1].equals("LDR")) {
-                instructions.add(new Instruction(LDR, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3], lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("LDA")) {
-                instructions.add(new Instruction(LDA, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3], lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("BNZ")) {
-                if (lineInfo[3].length() <= 4) {
-                    System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
-                    return true;
-                }
-
-                instructions.add(new Instruction(BNZ, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3], lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("BLT")) {
-                if (lineInfo[3].length() <= 4) {
-                    System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
-                    return true;
-                }
-
-                instructions.add(new Instruction(BLT, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3], lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("BGT")) {
-                if (lineInfo[3].length() <= 4) {
-                    System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
-                    return true;
-                }
-
-                instructions.add(new Instruction(BGT, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3], lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("BRZ")) {
-                if (lineInfo[3].length() <= 4) {
-                    System.out.println("Label at line: " + counter + " must be associated with an instruction not a directive.");
-                    return true;
-                }
+    private boolean isTrap(String trap) {
+        return trap.length() == 1 && trap.charAt(0) >= '0' && trap.charAt(0) <= '7';
+    }
 
-                instructions.add(new Instruction(BRZ, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3], lineInfo[0].trim()));
-            } else if (lineInfo[1].equals("STR")) {
-                instructions.add(new Instruction(STR, lineInfo[2].substring(1, lineInfo[2].length()), lineInfo[3], lineInfo[0].trim()));
-            }
+    // opcode of an atomic or channel instruction, -1 for any other name
+    private int registerOpCode(String name) {
+        int opCode = opCode(name);
+        switch (opCode) {
+            case CAS:
+            case FAA:
+            case LCK:
+            case ULK:
+            case CHN:
+            case SND:
+            case RCV:
+                return opCode;
+            default:
+                return -1;
         }
-        return false;
     }
 
-    private boolean isValidRegister(String reg) {
-        return reg.matches("^R(?:100|\\d{1,2})$");
+    // a label operand must be defined somewhere in the program; the message is printed if it is not
+    private void expectLabel(String label, int counter, String message) {
+        if (!symbolTable.containsKey(label) && !forwardLabels.containsKey(label)) {
+            forwardLabels.put(label, "Label at line: " + counter + message);
+        }
     }
 }
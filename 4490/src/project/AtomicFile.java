@@ -0,0 +1,54 @@
+package project;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/9/13
+ * Time: 7:30 PM
+ */
+final class AtomicFile {
+    /**
+     * writes the contents of a file
+     */
+    interface Contents {
+        /**
+         * @return false if the file could not be written
+         */
+        boolean writeTo(File file);
+    }
+
+    private AtomicFile() {
+    }
+
+    /**
+     * writes a file under a temp name of its own in the same directory and moves it over the file
+     * in one step, so other threads and processes sharing the directory never read half a file
+     *
+     * @param file     file to write or replace
+     * @param contents what is written
+     * @return false if the file could not be written; nothing is left behind
+     */
+    static boolean write(File file, Contents contents) {
+        File temp;
+        try {
+            temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            if (contents.writeTo(temp)) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            }
+        } catch (IOException e) {
+            // the temp could not be moved over the file
+        }
+        temp.delete();
+        return false;
+    }
+}
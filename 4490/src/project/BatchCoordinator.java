@@ -0,0 +1,209 @@
+package project;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/6/13
+ * Time: 8:10 PM
+ */
+public class BatchCoordinator {
+    private final int workers;
+    private final long timeout;
+
+    private final Queue<File> jobs = new ConcurrentLinkedQueue<File>();
+    private final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+
+    private final AtomicInteger passed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger timedOut = new AtomicInteger();
+    private final AtomicInteger crashed = new AtomicInteger();
+    private final AtomicInteger restarts = new AtomicInteger();
+
+    // kills a worker whose job runs past the timeout
+    private ScheduledExecutorService watchdog;
+
+    /**
+     * @param workers worker jvms to run at once
+     * @param timeout milliseconds a job may run before its worker is killed
+     */
+    public BatchCoordinator(int workers, long timeout) {
+        this.workers = workers;
+        this.timeout = timeout;
+    }
+
+    /**
+     * runs every .kxi file in a directory, each with the .in file beside it as input, writing its
+     * output and errors to a .out file beside it
+     *
+     * @param directory directory of jobs
+     * @return true if every job compiled and ran
+     */
+    public boolean run(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".kxi");
+            }
+        });
+        if (files == null) {
+            System.out.println("Cannot find directory " + directory);
+            return false;
+        }
+        Arrays.sort(files);
+        jobs.addAll(Arrays.asList(files));
+
+        watchdog = Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+
+        // each thread keeps one worker busy
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < Math.min(workers, files.length); i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        watchdog.shutdownNow();
+        report(files.length, System.nanoTime() - start);
+        return passed.get() == files.length;
+    }
+
+    private void drain() {
+        BatchWorker worker = null;
+        File job;
+
+        while ((job = jobs.poll()) != null) {
+            if (worker == null) {
+                try {
+                    worker = new BatchWorker();
+                } catch (IOException e) {
+                    System.out.println("Error: cannot start a worker: " + e.getMessage());
+                    jobs.add(job);
+                    return;
+                }
+            }
+
+            final Process process = worker.getProcess();
+            final AtomicBoolean expired = new AtomicBoolean();
+            ScheduledFuture<?> timer = watchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expired.set(true);
+                    process.destroyForcibly();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+
+            long start = System.nanoTime();
+            try {
+                BatchWorker.JobResult result = worker.run(job);
+                latencies.add(System.nanoTime() - start);
+                if (!timer.cancel(false)) {
+                    // the timer went off as the result came back; the worker is gone
+                    worker = null;
+                    restarts.incrementAndGet();
+                }
+
+                if (result.result.isSuccessful()) {
+                    passed.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                    System.out.println("FAIL " + job.getName());
+                }
+                writeOutput(job, result.result.getDiagnostics() + result.output);
+
+            } catch (IOException e) {
+                timer.cancel(false);
+                worker.destroy();
+                worker = null;
+                restarts.incrementAndGet();
+
+                if (expired.get()) {
+                    timedOut.incrementAndGet();
+                    System.out.println("TIMEOUT " + job.getName());
+                    writeOutput(job, "Error: the program ran longer than " + timeout + " ms\n");
+                } else {
+                    crashed.incrementAndGet();
+                    System.out.println("CRASH " + job.getName());
+                    writeOutput(job, "Error: the worker running the program stopped\n");
+                }
+            }
+        }
+
+        if (worker != null) {
+            worker.close();
+        }
+    }
+
+    private void writeOutput(File job, String text) {
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(BatchWorker.outputFile(job)), "UTF-8");
+            writer.write(text);
+            writer.close();
+        } catch (IOException e) {
+            System.out.println("Error: cannot write the output of " + job.getName());
+        }
+    }
+
+    private void report(int count, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println("jobs: " + count + " passed: " + passed + " failed: " + failed + " timed out: " + timedOut
+                + " crashed: " + crashed + " worker restarts: " + restarts);
+        System.out.println(String.format("time: %.2f s throughput: %.1f jobs/s", seconds, count / seconds));
+
+        List<Long> sorted = new ArrayList<Long>(latencies);
+        if (sorted.isEmpty()) {
+            return;
+        }
+        Collections.sort(sorted);
+        long total = 0;
+        for (long latency : sorted) {
+            total += latency;
+        }
+        System.out.println(String.format("latency ms: mean %.2f p50 %.2f p95 %.2f p99 %.2f max %.2f",
+                total / 1e6 / sorted.size(), percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                sorted.get(sorted.size() - 1) / 1e6));
+    }
+
+    private static double percentile(List<Long> sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0)) / 1e6;
+    }
+
+    public int getPassed() {
+        return passed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getTimedOut() {
+        return timedOut.get();
+    }
+
+    public int getCrashed() {
+        return crashed.get();
+    }
+}
@@ -0,0 +1,162 @@
+package project;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/6/13
+ * Time: 7:15 PM
+ */
+class BatchWorker {
+    private final Process process;
+    private final DataOutputStream jobs;
+    private final DataInputStream results;
+
+    /**
+     * starts a worker jvm running ProgramDriver -worker, with the kxi settings of this one
+     */
+    BatchWorker() throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("kxi.")) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ProgramDriver.class.getName());
+        command.add("-worker");
+
+        process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        jobs = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        results = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    }
+
+    Process getProcess() {
+        return process;
+    }
+
+    /**
+     * runs a job on the worker, waiting for its result
+     *
+     * @param job .kxi file; a .in file beside it is the program input
+     * @return output and diagnostics of the job
+     * @throws IOException if the worker died or was killed
+     */
+    JobResult run(File job) throws IOException {
+        jobs.writeUTF(job.getPath());
+        jobs.flush();
+
+        StopReason stopReason = StopReason.valueOf(readString(results));
+        String diagnostics = readString(results);
+        String output = readString(results);
+        return new JobResult(new RunResult(diagnostics, stopReason), output);
+    }
+
+    void close() {
+        try {
+            jobs.close();
+            process.waitFor();
+        } catch (Exception e) {
+            process.destroyForcibly();
+        }
+    }
+
+    void destroy() {
+        process.destroyForcibly();
+    }
+
+    /**
+     * worker side; runs jobs sent on in until it is closed
+     *
+     * @param in  job paths
+     * @param out job results
+     */
+    static void serve(InputStream in, OutputStream out) throws IOException {
+        DataInputStream jobs = new DataInputStream(new BufferedInputStream(in));
+        DataOutputStream results = new DataOutputStream(new BufferedOutputStream(out));
+        // one cache for every job, from the -cache of the coordinator
+        CompileCache cache = CompileCache.fromProperties();
+
+        while (true) {
+            String path;
+            try {
+                path = jobs.readUTF();
+            } catch (EOFException e) {
+                return;
+            }
+
+            File job = new File(path);
+            StringWriter output = new StringWriter();
+            RunResult result;
+            try {
+                File inputFile = inputFile(job);
+                Reader input = inputFile.exists() ? new FileReader(inputFile) : null;
+                result = ProgramRunner.run(read(job), input, output, Budget.fromProperties(), cache);
+                if (input != null) {
+                    input.close();
+                }
+            } catch (IOException e) {
+                result = new RunResult("Cannot read " + path + "\n", StopReason.COMPILE_ERROR);
+            }
+
+            writeString(results, result.getStopReason().name());
+            writeString(results, result.getDiagnostics());
+            writeString(results, output.toString());
+            results.flush();
+        }
+    }
+
+    static File inputFile(File job) {
+        return sibling(job, ".in");
+    }
+
+    static File outputFile(File job) {
+        return sibling(job, ".out");
+    }
+
+    private static File sibling(File job, String extension) {
+        String name = job.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(job.getParentFile(), (dot < 0 ? name : name.substring(0, dot)) + extension);
+    }
+
+    private static String read(File file) throws IOException {
+        StringBuilder text = new StringBuilder();
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        char[] buffer = new char[4096];
+        int count;
+        while ((count = reader.read(buffer)) > 0) {
+            text.append(buffer, 0, count);
+        }
+        reader.close();
+        return text.toString();
+    }
+
+    // strings may be longer than writeUTF allows
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    static class JobResult {
+        final RunResult result;
+        final String output;
+
+        JobResult(RunResult result, String output) {
+            this.result = result;
+            this.output = output;
+        }
+    }
+}
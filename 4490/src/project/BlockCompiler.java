@@ -0,0 +1,486 @@
+package project;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static project.Assembler.*;
+import static project.CodeBuffer.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/24/13
+ * Time: 6:25 PM
+ */
+class BlockCompiler {
+    // block entries seen by the interpreter before a block is compiled
+    static final int THRESHOLD = 1000;
+
+    // keeps generated methods well inside the 32k branch offset limit
+    private static final int MAX_BLOCK = 400;
+    private static final int MAX_CODE = 24000;
+
+    // locals of the generated run method
+    private static final int RV = 1;
+    private static final int RT = 2;
+    private static final int MV = 3;
+    private static final int MT = 4;
+    private static final int LAST = 5;
+    private static final int CELL = 6;
+
+    private final int[] code;
+    private final int count;
+
+    // index one past the last instruction of the block starting at each index
+    private final int[] blockEnd;
+
+    private ClassFileWriter classFile;
+    private CodeBuffer out;
+
+    // branch position and target instruction of each jump in the block being compiled
+    private final List<int[]> jumps = new ArrayList<int[]>();
+
+    BlockCompiler(int[] code) {
+        this.code = code;
+        this.count = code.length / STRIDE;
+        this.blockEnd = new int[count + 1];
+
+        blockEnd[count] = count;
+        for (int i = count - 1; i >= 0; i--) {
+            blockEnd[i] = isStraightLine(opAt(i)) ? blockEnd[i + 1] : i + 1;
+        }
+    }
+
+    int blockEnd(int start) {
+        return blockEnd[start];
+    }
+
+    /**
+     * compiles the run of instructions starting at an index into a hidden class.
+     * branches that stay inside the run become jvm jumps, so a hot loop runs
+     * entirely in the compiled code
+     *
+     * @param start index of the first instruction
+     * @return compiled block, null if the block has nothing worth compiling
+     */
+    CompiledBlock compile(int start) {
+        classFile = new ClassFileWriter("project/CompiledBlockImpl", "java/lang/Object", "project/CompiledBlock");
+        out = new CodeBuffer(classFile);
+        jumps.clear();
+
+        int[] labels = new int[MAX_BLOCK + 1];
+        int pc = start;
+        while (pc < count && pc - start < MAX_BLOCK && out.size() < MAX_CODE) {
+            int op = opAt(pc);
+            labels[pc - start] = out.size();
+
+            boolean compiled = isStraightLine(op) ? emitStraightLine(pc, op) : emitBranch(pc, op);
+            if (!compiled) {
+                // traps, threads and anything unusual go back to the interpreter
+                break;
+            }
+            pc++;
+        }
+
+        if (pc == start) {
+            return null;
+        }
+
+        int stop = pc;
+        labels[stop - start] = out.size();
+        pushInt(stop);
+        emit(IRETURN);
+
+        // branches leaving the run return their target
+        Map<Integer, Integer> exits = new HashMap<Integer, Integer>();
+        for (int[] jump : jumps) {
+            int target = jump[1];
+            if (target >= start && target <= stop) {
+                out.patch(jump[0], labels[target - start]);
+                continue;
+            }
+
+            Integer exit = exits.get(target);
+            if (exit == null) {
+                exit = out.size();
+                exits.put(target, exit);
+                pushInt(target);
+                emit(IRETURN);
+            }
+            out.patch(jump[0], exit);
+        }
+
+        try {
+            classFile.addConstructor();
+            classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "run", "([I[B[I[B[I)I", 8, 7, out.toByteArray());
+            byte[] bytes = classFile.toByteArray();
+            Class<?> block = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            return (CompiledBlock) block.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return opcode at an index with superinstructions mapped back to their first instruction
+     */
+    private int opAt(int pc) {
+        if (pc >= count) {
+            return TRP;
+        }
+
+        int op = code[pc * STRIDE];
+        switch (op) {
+            case LDFS:
+            case STFS:
+            case FADR:
+                return MOV;
+            case CMPB:
+                return CMP;
+            default:
+                return op;
+        }
+    }
+
+    private static boolean isStraightLine(int op) {
+        switch (op) {
+            case ADI:
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+            case ADDI:
+            case STR:
+            case STRI:
+            case STRA:
+            case LDR:
+            case LDRA:
+            case LDA:
+            case CMP:
+            case MOV:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return false if the instruction has to be left to the interpreter
+     */
+    private boolean emitStraightLine(int pc, int op) {
+        int at = pc * STRIDE;
+        int a = code[at + 1];
+        int b = code[at + 2];
+
+        switch (op) {
+            case ADI:
+                loadTag(a);
+                guard(IFEQ, pc);
+                array(RV, a);
+                emit(DUP2);
+                emit(IALOAD);
+                pushInt(b);
+                emit(IADD);
+                emit(IASTORE);
+                break;
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+                loadTag(a);
+                loadTag(b);
+                emit(IOR);
+                guard(IFEQ, pc);
+                if (op == DIV) {
+                    loadValue(b);
+                    guard(IFNE, pc);
+                }
+                array(RV, a);
+                emit(DUP2);
+                emit(IALOAD);
+                loadValue(b);
+                emit(op == ADD ? IADD : op == SUB ? ISUB : op == MUL ? IMUL : IDIV);
+                emit(IASTORE);
+                touch(a);
+                break;
+            case ADDI:
+                loadValue(b);
+                store(CELL);
+                loadCell(a);
+                touch(a);
+                break;
+            case STR:
+            case STRI:
+                loadValue(a);
+                store(CELL);
+                storeCell(b);
+                touch(b);
+                break;
+            case STRA:
+                if (b < 0) {
+                    return false;
+                }
+                array(MV, b);
+                loadValue(a);
+                emit(IASTORE);
+                array(MT, b);
+                loadTag(a);
+                emit(BASTORE);
+                break;
+            case LDR: {
+                loadValue(b);
+                store(CELL);
+                load(CELL);
+                int below = branch(IFLT);
+                load(CELL);
+                load(MV);
+                emit(ARRAYLENGTH);
+                int above = branch(IF_ICMPGE);
+                loadCell(a);
+                int done = branch(GOTO);
+                patch(below);
+                patch(above);
+                array(RV, a);
+                emit(ICONST_0);
+                emit(IASTORE);
+                array(RT, a);
+                emit(ICONST_0);
+                emit(BASTORE);
+                patch(done);
+                touch(a);
+                break;
+            }
+            case LDRA:
+                array(RV, a);
+                array(MV, b);
+                emit(IALOAD);
+                emit(IASTORE);
+                array(RT, a);
+                array(MT, b);
+                emit(BALOAD);
+                emit(BASTORE);
+                touch(a);
+                break;
+            case LDA:
+                if (b < 0) {
+                    return false;
+                }
+                array(RV, a);
+                pushInt(b);
+                emit(IASTORE);
+                array(RT, a);
+                emit(ICONST_0);
+                emit(BASTORE);
+                break;
+            case CMP: {
+                loadTag(a);
+                loadTag(b);
+                emit(IOR);
+                int chars = branch(IFNE);
+                array(RV, a);
+                loadValue(b);
+                loadValue(a);
+                emit(ISUB);
+                emit(IASTORE);
+                int done = branch(GOTO);
+                patch(chars);
+                array(RV, a);
+                loadValue(a);
+                loadValue(b);
+                emit(ISUB);
+                emit(IASTORE);
+                array(RT, a);
+                emit(ICONST_0);
+                emit(BASTORE);
+                patch(done);
+                break;
+            }
+            case MOV:
+                array(RV, a);
+                loadValue(b);
+                emit(IASTORE);
+                array(RT, a);
+                loadTag(b);
+                emit(BASTORE);
+                touch(a);
+                break;
+            default:
+                break;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return false if the instruction is not a branch
+     */
+    private boolean emitBranch(int pc, int op) {
+        int at = pc * STRIDE;
+        int a = code[at + 1];
+        int target = code[at + 3];
+
+        switch (op) {
+            case JMP:
+                branchTo(GOTO, pc, target);
+                return true;
+            case JMR:
+                // negative results are reserved for failed checks
+                loadValue(a);
+                guard(IFGE, pc);
+                loadValue(a);
+                pushInt(1);
+                emit(IADD);
+                emit(IRETURN);
+                return true;
+            case BNZ:
+                loadValue(a);
+                branchTo(IFNE, pc, target);
+                return true;
+            case BLT:
+                loadValue(a);
+                branchTo(IFGT, pc, target);
+                return true;
+            case BGT:
+                loadValue(a);
+                branchTo(IFLT, pc, target);
+                return true;
+            case BRZ:
+                loadValue(a);
+                branchTo(IFEQ, pc, target);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * a branch back to an earlier instruction also charges the instructions it repeats to the
+     * thread's fuel, and leaves the block when the fuel runs out so the vm can check its budgets
+     */
+    private void branchTo(int op, int pc, int target) {
+        if (target > pc) {
+            jump(op, target);
+            return;
+        }
+
+        int notTaken = op == GOTO ? -1 : branch(negate(op));
+
+        // rv[FUEL] -= pc - target + 1
+        array(RV, RegisterFile.FUEL);
+        emit(DUP2);
+        emit(IALOAD);
+        pushInt(pc - target + 1);
+        emit(ISUB);
+        emit(IASTORE);
+
+        array(RV, RegisterFile.FUEL);
+        emit(IALOAD);
+        jump(IFGE, target);
+        pushInt(target);
+        emit(IRETURN);
+
+        if (notTaken >= 0) {
+            patch(notTaken);
+        }
+    }
+
+    // IFEQ and IFNE, IFLT and IFGE, IFGT and IFLE are next to each other
+    private static int negate(int op) {
+        return ((op - IFEQ) ^ 1) + IFEQ;
+    }
+
+    // branch to an instruction, resolved once the whole run is emitted
+    private void jump(int op, int target) {
+        jumps.add(new int[]{branch(op), target});
+    }
+
+    // rv[r] = mv[cell]; rt[r] = mt[cell]
+    private void loadCell(int r) {
+        array(RV, r);
+        load(MV);
+        load(CELL);
+        emit(IALOAD);
+        emit(IASTORE);
+        array(RT, r);
+        load(MT);
+        load(CELL);
+        emit(BALOAD);
+        emit(BASTORE);
+    }
+
+    // mv[cell] = rv[r]; mt[cell] = rt[r]
+    private void storeCell(int r) {
+        load(MV);
+        load(CELL);
+        loadValue(r);
+        emit(IASTORE);
+        load(MT);
+        load(CELL);
+        loadTag(r);
+        emit(BASTORE);
+    }
+
+    // last[rt[r]] = rv[r], see RegisterFile.touch
+    private void touch(int r) {
+        load(LAST);
+        loadTag(r);
+        loadValue(r);
+        emit(IASTORE);
+    }
+
+    private void loadValue(int r) {
+        array(RV, r);
+        emit(IALOAD);
+    }
+
+    private void loadTag(int r) {
+        array(RT, r);
+        emit(BALOAD);
+    }
+
+    private void array(int local, int index) {
+        load(local);
+        pushInt(index);
+    }
+
+    private void load(int local) {
+        emit(local == CELL ? ILOAD : ALOAD);
+        emit(local);
+    }
+
+    private void store(int local) {
+        emit(ISTORE);
+        emit(local);
+    }
+
+    /**
+     * continues if the value on the stack passes the test, otherwise hands the
+     * instruction back to the interpreter so it can report the error
+     */
+    private void guard(int passOp, int pc) {
+        int pass = branch(passOp);
+        pushInt(~pc);
+        emit(IRETURN);
+        patch(pass);
+    }
+
+    private int branch(int op) {
+        return out.branch(op);
+    }
+
+    // points the branch at the current position
+    private void patch(int at) {
+        out.patch(at);
+    }
+
+    private void pushInt(int value) {
+        out.pushInt(value);
+    }
+
+    private void emit(int b) {
+        out.emit(b);
+    }
+}
@@ -0,0 +1,48 @@
+package project;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/7/13
+ * Time: 6:40 PM
+ */
+public class Budget {
+    public static final Budget NONE = new Budget(0, 0, 0);
+
+    private final long instructions;
+    private final long millis;
+    private final int heapCells;
+
+    /**
+     * limits on one run of a program; 0 leaves a limit off
+     *
+     * @param instructions instructions run by all of the program's threads together
+     * @param millis       wall-clock time
+     * @param heapCells    heap cells allocated by new, at most TCode.STACK_SIZE
+     */
+    public Budget(long instructions, long millis, int heapCells) {
+        this.instructions = instructions;
+        this.millis = millis;
+        this.heapCells = heapCells;
+    }
+
+    /**
+     * @return limits from -Dkxi.maxInstructions, -Dkxi.maxMillis and -Dkxi.maxHeap
+     */
+    public static Budget fromProperties() {
+        return new Budget(Long.getLong("kxi.maxInstructions", 0), Long.getLong("kxi.maxMillis", 0),
+                Integer.getInteger("kxi.maxHeap", 0));
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public int getHeapCells() {
+        return heapCells;
+    }
+}
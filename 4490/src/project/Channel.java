@@ -0,0 +1,169 @@
+package project;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/2/13
+ * Time: 3:45 PM
+ */
+public class Channel {
+    // a message is a register value and its tag, so an empty channel can never be mistaken for one
+    public static final long EMPTY = -1;
+
+    private final int mask;
+    private final long[] messages;
+
+    // each slot holds the position it can next be sent at, or that position + 1 once it is full
+    private final AtomicLongArray sequences;
+    private final AtomicLong sendPosition = new AtomicLong();
+    private final AtomicLong receivePosition = new AtomicLong();
+
+    // threads parked on a full or an empty channel
+    private final ConcurrentLinkedQueue<Thread> senders = new ConcurrentLinkedQueue<Thread>();
+    private final ConcurrentLinkedQueue<Thread> receivers = new ConcurrentLinkedQueue<Thread>();
+
+    /**
+     * @param capacity messages the channel holds before send blocks, rounded up to a power of two
+     */
+    public Channel(int capacity) {
+        // a single slot could not tell a full channel from one just emptied
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        mask = size - 1;
+        messages = new long[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public static long message(int value, byte tag) {
+        return ((long) tag << 32) | (value & 0xffffffffL);
+    }
+
+    public static int value(long message) {
+        return (int) message;
+    }
+
+    public static byte tag(long message) {
+        return (byte) (message >>> 32);
+    }
+
+    /**
+     * @return false if the channel is full
+     */
+    public boolean offer(long message) {
+        long position = sendPosition.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+
+            if (difference == 0) {
+                if (sendPosition.compareAndSet(position, position + 1)) {
+                    messages[slot] = message;
+                    sequences.lazySet(slot, position + 1);
+                    wake(receivers);
+                    return true;
+                }
+                position = sendPosition.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = sendPosition.get();
+            }
+        }
+    }
+
+    /**
+     * @return the next message, EMPTY if there is none
+     */
+    public long poll() {
+        long position = receivePosition.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - (position + 1);
+
+            if (difference == 0) {
+                if (receivePosition.compareAndSet(position, position + 1)) {
+                    long message = messages[slot];
+                    sequences.lazySet(slot, position + mask + 1);
+                    wake(senders);
+                    return message;
+                }
+                position = receivePosition.get();
+            } else if (difference < 0) {
+                return EMPTY;
+            } else {
+                position = receivePosition.get();
+            }
+        }
+    }
+
+    /**
+     * sends a message, parking while the channel is full
+     *
+     * @return false if the thread was interrupted before the message could be sent
+     */
+    public boolean send(long message) {
+        while (!offer(message)) {
+            Thread self = Thread.currentThread();
+            if (self.isInterrupted()) {
+                return false;
+            }
+            senders.add(self);
+
+            // a receiver may have made room before this thread was queued
+            if (offer(message)) {
+                senders.remove(self);
+                return true;
+            }
+            LockSupport.park(this);
+            senders.remove(self);
+        }
+        return true;
+    }
+
+    /**
+     * receives a message, parking while the channel is empty
+     *
+     * @return the message, EMPTY if the thread was interrupted while it waited
+     */
+    public long receive() {
+        long message;
+        while ((message = poll()) == EMPTY) {
+            Thread self = Thread.currentThread();
+            if (self.isInterrupted()) {
+                return EMPTY;
+            }
+            receivers.add(self);
+
+            // a sender may have sent before this thread was queued
+            if ((message = poll()) != EMPTY) {
+                receivers.remove(self);
+                return message;
+            }
+            LockSupport.park(this);
+            receivers.remove(self);
+        }
+        return message;
+    }
+
+    private static void wake(ConcurrentLinkedQueue<Thread> waiting) {
+        Thread thread = waiting.poll();
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
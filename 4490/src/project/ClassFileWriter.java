@@ -0,0 +1,173 @@
+package project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/27/13
+ * Time: 2:10 PM
+ */
+class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // version 49 classes are checked by type inference, so no stack map frames are needed
+    private static final int VERSION = 49;
+
+    private final List<byte[]> constants = new ArrayList<byte[]>();
+    private final Map<String, Integer> constantIndex = new HashMap<String, Integer>();
+    private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+    private int methodCount = 0;
+
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+
+    ClassFileWriter(String name, String superName, String... interfaces) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * adds a public no argument constructor that calls the super constructor
+     */
+    void addConstructor() {
+        CodeBuffer code = new CodeBuffer(this);
+        code.emit(CodeBuffer.ALOAD_0);
+        code.emit(CodeBuffer.INVOKESPECIAL);
+        code.emitShort(methodRef(superName, "<init>", "()V"));
+        code.emit(CodeBuffer.RETURN);
+        addMethod(ACC_PUBLIC, "<init>", "()V", 1, 1, code.toByteArray());
+    }
+
+    void addMethod(int access, String methodName, String descriptor, int maxStack, int maxLocals, byte[] body) {
+        DataOutputStream out = new DataOutputStream(methods);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(methodName));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + body.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methodCount++;
+    }
+
+    byte[] toByteArray() {
+        int thisClass = classRef(name);
+        int superClass = classRef(superName);
+        int[] interfaceRefs = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaceRefs[i] = classRef(interfaces[i]);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream file = new DataOutputStream(bytes);
+        try {
+            file.writeInt(0xCAFEBABE);
+            file.writeShort(0);
+            file.writeShort(VERSION);
+            file.writeShort(constants.size() + 1);
+            for (byte[] constant : constants) {
+                file.write(constant);
+            }
+            file.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            file.writeShort(thisClass);
+            file.writeShort(superClass);
+            file.writeShort(interfaceRefs.length);
+            for (int ref : interfaceRefs) {
+                file.writeShort(ref);
+            }
+            file.writeShort(0);
+            file.writeShort(methodCount);
+            methods.writeTo(file);
+            file.writeShort(0);
+            file.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    int utf8(String value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        try {
+            data.writeByte(1);
+            data.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return constant("U:" + value, bytes.toByteArray());
+    }
+
+    int classRef(String className) {
+        return constant("C:" + className, entry(7, utf8(className)));
+    }
+
+    int stringRef(String value) {
+        return constant("S:" + value, entry(8, utf8(value)));
+    }
+
+    int integer(int value) {
+        return constant("I:" + value, new byte[]{3, (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value});
+    }
+
+    int methodRef(String owner, String methodName, String descriptor) {
+        return memberRef(10, owner, methodName, descriptor);
+    }
+
+    int fieldRef(String owner, String fieldName, String descriptor) {
+        return memberRef(9, owner, fieldName, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String memberName, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameAndType = constant("N:" + memberName + ":" + descriptor, entry(12, utf8(memberName), utf8(descriptor)));
+        return constant(tag + ":" + owner + "." + memberName + ":" + descriptor, entry(tag, ownerIndex, nameAndType));
+    }
+
+    private static byte[] entry(int tag, int... indexes) {
+        byte[] bytes = new byte[1 + 2 * indexes.length];
+        bytes[0] = (byte) tag;
+        for (int i = 0; i < indexes.length; i++) {
+            bytes[1 + 2 * i] = (byte) (indexes[i] >> 8);
+            bytes[2 + 2 * i] = (byte) indexes[i];
+        }
+        return bytes;
+    }
+
+    // constant pool indexes start at 1
+    private int constant(String key, byte[] entry) {
+        Integer index = constantIndex.get(key);
+        if (index == null) {
+            constants.add(entry);
+            index = constants.size();
+            constantIndex.put(key, index);
+        }
+        return index;
+    }
+}
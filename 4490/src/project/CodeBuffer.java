@@ -0,0 +1,190 @@
+package project;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/27/13
+ * Time: 2:40 PM
+ */
+class CodeBuffer {
+    // jvm opcodes
+    static final int ACONST_NULL = 1;
+    static final int ICONST_0 = 3;
+    static final int BIPUSH = 16;
+    static final int SIPUSH = 17;
+    static final int LDC_W = 19;
+    static final int ILOAD = 21;
+    static final int ALOAD = 25;
+    static final int ALOAD_0 = 42;
+    static final int IALOAD = 46;
+    static final int BALOAD = 51;
+    static final int ISTORE = 54;
+    static final int ASTORE = 58;
+    static final int IASTORE = 79;
+    static final int BASTORE = 84;
+    static final int POP = 87;
+    static final int DUP2 = 92;
+    static final int IADD = 96;
+    static final int ISUB = 100;
+    static final int IMUL = 104;
+    static final int IDIV = 108;
+    static final int IREM = 112;
+    static final int IOR = 128;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int IFLT = 155;
+    static final int IFGE = 156;
+    static final int IFGT = 157;
+    static final int IFLE = 158;
+    static final int IF_ICMPEQ = 159;
+    static final int IF_ICMPNE = 160;
+    static final int IF_ICMPLT = 161;
+    static final int IF_ICMPGE = 162;
+    static final int IF_ICMPGT = 163;
+    static final int IF_ICMPLE = 164;
+    static final int GOTO = 167;
+    static final int IRETURN = 172;
+    static final int ARETURN = 176;
+    static final int RETURN = 177;
+    static final int GETSTATIC = 178;
+    static final int INVOKEVIRTUAL = 182;
+    static final int INVOKESPECIAL = 183;
+    static final int INVOKESTATIC = 184;
+    static final int NEW = 187;
+    static final int NEWARRAY = 188;
+    static final int ARRAYLENGTH = 190;
+    static final int DUP = 89;
+
+    static final int T_INT = 10;
+
+    private final ClassFileWriter classFile;
+    private byte[] bytes = new byte[256];
+    private int size = 0;
+
+    private final Map<String, Integer> labels = new HashMap<String, Integer>();
+
+    // branch position and target label of each jump not yet resolved
+    private final List<Object[]> jumps = new ArrayList<Object[]>();
+
+    CodeBuffer(ClassFileWriter classFile) {
+        this.classFile = classFile;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void emit(int b) {
+        if (size == bytes.length) {
+            byte[] newBytes = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, newBytes, 0, size);
+            bytes = newBytes;
+        }
+        bytes[size++] = (byte) b;
+    }
+
+    void emitShort(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    void append(byte[] code) {
+        for (byte b : code) {
+            emit(b);
+        }
+    }
+
+    void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emit(BIPUSH);
+            emit(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            emit(SIPUSH);
+            emitShort(value);
+        } else {
+            emit(LDC_W);
+            emitShort(classFile.integer(value));
+        }
+    }
+
+    void pushString(String value) {
+        emit(LDC_W);
+        emitShort(classFile.stringRef(value));
+    }
+
+    void load(int op, int local) {
+        emit(op);
+        emit(local);
+    }
+
+    void invokeStatic(String owner, String name, String descriptor) {
+        emit(INVOKESTATIC);
+        emitShort(classFile.methodRef(owner, name, descriptor));
+    }
+
+    /**
+     * emits a branch with its offset left blank
+     *
+     * @return position of the branch, for patch
+     */
+    int branch(int op) {
+        int at = size;
+        emit(op);
+        emitShort(0);
+        return at;
+    }
+
+    // points the branch at the current position
+    void patch(int at) {
+        patch(at, size);
+    }
+
+    void patch(int at, int position) {
+        int offset = position - at;
+        bytes[at + 1] = (byte) (offset >> 8);
+        bytes[at + 2] = (byte) offset;
+    }
+
+    void label(String label) {
+        labels.put(label, size);
+    }
+
+    boolean hasLabel(String label) {
+        return labels.containsKey(label);
+    }
+
+    // branch to a label, resolved by resolveJumps
+    void jump(int op, String label) {
+        jumps.add(new Object[]{branch(op), label});
+    }
+
+    /**
+     * patches every jump to its label
+     *
+     * @return first label that was never placed, null if all were found
+     */
+    String resolveJumps() {
+        for (Object[] jump : jumps) {
+            Integer position = labels.get(jump[1]);
+            if (position == null) {
+                return (String) jump[1];
+            }
+            patch((Integer) jump[0], position);
+        }
+        jumps.clear();
+        return null;
+    }
+
+    byte[] toByteArray() {
+        byte[] result = new byte[size];
+        System.arraycopy(bytes, 0, result, 0, size);
+        return result;
+    }
+}
@@ -0,0 +1,164 @@
+package project;
+
+import java.io.File;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/8/13
+ * Time: 7:15 PM
+ */
+public class CompileCache {
+    private static final String EXTENSION = ".kxo";
+
+    private final File directory;
+    private final long maxBytes;
+
+    // cached programs by key, least recently used first, with the size of each file
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long bytes;
+
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    /**
+     * a cache of assembled programs in a directory, keyed by a hash of the source and the
+     * options that change how it is assembled; other processes may share the directory
+     *
+     * @param directory where the programs are kept
+     * @param maxBytes  least recently used programs are removed to keep the files under this
+     */
+    public CompileCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        directory.mkdirs();
+
+        // files left by earlier runs, oldest first
+        File[] files = directory.listFiles();
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(EXTENSION)) {
+                entries.put(name.substring(0, name.length() - EXTENSION.length()), file.length());
+                bytes += file.length();
+            }
+        }
+    }
+
+    /**
+     * @return a cache in -Dkxi.cache, bounded by -Dkxi.cacheSize bytes; null if there is none
+     */
+    public static CompileCache fromProperties() {
+        String directory = System.getProperty("kxi.cache");
+        return directory == null ? null : new CompileCache(new File(directory), Long.getLong("kxi.cacheSize", 64L << 20));
+    }
+
+    /**
+     * loads a program from the cache, compiling and adding it if it is not there
+     *
+     * @param source      program source
+     * @param diagnostics where compiler and assembler errors are written
+     * @return the assembled program, null if it has errors
+     */
+    public ProgramImage compile(String source, Writer diagnostics) {
+        byte[] hash = ProgramImage.imageHash(source);
+        String key = ProgramImage.key(hash);
+
+        ProgramImage image = get(key, hash);
+        if (image != null) {
+            return image;
+        }
+
+        image = ProgramRunner.compile(source, diagnostics);
+        if (image != null) {
+            put(key, hash, image);
+        }
+        return image;
+    }
+
+    private synchronized ProgramImage get(String key, byte[] hash) {
+        File file = file(key);
+        ProgramImage image = entries.containsKey(key) || file.isFile() ? ProgramImage.read(file, hash) : null;
+        if (image == null) {
+            misses++;
+            // removed, or left half written, by another process
+            Long stale = entries.remove(key);
+            if (stale != null) {
+                bytes -= stale;
+            }
+            return null;
+        }
+
+        hits++;
+        if (!entries.containsKey(key)) {
+            // added by another process
+            entries.put(key, file.length());
+            bytes += file.length();
+        }
+        entries.get(key);
+        file.setLastModified(System.currentTimeMillis());
+        return image;
+    }
+
+    private void put(String key, final byte[] hash, final ProgramImage image) {
+        File file = file(key);
+        boolean written = AtomicFile.write(file, new AtomicFile.Contents() {
+            @Override
+            public boolean writeTo(File temp) {
+                return image.write(temp, hash);
+            }
+        });
+        if (!written) {
+            return;
+        }
+
+        synchronized (this) {
+            Long old = entries.put(key, file.length());
+            bytes += file.length() - (old == null ? 0 : old);
+
+            // drop the least recently used programs, but never the one just added
+            Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && entries.size() > 1) {
+                Map.Entry<String, Long> entry = eldest.next();
+                file(entry.getKey()).delete();
+                bytes -= entry.getValue();
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    private File file(String key) {
+        return new File(directory, key + EXTENSION);
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized int getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return bytes of the cached programs
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+}
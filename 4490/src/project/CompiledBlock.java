@@ -0,0 +1,16 @@
+package project;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/24/13
+ * Time: 6:10 PM
+ */
+interface CompiledBlock {
+    /**
+     * runs a compiled basic block against the vm state
+     *
+     * @return index of the next instruction, or ~index of an instruction the interpreter must run
+     */
+    int run(int[] rv, byte[] rt, int[] mv, byte[] mt, int[] last);
+}
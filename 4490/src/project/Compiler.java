@@ -56,22 +56,38 @@ public class Compiler {
         return errorList;
     }
 
+    public LinkedHashMap<String, Symbol> getSymbolTable() {
+        return symbolTable;
+    }
+
     public void evaluate(boolean isTest) {
+        evaluate(isTest, null);
+    }
+
+    /**
+     * @param jarFile when not null the program is compiled to a runnable jar instead of run
+     */
+    public void evaluate(boolean isTest, String jarFile) {
         // pass one
         if (!compilation_unit()) {
             System.out.print(errorList);
-            System.exit(0);
+            return;
         }
 
         if (isTest) {
             System.out.println("Syntax Analysis Successful!");
         }
 
-        lexicalAnalyzer.resetList();
-
         // pass two
-        PassTwo passTwo = new PassTwo(symbolTable, lexicalAnalyzer, variableId);
-        passTwo.evaluate(isTest);
+        passTwo().evaluate(isTest, jarFile);
+    }
+
+    /**
+     * @return pass two over the tokens, using the symbol table built by compilation_unit
+     */
+    public PassTwo passTwo() {
+        lexicalAnalyzer.resetList();
+        return new PassTwo(symbolTable, lexicalAnalyzer, variableId);
     }
 
     private boolean new_declaration() {
@@ -816,6 +832,45 @@ public class Compiler {
 
             return true;
 
+        } else if (lexicalAnalyzer.getToken().getName().equals(KeyConst.SPAWN.getKey())) {
+
+            // check format: "spawn" expression ";"
+            lexicalAnalyzer.nextToken();
+            if (isUnknownSymbol(lexicalAnalyzer.getToken().getType())) {
+                return false;
+            }
+
+            if (lexicalAnalyzer.getToken() instanceof NullTuple || !expression()) {
+                errorList += "'spawn' statement requires a method call." + LINE + lexicalAnalyzer.getToken().getLineNum() + "\n";
+                return false;
+            }
+
+            if (isUnknownSymbol(lexicalAnalyzer.getToken().getType())) {
+                return false;
+            }
+
+            if (lexicalAnalyzer.getToken() instanceof NullTuple || !lexicalAnalyzer.getToken().getType().equals(LexicalAnalyzer.tokenTypesEnum.EOT.name())) {
+                errorList += INVALID_STATEMENT + " 'spawn' statement must end with a ';'." + LINE + lexicalAnalyzer.getToken().getLineNum() + "\n";
+                return false;
+            }
+
+            return true;
+
+        } else if (lexicalAnalyzer.getToken().getName().equals(KeyConst.JOIN.getKey())) {
+
+            // check format: "join" ";"
+            lexicalAnalyzer.nextToken();
+            if (isUnknownSymbol(lexicalAnalyzer.getToken().getType())) {
+                return false;
+            }
+
+            if (lexicalAnalyzer.getToken() instanceof NullTuple || !lexicalAnalyzer.getToken().getType().equals(LexicalAnalyzer.tokenTypesEnum.EOT.name())) {
+                errorList += INVALID_STATEMENT + " 'join' statement must end with a ';'." + LINE + lexicalAnalyzer.getToken().getLineNum() + "\n";
+                return false;
+            }
+
+            return true;
+
         } else {
 
             // check format: expression ";"
@@ -1559,6 +1614,53 @@ public class Compiler {
             }
         }
 
+        return main_declaration();
+    }
+
+    /**
+     * parses a source holding a single class, for separate compilation; the classes it uses
+     * have to be added with importSymbol first
+     */
+    public boolean class_unit() {
+        // check format: class_declaration
+        if (lexicalAnalyzer.getToken() instanceof NullTuple || isUnknownSymbol(lexicalAnalyzer.getToken().getType())) {
+            return false;
+        }
+
+        if (!class_declaration()) {
+            errorList += "Invalid compilation unit. Invalid class declaration." + LINE + lexicalAnalyzer.getToken().getLineNum() + "\n";
+            return false;
+        }
+        return lexicalAnalyzer.getToken() instanceof NullTuple;
+    }
+
+    /**
+     * parses a source holding only the main method, for separate compilation
+     */
+    public boolean main_unit() {
+        // check format: "void" "main" "(" ")" method_body
+        if (lexicalAnalyzer.getToken() instanceof NullTuple || !lexicalAnalyzer.getToken().getName().equals(KeyConst.VOID.getKey())) {
+            errorList += "Invalid compilation unit. Missing 'main' method.\n";
+            return false;
+        }
+        return main_declaration();
+    }
+
+    /**
+     * adds a symbol compiled in another unit under a new id in this one
+     *
+     * @param symbol class, ivar, method or constructor from another unit
+     * @return the id the symbol has in this unit
+     */
+    public String importSymbol(Symbol symbol) {
+        String key = symbol.getSymId().substring(0, 1);
+        String symId = key.equals("M") ? key + methodId++ : key + variableId++;
+        symbolTable.put(symId, new Symbol(symbol.getScope(), symId, symbol.getValue(), symbol.getKind(), symbol.getData(), symbol.getSize(), symbol.getObjectSize()));
+        return symId;
+    }
+
+    private boolean main_declaration() {
+        // check format: "void" "main" "(" ")" method_body
         lexicalAnalyzer.nextToken();
         if (isUnknownSymbol(lexicalAnalyzer.getToken().getType())) {
             return false;
@@ -1687,7 +1789,8 @@ public class Compiler {
                 symbolTable.put(key + variableId, new Symbol(scope, key + variableId++, name, kind, data, classObj.getSize(), 1));
                 classObj.updateSize(1);
             } else {
-                symbolTable.put(key + variableId, new Symbol(scope, key + variableId++, name, kind, data, method.getSize(), 1));
+                // locals go after the return address, PFP, 'this' and the parameters
+                symbolTable.put(key + variableId, new Symbol(scope, key + variableId++, name, kind, data, method.getTotalSize(), 1));
                 method.updateSize(1);
             }
         }
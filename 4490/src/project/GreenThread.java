@@ -0,0 +1,26 @@
+package project;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/3/13
+ * Time: 2:10 PM
+ */
+class GreenThread {
+    final RegisterFile registers;
+    final int stack;
+    final GreenThread parent;
+
+    // next instruction; a thread stopped at BLK, SND, RCV or LCK runs it again when it is next picked
+    int pc;
+
+    // true after a turn where the thread could not run an instruction
+    boolean waiting;
+
+    GreenThread(RegisterFile registers, int pc, int stack, GreenThread parent) {
+        this.registers = registers;
+        this.pc = pc;
+        this.stack = stack;
+        this.parent = parent;
+    }
+}
@@ -41,10 +41,13 @@ public enum ICodeOprConst {
     END_WHILE("ENDWHILE"),
     NEWI_OPR("NEWI"),
     NEW_OPR("NEW"),
+    AEF_OPR("AEF"),
     CREATE_OPR("CREATE"),
     FUNC_OPR("FUNC"),
     MOD_OPR("MOD"),
-    MOVI_OPR("MOVI");
+    MOVI_OPR("MOVI"),
+    SPAWN_OPR("SPAWN"),
+    JOIN_OPR("JOIN");
 
     private String key;
 
@@ -11,6 +11,12 @@ public class Instruction {
     private String opd1;
     private String opd2;
     private String label;
+    private int target = -1;
+    private int address = -1;
+    private int reg1 = -1;
+    private int reg2 = -1;
+    private int reg3 = -1;
+    private int immediate;
 
     public Instruction() {
     }
@@ -64,4 +70,52 @@ public class Instruction {
     public void setLabel(String label) {
         this.label = label;
     }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public void setTarget(int target) {
+        this.target = target;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    public void setAddress(int address) {
+        this.address = address;
+    }
+
+    public int getReg1() {
+        return reg1;
+    }
+
+    public void setReg1(int reg1) {
+        this.reg1 = reg1;
+    }
+
+    public int getReg2() {
+        return reg2;
+    }
+
+    public void setReg2(int reg2) {
+        this.reg2 = reg2;
+    }
+
+    public int getReg3() {
+        return reg3;
+    }
+
+    public void setReg3(int reg3) {
+        this.reg3 = reg3;
+    }
+
+    public int getImmediate() {
+        return immediate;
+    }
+
+    public void setImmediate(int immediate) {
+        this.immediate = immediate;
+    }
 }
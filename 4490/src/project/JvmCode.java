@@ -0,0 +1,656 @@
+package project;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static project.CodeBuffer.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/28/13
+ * Time: 7:40 PM
+ */
+public class JvmCode {
+    public static final String MAIN_CLASS = "KxiProgram";
+
+    private static final String RUNTIME = "project/KxiRuntime";
+    private static final String ENTRY = "start";
+    private static final String INT_ARRAY = "[I";
+
+    private static final int IF_ACMPEQ = 165;
+    private static final int IF_ACMPNE = 166;
+
+    private LinkedHashMap<String, Symbol> symbolTable;
+    private List<ICode> iCodeList;
+    private ClassFileWriter classFile;
+
+    // method being compiled; null while compiling the code before the first method
+    private Symbol method;
+    private CodeBuffer code;
+    private Map<String, Integer> locals;
+    private Set<String> refLocals;
+    private int firstLocal;
+    private int maxArgs;
+
+    // temps made by REF, each standing for a field of an object: {object, ivar}
+    private Map<String, String[]> fields;
+
+    // temps made by AEF, each standing for an element of an array: {array, index}
+    private Map<String, String[]> elements;
+
+    // call being set up by FRAME and PUSH, and the temp FRAME names for its result
+    private String receiver;
+    private String callResult;
+    private List<String> arguments = new ArrayList<String>();
+
+    public JvmCode(LinkedHashMap<String, Symbol> symbolTable, List<ICode> iCodeList) {
+        this.symbolTable = symbolTable;
+        this.iCodeList = iCodeList;
+    }
+
+    /**
+     * compiles the program into a jar that runs with java -jar
+     *
+     * @param fileName jar file
+     * @return false if the program could not be compiled or written
+     */
+    public boolean writeJar(String fileName) {
+        byte[] program = buildClass();
+        if (program == null) {
+            return false;
+        }
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, MAIN_CLASS);
+
+        try {
+            JarOutputStream jar = new JarOutputStream(new FileOutputStream(fileName), manifest);
+            jar.putNextEntry(new JarEntry(MAIN_CLASS + ".class"));
+            jar.write(program);
+            jar.closeEntry();
+
+            // the runtime support class goes in the jar so it runs on its own
+            InputStream runtime = KxiRuntime.class.getResourceAsStream("KxiRuntime.class");
+            jar.putNextEntry(new JarEntry(RUNTIME + ".class"));
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = runtime.read(buffer)) > 0) {
+                jar.write(buffer, 0, count);
+            }
+            runtime.close();
+            jar.closeEntry();
+            jar.close();
+        } catch (IOException e) {
+            System.out.println("error creating file");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return class file of the program, null if the program uses something the backend does not support
+     */
+    public byte[] buildClass() {
+        classFile = new ClassFileWriter(MAIN_CLASS, "java/lang/Object", "java/lang/Runnable");
+        classFile.addConstructor();
+        addMain();
+        addRun();
+
+        try {
+            startMethod(null);
+            for (ICode iCode : iCodeList) {
+                if (iCode.getOperation().equals(ICodeOprConst.FUNC_OPR.getKey())) {
+                    endMethod();
+                    startMethod(symbolTable.get(iCode.getArg1()));
+                } else {
+                    compile(iCode);
+                }
+            }
+            endMethod();
+        } catch (IllegalStateException e) {
+            System.out.println("Error: " + e.getMessage());
+            return null;
+        }
+
+        return classFile.toByteArray();
+    }
+
+    // public static void main(String[] args) { KxiRuntime.run(new KxiProgram()); }
+    private void addMain() {
+        CodeBuffer main = new CodeBuffer(classFile);
+        main.emit(NEW);
+        main.emitShort(classFile.classRef(MAIN_CLASS));
+        main.emit(DUP);
+        main.emit(INVOKESPECIAL);
+        main.emitShort(classFile.methodRef(MAIN_CLASS, "<init>", "()V"));
+        main.invokeStatic(RUNTIME, "run", "(Ljava/lang/Runnable;)V");
+        main.emit(RETURN);
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "main", "([Ljava/lang/String;)V", 2, 1, main.toByteArray());
+    }
+
+    // public void run() { start(null); }
+    private void addRun() {
+        CodeBuffer run = new CodeBuffer(classFile);
+        run.emit(ACONST_NULL);
+        run.invokeStatic(MAIN_CLASS, ENTRY, "([I)I");
+        run.emit(POP);
+        run.emit(RETURN);
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "run", "()V", 1, 1, run.toByteArray());
+    }
+
+    private void startMethod(Symbol method) {
+        this.method = method;
+        code = new CodeBuffer(classFile);
+        locals = new HashMap<String, Integer>();
+        refLocals = new HashSet<String>();
+        fields = new HashMap<String, String[]>();
+        elements = new HashMap<String, String[]>();
+        maxArgs = 0;
+        receiver = null;
+        callResult = null;
+        arguments.clear();
+
+        // slot 0 is the object the method was called on
+        locals.put(KeyConst.THIS.getKey(), 0);
+        refLocals.add(KeyConst.THIS.getKey());
+
+        if (method != null) {
+            for (Symbol parameter : parameters(method)) {
+                newLocal(parameter.getSymId());
+            }
+        }
+        firstLocal = locals.size();
+    }
+
+    private void endMethod() {
+        defaultReturn();
+
+        String missing = code.resolveJumps();
+        if (missing != null) {
+            throw new IllegalStateException("label " + missing + " is never placed");
+        }
+        if (locals.size() > 255) {
+            throw new IllegalStateException("too many variables in " + methodName());
+        }
+
+        // locals start out zero like the vm's memory
+        CodeBuffer body = new CodeBuffer(classFile);
+        for (Map.Entry<String, Integer> local : locals.entrySet()) {
+            if (local.getValue() < firstLocal) {
+                continue;
+            }
+            if (refLocals.contains(local.getKey())) {
+                body.emit(ACONST_NULL);
+                body.load(ASTORE, local.getValue());
+            } else {
+                body.emit(ICONST_0);
+                body.load(ISTORE, local.getValue());
+            }
+        }
+        body.append(code.toByteArray());
+
+        String descriptor = method == null ? "([I)I" : descriptor(method);
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, methodName(), descriptor, 8 + maxArgs, locals.size(), body.toByteArray());
+    }
+
+    private void compile(ICode iCode) {
+        String operation = iCode.getOperation();
+        if (operation.equals(ICodeOprConst.CREATE_OPR.getKey())) {
+            // the label of a CREATE is the symbol being declared
+            return;
+        }
+
+        if (!iCode.getLabel().isEmpty()) {
+            code.label(iCode.getLabel());
+        }
+
+        String arg1 = iCode.getArg1();
+        String arg2 = iCode.getArg2();
+        String result = iCode.getResult();
+
+        if (operation.equals(ICodeOprConst.FRAME_OPR.getKey())) {
+            receiver = arg2;
+            callResult = result;
+            arguments.clear();
+        } else if (operation.equals(ICodeOprConst.PUSH_OPR.getKey())) {
+            arguments.add(arg1);
+        } else if (operation.equals(ICodeOprConst.CALL_OPR.getKey())) {
+            call(arg1);
+        } else if (operation.equals(ICodeOprConst.PEEK_OPR.getKey())) {
+            prepareStore(arg1);
+            code.load(isRef(arg1) ? ALOAD : ILOAD, local(isRef(arg1) ? "%ref" : "%int", isRef(arg1)));
+            finishStore(arg1);
+        } else if (operation.equals(ICodeOprConst.MOV_OPR.getKey())) {
+            checkSameType(arg1, arg2);
+            prepareStore(arg1);
+            load(arg2);
+            finishStore(arg1);
+        } else if (operation.equals(ICodeOprConst.MOVI_OPR.getKey())) {
+            // MOVI dest value
+            checkInt(arg1);
+            prepareStore(arg1);
+            code.pushInt(Integer.parseInt(arg2));
+            finishStore(arg1);
+        } else if (operation.equals(ICodeOprConst.REF_OPR.getKey())) {
+            // REF object ivar temp; the temp is read and written as the field itself
+            if (!isRef(arg1) || !symbol(arg2).getKind().equals("ivar")) {
+                throw new IllegalStateException(symbol(arg2).getValue() + " is not a field of an object");
+            }
+            fields.put(result, new String[]{arg1, arg2});
+        } else if (operation.equals(ICodeOprConst.AEF_OPR.getKey())) {
+            // AEF array index temp; the temp is read and written as the element itself
+            if (!isRef(arg1)) {
+                throw new IllegalStateException(symbol(arg1).getValue() + " is not an array");
+            }
+            checkInt(arg2);
+            elements.put(result, new String[]{arg1, arg2});
+        } else if (operation.equals(ICodeOprConst.ADD_OPR.getKey()) || operation.equals(ICodeOprConst.ADI_OPR.getKey())) {
+            math(IADD, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.SUB_OPR.getKey())) {
+            math(ISUB, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.MUL_OPR.getKey())) {
+            math(IMUL, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.DIV_OPR.getKey())) {
+            math(IDIV, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.MOD_OPR.getKey())) {
+            math(IREM, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.EQ_OPR.getKey())) {
+            compare(isRef(arg1) ? IF_ACMPEQ : IF_ICMPEQ, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.NE_OPR.getKey())) {
+            compare(isRef(arg1) ? IF_ACMPNE : IF_ICMPNE, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.LT_OPR.getKey())) {
+            compare(IF_ICMPLT, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.GT_OPR.getKey())) {
+            compare(IF_ICMPGT, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.LE_OPR.getKey())) {
+            compare(IF_ICMPLE, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.GE_OPR.getKey())) {
+            compare(IF_ICMPGE, arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.AND_OPR.getKey()) || operation.equals(ICodeOprConst.OR_OPR.getKey())) {
+            logical(operation.equals(ICodeOprConst.AND_OPR.getKey()), arg1, arg2, result);
+        } else if (operation.equals(ICodeOprConst.BF_OPR.getKey())) {
+            loadInt(arg1);
+            code.jump(IFEQ, arg2);
+        } else if (operation.equals(ICodeOprConst.BT_OPR.getKey())) {
+            loadInt(arg1);
+            code.jump(IFNE, arg2);
+        } else if (operation.equals(ICodeOprConst.JMP_OPR.getKey())) {
+            code.jump(GOTO, arg1);
+        } else if (operation.equals(ICodeOprConst.WRTI_OPR.getKey())) {
+            loadInt(arg1);
+            code.invokeStatic(RUNTIME, "writeInt", "(I)V");
+        } else if (operation.equals(ICodeOprConst.WRTC_OPR.getKey())) {
+            loadInt(arg1);
+            code.invokeStatic(RUNTIME, "writeChar", "(I)V");
+        } else if (operation.equals(ICodeOprConst.RDI_OPR.getKey()) || operation.equals(ICodeOprConst.RDC_OPR.getKey())) {
+            checkInt(arg1);
+            prepareStore(arg1);
+            code.invokeStatic(RUNTIME, operation.equals(ICodeOprConst.RDI_OPR.getKey()) ? "readInt" : "readChar", "()I");
+            finishStore(arg1);
+        } else if (operation.equals(ICodeOprConst.NEWI_OPR.getKey())) {
+            if (!isRef(arg2)) {
+                throw new IllegalStateException("object stored into " + arg2 + " which is not an object");
+            }
+            prepareStore(arg2);
+            code.pushInt(Integer.parseInt(arg1));
+            code.emit(NEWARRAY);
+            code.emit(T_INT);
+            finishStore(arg2);
+        } else if (operation.equals(ICodeOprConst.NEW_OPR.getKey())) {
+            // NEW size array
+            if (!isRef(arg2)) {
+                throw new IllegalStateException("array stored into " + arg2 + " which is not an array");
+            }
+            prepareStore(arg2);
+            code.pushInt(Integer.parseInt(arg1));
+            code.emit(NEWARRAY);
+            code.emit(T_INT);
+            finishStore(arg2);
+        } else if (operation.equals(ICodeOprConst.RETURN_OPR.getKey())) {
+            if (method == null || isRef(arg1) != returnsRef(method)) {
+                throw new IllegalStateException("return of " + arg1 + " does not match " + methodName());
+            }
+            load(arg1);
+            code.emit(returnsRef(method) ? ARETURN : IRETURN);
+        } else if (operation.equals(ICodeOprConst.RTN_OPR.getKey())) {
+            defaultReturn();
+        } else if (operation.equals(ICodeOprConst.SPAWN_OPR.getKey()) || operation.equals(ICodeOprConst.JOIN_OPR.getKey())) {
+            // a spawned call would need a class of its own to run on another thread
+            throw new IllegalStateException("spawn and join are not supported by the jvm backend");
+        } else {
+            throw new IllegalStateException(operation + " is not supported by the jvm backend");
+        }
+    }
+
+    private void call(String methodId) {
+        Symbol target = symbolTable.get(methodId);
+        if (target == null) {
+            throw new IllegalStateException("unknown method " + methodId);
+        }
+
+        List<Symbol> parameters = parameters(target);
+        if (parameters.size() != arguments.size()) {
+            throw new IllegalStateException("wrong number of arguments for " + target.getValue());
+        }
+
+        if (receiver != null && isRef(receiver)) {
+            load(receiver);
+        } else {
+            code.emit(ACONST_NULL);
+        }
+
+        // arguments are pushed last to first, see TCode
+        for (int i = 0; i < parameters.size(); i++) {
+            String argument = arguments.get(arguments.size() - 1 - i);
+            checkSameType(parameters.get(i).getSymId(), argument);
+            load(argument);
+        }
+        maxArgs = Math.max(maxArgs, parameters.size());
+
+        code.invokeStatic(MAIN_CLASS, target.getSymId(), descriptor(target));
+        String returned = returnsRef(target) ? "%ref" : "%int";
+        code.load(returnsRef(target) ? ASTORE : ISTORE, local(returned, returnsRef(target)));
+        if (callResult != null && !callResult.isEmpty()) {
+            prepareStore(callResult);
+            code.load(returnsRef(target) ? ALOAD : ILOAD, local(returned, returnsRef(target)));
+            finishStore(callResult);
+        }
+
+        receiver = null;
+        callResult = null;
+        arguments.clear();
+    }
+
+    private void math(int op, String arg1, String arg2, String result) {
+        checkInt(arg1);
+        checkInt(arg2);
+        checkInt(result);
+        prepareStore(result);
+        load(arg1);
+        load(arg2);
+        code.emit(op);
+        finishStore(result);
+    }
+
+    private void compare(int op, String arg1, String arg2, String result) {
+        if (op != IF_ACMPEQ && op != IF_ACMPNE) {
+            checkInt(arg1);
+        }
+        checkSameType(arg1, arg2);
+        checkInt(result);
+
+        prepareStore(result);
+        load(arg1);
+        load(arg2);
+        int isTrue = code.branch(op);
+        code.emit(ICONST_0);
+        int done = code.branch(GOTO);
+        code.patch(isTrue);
+        code.emit(ICONST_0 + 1);
+        code.patch(done);
+        finishStore(result);
+    }
+
+    // true is 1, anything else is false
+    private void logical(boolean and, String arg1, String arg2, String result) {
+        checkInt(result);
+        prepareStore(result);
+
+        loadInt(arg1);
+        code.emit(ICONST_0 + 1);
+        int first = code.branch(and ? IF_ICMPNE : IF_ICMPEQ);
+        loadInt(arg2);
+        code.emit(ICONST_0 + 1);
+        int second = code.branch(and ? IF_ICMPNE : IF_ICMPEQ);
+        code.emit(ICONST_0 + (and ? 1 : 0));
+        int done = code.branch(GOTO);
+        code.patch(first);
+        code.patch(second);
+        code.emit(ICONST_0 + (and ? 0 : 1));
+        code.patch(done);
+
+        finishStore(result);
+    }
+
+    private void defaultReturn() {
+        if (method != null && returnsRef(method)) {
+            // constructors hand back the new object
+            code.emit(ALOAD_0);
+            code.emit(ARETURN);
+        } else {
+            code.emit(ICONST_0);
+            code.emit(IRETURN);
+        }
+    }
+
+    private void loadInt(String symId) {
+        checkInt(symId);
+        load(symId);
+    }
+
+    private void load(String symId) {
+        if (fields.containsKey(symId)) {
+            String[] field = fields.get(symId);
+            load(field[0]);
+            code.pushInt(symbol(field[1]).getSize());
+            code.emit(IALOAD);
+            toObject(symId);
+            return;
+        }
+        if (elements.containsKey(symId)) {
+            String[] element = elements.get(symId);
+            load(element[0]);
+            loadInt(element[1]);
+            code.emit(IALOAD);
+            toObject(symId);
+            return;
+        }
+        if (locals.containsKey(symId)) {
+            code.load(refLocals.contains(symId) ? ALOAD : ILOAD, locals.get(symId));
+            return;
+        }
+
+        Symbol symbol = symbol(symId);
+        if (symbol.getKind().equals(Compiler.LITERAL)) {
+            if (isRef(symId)) {
+                code.emit(ACONST_NULL);
+            } else {
+                code.pushInt(literalValue(symbol));
+            }
+        } else if (symbol.getKind().equals("ivar")) {
+            code.emit(ALOAD_0);
+            code.pushInt(symbol.getSize());
+            code.emit(IALOAD);
+            toObject(symId);
+        } else {
+            code.load(isRef(symId) ? ALOAD : ILOAD, local(symId, isRef(symId)));
+        }
+    }
+
+    // ivars live in the object array, so the array and index go on the stack before the value
+    private void prepareStore(String symId) {
+        if (fields.containsKey(symId)) {
+            String[] field = fields.get(symId);
+            load(field[0]);
+            code.pushInt(symbol(field[1]).getSize());
+            return;
+        }
+        if (elements.containsKey(symId)) {
+            String[] element = elements.get(symId);
+            load(element[0]);
+            loadInt(element[1]);
+            return;
+        }
+        Symbol symbol = symbol(symId);
+        if (symbol.getKind().equals(Compiler.LITERAL)) {
+            throw new IllegalStateException("can not assign to literal " + symbol.getValue());
+        }
+        if (symbol.getKind().equals("ivar")) {
+            code.emit(ALOAD_0);
+            code.pushInt(symbol.getSize());
+        }
+    }
+
+    private void finishStore(String symId) {
+        if (fields.containsKey(symId) || elements.containsKey(symId) || symbol(symId).getKind().equals("ivar")) {
+            toHandle(symId);
+            code.emit(IASTORE);
+        } else {
+            code.load(isRef(symId) ? ASTORE : ISTORE, local(symId, isRef(symId)));
+        }
+    }
+
+    // an object held in a field is kept there as a handle, since the fields are ints
+    private void toObject(String symId) {
+        if (isRef(symId)) {
+            code.invokeStatic(RUNTIME, "object", "(I)" + INT_ARRAY);
+        }
+    }
+
+    private void toHandle(String symId) {
+        if (isRef(symId)) {
+            code.invokeStatic(RUNTIME, "handle", "(" + INT_ARRAY + ")I");
+        }
+    }
+
+    private int local(String symId, boolean ref) {
+        Integer slot = locals.get(symId);
+        if (slot == null) {
+            slot = newLocal(symId);
+            if (ref) {
+                refLocals.add(symId);
+            }
+        }
+        return slot;
+    }
+
+    private int newLocal(String symId) {
+        int slot = locals.size();
+        locals.put(symId, slot);
+        if (symbolTable.containsKey(symId) && isRef(symId)) {
+            refLocals.add(symId);
+        }
+        return slot;
+    }
+
+    private Symbol symbol(String symId) {
+        if (symId.equals(KeyConst.THIS.getKey())) {
+            return new Symbol("", symId, symId, "this", null, 0, 0);
+        }
+
+        Symbol symbol = symbolTable.get(symId);
+        if (symbol == null) {
+            throw new IllegalStateException("unknown symbol " + symId);
+        }
+        return symbol;
+    }
+
+    private void checkInt(String symId) {
+        if (isRef(symId)) {
+            throw new IllegalStateException(symbol(symId).getValue() + " is not an int, char or bool");
+        }
+    }
+
+    private void checkSameType(String a, String b) {
+        if (isRef(a) != isRef(b)) {
+            throw new IllegalStateException("type of " + symbol(a).getValue() + " does not match " + symbol(b).getValue());
+        }
+    }
+
+    private boolean isRef(String symId) {
+        if (symId.equals(KeyConst.THIS.getKey()) || refLocals.contains(symId)) {
+            return true;
+        }
+        if (locals.containsKey(symId)) {
+            return false;
+        }
+
+        Symbol symbol = symbolTable.get(symId);
+        if (symbol == null || symbol.getData() == null) {
+            return false;
+        }
+        return !isPrimitive(symbol.getData().getType());
+    }
+
+    private static boolean isPrimitive(String type) {
+        return type.equalsIgnoreCase(KeyConst.INT.getKey()) ||
+                type.equalsIgnoreCase(KeyConst.CHAR.getKey()) ||
+                type.equalsIgnoreCase(KeyConst.BOOL.getKey()) ||
+                type.equalsIgnoreCase(KeyConst.VOID.getKey()) ||
+                type.equals(LexicalAnalyzer.tokenTypesEnum.NUMBER.name()) ||
+                type.equals(LexicalAnalyzer.tokenTypesEnum.CHARACTER.name());
+    }
+
+    private static int literalValue(Symbol literal) {
+        String value = literal.getValue();
+        String type = literal.getData().getType();
+
+        if (type.equals(LexicalAnalyzer.tokenTypesEnum.CHARACTER.name())) {
+            String c = value.substring(1, value.length() - 1);
+            if (c.startsWith("\\")) {
+                switch (c.charAt(1)) {
+                    case 'n':
+                        // same as the vm, which stores '\n' as 13
+                        return 13;
+                    case 't':
+                        return '\t';
+                    case '0':
+                        return 0;
+                    default:
+                        return c.charAt(1);
+                }
+            }
+            return c.charAt(0);
+        }
+        if (type.equalsIgnoreCase(KeyConst.BOOL.getKey())) {
+            return value.equals(KeyConst.TRUE.getKey()) ? 1 : 0;
+        }
+        return Integer.parseInt(value);
+    }
+
+    private List<Symbol> parameters(Symbol method) {
+        String scope = method.getScope().endsWith(".") ? method.getScope() + method.getValue() : method.getScope() + "." + method.getValue();
+
+        List<Symbol> parameters = new ArrayList<Symbol>();
+        for (Symbol symbol : symbolTable.values()) {
+            if (symbol.getKind().equals("param") && symbol.getScope().equals(scope)) {
+                parameters.add(symbol);
+            }
+        }
+
+        // in frame order
+        Collections.sort(parameters, new Comparator<Symbol>() {
+            @Override
+            public int compare(Symbol a, Symbol b) {
+                return a.getSize() - b.getSize();
+            }
+        });
+        return parameters;
+    }
+
+    private String descriptor(Symbol method) {
+        StringBuilder descriptor = new StringBuilder("(" + INT_ARRAY);
+        for (Symbol parameter : parameters(method)) {
+            descriptor.append(isRef(parameter.getSymId()) ? INT_ARRAY : "I");
+        }
+        descriptor.append(")").append(returnsRef(method) ? INT_ARRAY : "I");
+        return descriptor.toString();
+    }
+
+    private static boolean returnsRef(Symbol method) {
+        return !isPrimitive(method.getData().getType());
+    }
+
+    private String methodName() {
+        return method == null ? ENTRY : method.getSymId();
+    }
+}
@@ -18,6 +18,7 @@ public enum KeyConst {
     IF("if"),
     INT("int"),
     ITOA("itoa"),
+    JOIN("join"),
     MAIN("main"),
     NEW("new"),
     NULL("null"),
@@ -25,6 +26,7 @@ public enum KeyConst {
     PUBLIC("public"),
     PRIVATE("private"),
     RETURN("return"),
+    SPAWN("spawn"),
     STRING("string"),
     THIS("this"),
     TRUE("true"),
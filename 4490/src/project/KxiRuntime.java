@@ -0,0 +1,103 @@
+package project;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/28/13
+ * Time: 7:05 PM
+ */
+public class KxiRuntime {
+    private static BufferedReader reader;
+
+    // objects stored in fields, by handle; 0 is null
+    private static final List<int[]> objects = new ArrayList<int[]>(Collections.singletonList((int[]) null));
+    private static final Map<int[], Integer> handles = new IdentityHashMap<int[], Integer>();
+
+    /**
+     * runs a compiled program, reporting the errors the vm would stop on
+     *
+     * @param program compiled program
+     */
+    public static void run(Runnable program) {
+        try {
+            program.run();
+        } catch (StackOverflowError e) {
+            System.out.print("\r\nOVERFLOW ERROR\r\n");
+        } catch (ArithmeticException e) {
+            System.out.println("Error: Can not divide by zero");
+        }
+        System.out.flush();
+    }
+
+    /**
+     * @return the handle a field holds for the object
+     */
+    public static synchronized int handle(int[] object) {
+        if (object == null) {
+            return 0;
+        }
+        Integer handle = handles.get(object);
+        if (handle == null) {
+            handle = objects.size();
+            objects.add(object);
+            handles.put(object, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * @return the object a field holding handle refers to
+     */
+    public static synchronized int[] object(int handle) {
+        return objects.get(handle);
+    }
+
+    public static void writeInt(int value) {
+        System.out.print(value);
+    }
+
+    // the compiler stores '\n' as 13
+    public static void writeChar(int value) {
+        if (value == 13) {
+            System.out.print("\r\n");
+        } else {
+            System.out.print((char) value);
+        }
+    }
+
+    public static int readInt() {
+        String input = readLine();
+        try {
+            return Integer.parseInt(input);
+        } catch (NumberFormatException ex) {
+            System.out.println("Not a number !");
+        }
+        return 0;
+    }
+
+    public static int readChar() {
+        String input = readLine();
+        if (input == null || input.length() == 0) {
+            return 13;
+        }
+        return input.charAt(0);
+    }
+
+    private static String readLine() {
+        if (reader == null) {
+            reader = new BufferedReader(new InputStreamReader(System.in));
+        }
+
+        try {
+            return reader.readLine();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
@@ -79,6 +79,7 @@ public class LexicalAnalyzer {
         keyWords.add("if");
         keyWords.add("int");
         keyWords.add("itoa");
+        keyWords.add("join");
         keyWords.add("main");
         keyWords.add("new");
         keyWords.add("null");
@@ -86,6 +87,7 @@ public class LexicalAnalyzer {
         keyWords.add("public");
         keyWords.add("private");
         keyWords.add("return");
+        keyWords.add("spawn");
         keyWords.add("string");
         keyWords.add("this");
         keyWords.add("true");
@@ -148,18 +150,29 @@ public class LexicalAnalyzer {
         return symbolCheck;
     }
 
-    public void processFile(String fileName) {
-        setKeyWords();
-        setSymbolCheck();
-        BufferedReader file = null;
-        int lineCount = 1;
-
+    /**
+     * @return false if the file could not be read
+     */
+    public boolean processFile(String fileName) {
         try {
-            file = new BufferedReader(new InputStreamReader(new FileInputStream(fileName)));
+            return process(new InputStreamReader(new FileInputStream(fileName)));
         } catch (FileNotFoundException e) {
             System.out.println("Cannot find File");
-            System.exit(0);
+            return false;
         }
+    }
+
+    /**
+     * splits source text into tokens
+     *
+     * @param source program source
+     * @return false if the source could not be read
+     */
+    public boolean process(Reader source) {
+        setKeyWords();
+        setSymbolCheck();
+        BufferedReader file = new BufferedReader(source);
+        int lineCount = 1;
 
         String line;
 
@@ -306,8 +319,9 @@ public class LexicalAnalyzer {
 
         } catch (IOException e) {
             System.out.println("There was an error reading in the file. Failed on line " + lineCount);
-            System.exit(0);
+            return false;
         }
+        return true;
     }
 
     private String checkForChars(String item, String breakDownItem) {
@@ -0,0 +1,289 @@
+package project;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/9/13
+ * Time: 4:05 PM
+ */
+public class Linker {
+    private static final String EXTENSION = ".kxm";
+
+    private final File directory;
+
+    private final AtomicInteger compiled = new AtomicInteger();
+    private final AtomicInteger reused = new AtomicInteger();
+
+    /**
+     * compiles each class of a program and its main method into a module of its own, kept in a
+     * directory by a hash of its tokens; a module is compiled again only when its own source
+     * changes or a symbol it uses from another class does
+     *
+     * @param directory where the modules are kept
+     */
+    public Linker(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+    }
+
+    /**
+     * @return a linker for the modules in -Dkxi.modules; null if there is none
+     */
+    public static Linker fromProperties() {
+        String directory = System.getProperty("kxi.modules");
+        return directory == null ? null : new Linker(new File(directory));
+    }
+
+    /**
+     * compiles the changed units of a program, links them with the modules of the rest and
+     * assembles the result; programs may be compiled on any number of threads at once
+     *
+     * @param source      program source
+     * @param diagnostics where compiler and assembler errors are written
+     * @return the assembled program, null if it has errors
+     */
+    public ProgramImage compile(String source, Writer diagnostics) {
+        LexicalAnalyzer lexicalAnalyzer = new LexicalAnalyzer();
+        if (!lexicalAnalyzer.process(new StringReader(source))) {
+            return ProgramRunner.compile(source, diagnostics);
+        }
+
+        List<List<Tuple>> units = split(lexicalAnalyzer.getLexicalList());
+        List<ObjectModule> modules = units == null ? null : modules(units);
+        if (modules == null) {
+            // the whole program is compiled, so errors are reported just as without modules
+            return ProgramRunner.compile(source, diagnostics);
+        }
+
+        TCode tCode = link(modules);
+        if (tCode == null) {
+            return ProgramRunner.compile(source, diagnostics);
+        }
+        Assembler assembler = new Assembler();
+        assembler.setOutput(diagnostics);
+        return assembler.assemble(tCode.generate());
+    }
+
+    // a module for each unit, from the directory if it is still current; null if a unit has errors
+    private List<ObjectModule> modules(List<List<Tuple>> units) {
+        List<byte[]> hashes = new ArrayList<byte[]>();
+        List<ObjectModule> modules = new ArrayList<ObjectModule>();
+        List<Map<String, Symbol>> exports = new ArrayList<Map<String, Symbol>>();
+        Set<String> names = new HashSet<String>();
+        for (List<Tuple> unit : units) {
+            String name = name(unit);
+            if (!names.add(name)) {
+                return null;
+            }
+
+            byte[] hash = hash(unit);
+            ObjectModule module = ObjectModule.read(file(hash), hash);
+            Map<String, Symbol> unitExports;
+            if (module != null) {
+                unitExports = module.exports();
+            } else if (name.equals(KeyConst.MAIN.getKey())) {
+                unitExports = new LinkedHashMap<String, Symbol>();
+            } else {
+                unitExports = ObjectModule.declare(unit);
+                if (unitExports == null) {
+                    return null;
+                }
+            }
+            hashes.add(hash);
+            modules.add(module);
+            exports.add(unitExports);
+        }
+
+        for (int i = 0; i < units.size(); i++) {
+            // the symbols of every other unit, in the order they appear
+            Map<String, Symbol> imports = new LinkedHashMap<String, Symbol>();
+            for (int j = 0; j < units.size(); j++) {
+                if (j != i) {
+                    imports.putAll(exports.get(j));
+                }
+            }
+
+            ObjectModule module = modules.get(i);
+            if (module != null && module.isCurrent(imports)) {
+                reused.incrementAndGet();
+                continue;
+            }
+
+            module = ObjectModule.compile(name(units.get(i)), units.get(i), hashes.get(i), imports);
+            if (module == null) {
+                return null;
+            }
+            compiled.incrementAndGet();
+            modules.set(i, module);
+
+            final ObjectModule written = module;
+            AtomicFile.write(file(hashes.get(i)), new AtomicFile.Contents() {
+                @Override
+                public boolean writeTo(File temp) {
+                    return written.write(temp);
+                }
+            });
+        }
+        return modules;
+    }
+
+    /**
+     * gives the symbols and labels of each module ids of their own, points the imports of each
+     * at the symbols they stand for and puts the code after the call to main
+     *
+     * @param modules the classes in order, then main
+     * @return code for the linked program, null if an import has nothing to stand for
+     */
+    static TCode link(List<ObjectModule> modules) {
+        int variableId = 1;
+        int methodId = 1000;
+
+        // new ids for the symbols of each module, the same way the compiler numbers them
+        List<Map<String, String>> renames = new ArrayList<Map<String, String>>();
+        Map<String, String> exported = new HashMap<String, String>();
+        String main = null;
+        for (ObjectModule module : modules) {
+            Map<String, String> rename = new HashMap<String, String>();
+            for (Symbol symbol : module.getSymbols().values()) {
+                String key = prefix(symbol.getSymId());
+                String symId = key.equals("M") ? key + methodId++ : key + variableId++;
+                rename.put(symbol.getSymId(), symId);
+                if (ObjectModule.isExported(symbol)) {
+                    exported.put(ObjectModule.qualifiedName(symbol), symId);
+                } else if (symbol.getScope().equals("g.") && symbol.getValue().equals(KeyConst.MAIN.getKey())) {
+                    main = symId;
+                }
+            }
+            renames.add(rename);
+        }
+        if (main == null) {
+            return null;
+        }
+        String startLabel = "STARTHERE" + variableId++;
+
+        LinkedHashMap<String, Symbol> symbolTable = new LinkedHashMap<String, Symbol>();
+        List<ICode> iCodeList = new ArrayList<ICode>();
+        iCodeList.add(new ICode(startLabel, ICodeOprConst.FRAME_OPR.getKey(), main, KeyConst.THIS.getKey(), "", ""));
+        iCodeList.add(new ICode("", ICodeOprConst.CALL_OPR.getKey(), main, "", "", ""));
+
+        for (int i = 0; i < modules.size(); i++) {
+            ObjectModule module = modules.get(i);
+            Map<String, String> rename = renames.get(i);
+            for (Map.Entry<String, String> entry : module.getImports().entrySet()) {
+                String symId = exported.get(entry.getValue());
+                if (symId == null) {
+                    return null;
+                }
+                rename.put(entry.getKey(), symId);
+            }
+
+            // labels made by pass two, like SKIPIF12
+            for (ICode iCode : module.getICodeList()) {
+                String label = iCode.getLabel();
+                if (!label.isEmpty() && !rename.containsKey(label)) {
+                    rename.put(label, prefix(label) + variableId++);
+                }
+            }
+
+            for (Symbol symbol : module.getSymbols().values()) {
+                IData data = symbol.getData();
+                if (data instanceof MethodData) {
+                    List<Parameter> parameters = new ArrayList<Parameter>();
+                    for (Parameter parameter : ((MethodData) data).getParameters()) {
+                        parameters.add(new Parameter(parameter.getType(), rename(rename, parameter.getId())));
+                    }
+                    data = new MethodData(((MethodData) data).getAccessMod(), parameters, ((MethodData) data).getType());
+                }
+                String symId = rename.get(symbol.getSymId());
+                symbolTable.put(symId, new Symbol(symbol.getScope(), symId, rename(rename, symbol.getValue()), symbol.getKind(), data,
+                        symbol.getSize(), symbol.getObjectSize()));
+            }
+
+            for (ICode iCode : module.getICodeList()) {
+                iCodeList.add(new ICode(rename(rename, iCode.getLabel()), iCode.getOperation(), rename(rename, iCode.getArg1()),
+                        rename(rename, iCode.getArg2()), rename(rename, iCode.getResult()), iCode.getComment()));
+            }
+        }
+
+        return new TCode(symbolTable, iCodeList, startLabel);
+    }
+
+    /**
+     * splits a program into its classes and its main method
+     *
+     * @return each class from "class" to its closing brace, then main from "void" to the end;
+     * null if the program is not laid out that way
+     */
+    static List<List<Tuple>> split(List<Tuple> tokens) {
+        List<List<Tuple>> units = new ArrayList<List<Tuple>>();
+        int start = 0;
+        while (start < tokens.size() && tokens.get(start).getName().equals(KeyConst.CLASS.getKey())) {
+            int depth = 0;
+            int end = -1;
+            for (int i = start; i < tokens.size() && end < 0; i++) {
+                String type = tokens.get(i).getType();
+                if (type.equals(LexicalAnalyzer.tokenTypesEnum.BLOCK_BEGIN.name())) {
+                    depth++;
+                } else if (type.equals(LexicalAnalyzer.tokenTypesEnum.BLOCK_END.name()) && --depth == 0) {
+                    end = i + 1;
+                }
+            }
+            if (end < 0 || end - start < 2) {
+                return null;
+            }
+            units.add(tokens.subList(start, end));
+            start = end;
+        }
+
+        if (start >= tokens.size() || !tokens.get(start).getName().equals(KeyConst.VOID.getKey())) {
+            return null;
+        }
+        units.add(tokens.subList(start, tokens.size()));
+        return units;
+    }
+
+    private static String name(List<Tuple> unit) {
+        return unit.get(0).getName().equals(KeyConst.CLASS.getKey()) ? unit.get(1).getName() : KeyConst.MAIN.getKey();
+    }
+
+    // the tokens without their lines, so moving a class does not compile it again
+    private static byte[] hash(List<Tuple> unit) {
+        StringBuilder text = new StringBuilder();
+        for (Tuple token : unit) {
+            text.append(token.getName()).append('\0').append(token.getType()).append('\0');
+        }
+        return ProgramImage.hash(text.toString());
+    }
+
+    // T12 -> T, SKIPIF7 -> SKIPIF
+    private static String prefix(String id) {
+        int end = id.length();
+        while (end > 0 && Character.isDigit(id.charAt(end - 1))) {
+            end--;
+        }
+        return id.substring(0, end);
+    }
+
+    private static String rename(Map<String, String> rename, String id) {
+        String renamed = rename.get(id);
+        return renamed == null ? id : renamed;
+    }
+
+    private File file(byte[] hash) {
+        return new File(directory, ProgramImage.key(hash) + EXTENSION);
+    }
+
+    public int getCompiled() {
+        return compiled.get();
+    }
+
+    public int getReused() {
+        return reused.get();
+    }
+}
@@ -0,0 +1,183 @@
+package project;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/19/13
+ * Time: 2:05 PM
+ */
+public class MemoryBlock {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // atomic access to int cells; plain get and set stay plain array accesses
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private int[] values = new int[INITIAL_CAPACITY];
+    private byte[] tags = new byte[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public MemoryBlock() {
+    }
+
+    // memory read back from an image file
+    MemoryBlock(int[] values, byte[] tags, int size) {
+        this.values = values;
+        this.tags = tags;
+        this.size = size;
+    }
+
+    /**
+     * appends a cell to the end of memory
+     *
+     * @param value cell value
+     * @param tag   RegisterFile.INT or RegisterFile.CHAR
+     * @return address of the new cell
+     */
+    public int add(int value, byte tag) {
+        ensureCapacity(size + 1);
+        values[size] = value;
+        tags[size] = tag;
+        return size++;
+    }
+
+    /**
+     * appends count zeroed int cells to the end of memory
+     *
+     * @param count number of cells
+     */
+    public void reserve(int count) {
+        ensureCapacity(size + count);
+        size += count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of cells memory can grow to without new backing arrays
+     */
+    public int capacity() {
+        return values.length;
+    }
+
+    public int get(int address) {
+        checkAddress(address);
+        return values[address];
+    }
+
+    public byte getTag(int address) {
+        checkAddress(address);
+        return tags[address];
+    }
+
+    public boolean isInt(int address) {
+        return getTag(address) == RegisterFile.INT;
+    }
+
+    public void set(int address, int value, byte tag) {
+        checkAddress(address);
+        values[address] = value;
+        tags[address] = tag;
+    }
+
+    public void setInt(int address, int value) {
+        set(address, value, RegisterFile.INT);
+    }
+
+    /**
+     * atomically sets a cell to value if it holds expected
+     *
+     * @return true if the cell was set
+     */
+    public boolean compareAndSet(int address, int expected, int value) {
+        checkAddress(address);
+        return CELLS.compareAndSet(values, address, expected, value);
+    }
+
+    /**
+     * atomically adds delta to a cell
+     *
+     * @return value of the cell before the add
+     */
+    public int getAndAdd(int address, int delta) {
+        checkAddress(address);
+        return (int) CELLS.getAndAdd(values, address, delta);
+    }
+
+    /**
+     * drops unused capacity so the backing arrays are exactly size cells long
+     */
+    public void trim() {
+        if (values.length == size) {
+            return;
+        }
+
+        int[] newValues = new int[size];
+        byte[] newTags = new byte[size];
+        System.arraycopy(values, 0, newValues, 0, size);
+        System.arraycopy(tags, 0, newTags, 0, size);
+        values = newValues;
+        tags = newTags;
+    }
+
+    /**
+     * @return number of cells up to and including the last one that is not zero
+     */
+    int initializedSize() {
+        int used = size;
+        while (used > 0 && values[used - 1] == 0 && tags[used - 1] == RegisterFile.INT) {
+            used--;
+        }
+        return used;
+    }
+
+    /**
+     * copies memory whose cells from initialized on are all zero; only the cells below it are copied
+     *
+     * @param initialized from initializedSize
+     * @param spare       cells reserve can add to the copy without new backing arrays
+     * @return memory of the same size and contents
+     */
+    MemoryBlock copy(int initialized, int spare) {
+        MemoryBlock copy = new MemoryBlock();
+        copy.values = new int[size + spare];
+        copy.tags = new byte[size + spare];
+        System.arraycopy(values, 0, copy.values, 0, initialized);
+        System.arraycopy(tags, 0, copy.tags, 0, initialized);
+        copy.size = size;
+        return copy;
+    }
+
+    // backing arrays for the interpreter loop
+    int[] values() {
+        return values;
+    }
+
+    byte[] tags() {
+        return tags;
+    }
+
+    private void checkAddress(int address) {
+        if (address < 0 || address >= size) {
+            throw new IndexOutOfBoundsException("Address: " + address + ", Size: " + size);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= values.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(values.length * 2, capacity);
+        int[] newValues = new int[newCapacity];
+        byte[] newTags = new byte[newCapacity];
+        System.arraycopy(values, 0, newValues, 0, size);
+        System.arraycopy(tags, 0, newTags, 0, size);
+        values = newValues;
+        tags = newTags;
+    }
+}
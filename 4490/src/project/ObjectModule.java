@@ -0,0 +1,347 @@
+package project;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/9/13
+ * Time: 3:20 PM
+ */
+public class ObjectModule {
+    private static final int MAGIC = 0x4B584D00;
+    private static final int VERSION = 1;
+
+    // "main" or the name of the class
+    private final String name;
+    private final byte[] sourceHash;
+
+    // symbols declared by this unit, by the ids it gave them
+    private final LinkedHashMap<String, Symbol> symbols;
+    // ids this unit gave the symbols it used from other units, and the symbols they stand for
+    private final Map<String, String> imports;
+    // every symbol of the classes this unit uses, and what it looked like when the unit was compiled
+    private final Map<String, String> dependencies;
+    private final List<ICode> iCodeList;
+
+    ObjectModule(String name, byte[] sourceHash, LinkedHashMap<String, Symbol> symbols, Map<String, String> imports,
+                 Map<String, String> dependencies, List<ICode> iCodeList) {
+        this.name = name;
+        this.sourceHash = sourceHash;
+        this.symbols = symbols;
+        this.imports = imports;
+        this.dependencies = dependencies;
+        this.iCodeList = iCodeList;
+    }
+
+    /**
+     * compiles one unit on its own
+     *
+     * @param name    "main" or the name of the class
+     * @param tokens  the unit, from "class" to its closing brace or from "void" to the end
+     * @param hash    hash of the tokens
+     * @param exports symbols of the other units, by qualifiedName
+     * @return the module, null if the unit has errors
+     */
+    static ObjectModule compile(String name, List<Tuple> tokens, byte[] hash, Map<String, Symbol> exports) {
+        boolean isMain = name.equals(KeyConst.MAIN.getKey());
+        LexicalAnalyzer lexicalAnalyzer = new LexicalAnalyzer();
+        lexicalAnalyzer.setLexicalList(new ArrayList<Tuple>(tokens));
+
+        // pass one, with the other units' symbols under ids of this unit
+        Compiler compiler = new Compiler(lexicalAnalyzer);
+        Map<String, String> imported = new HashMap<String, String>();
+        for (Symbol symbol : exports.values()) {
+            imported.put(compiler.importSymbol(symbol), qualifiedName(symbol));
+        }
+        if (!(isMain ? compiler.main_unit() : compiler.class_unit())) {
+            return null;
+        }
+
+        // pass two
+        PassTwo passTwo = compiler.passTwo();
+        if (!(isMain ? passTwo.main_unit() : passTwo.class_unit())) {
+            return null;
+        }
+
+        LinkedHashMap<String, Symbol> symbols = new LinkedHashMap<String, Symbol>();
+        for (Symbol symbol : passTwo.getSymbolTable().values()) {
+            if (!imported.containsKey(symbol.getSymId())) {
+                symbols.put(symbol.getSymId(), symbol);
+            }
+        }
+
+        // only the imports the code refers to are kept
+        Map<String, String> imports = new HashMap<String, String>();
+        for (ICode iCode : passTwo.getICodeList()) {
+            for (String field : new String[]{iCode.getLabel(), iCode.getArg1(), iCode.getArg2(), iCode.getResult()}) {
+                if (imported.containsKey(field)) {
+                    imports.put(field, imported.get(field));
+                }
+            }
+        }
+
+        // the unit depends on the classes it names and the classes of the symbols it refers to
+        Set<String> classes = new HashSet<String>();
+        for (Tuple token : tokens) {
+            classes.add(token.getName());
+        }
+        for (String qualifiedName : imports.values()) {
+            classes.add(className(exports.get(qualifiedName)));
+        }
+        Map<String, String> dependencies = new TreeMap<String, String>();
+        for (Symbol symbol : exports.values()) {
+            if (classes.contains(className(symbol))) {
+                dependencies.put(qualifiedName(symbol), signature(symbol));
+            }
+        }
+
+        return new ObjectModule(name, hash, symbols, imports, dependencies, passTwo.getICodeList());
+    }
+
+    /**
+     * runs pass one over a class on its own, for the symbols other units may use
+     *
+     * @return the symbols by qualifiedName, null if the class has errors
+     */
+    static Map<String, Symbol> declare(List<Tuple> tokens) {
+        LexicalAnalyzer lexicalAnalyzer = new LexicalAnalyzer();
+        lexicalAnalyzer.setLexicalList(new ArrayList<Tuple>(tokens));
+        Compiler compiler = new Compiler(lexicalAnalyzer);
+        if (!compiler.class_unit()) {
+            return null;
+        }
+        return exports(compiler.getSymbolTable().values());
+    }
+
+    /**
+     * @return the classes, ivars, methods and constructors of this unit, by qualifiedName
+     */
+    Map<String, Symbol> exports() {
+        return exports(symbols.values());
+    }
+
+    private static Map<String, Symbol> exports(Collection<Symbol> symbols) {
+        Map<String, Symbol> exports = new LinkedHashMap<String, Symbol>();
+        for (Symbol symbol : symbols) {
+            if (isExported(symbol)) {
+                exports.put(qualifiedName(symbol), symbol);
+            }
+        }
+        return exports;
+    }
+
+    /**
+     * @param exports symbols of the other units, by qualifiedName
+     * @return false if a symbol this unit depends on is gone or has changed since it was compiled
+     */
+    boolean isCurrent(Map<String, Symbol> exports) {
+        for (Map.Entry<String, String> dependency : dependencies.entrySet()) {
+            Symbol symbol = exports.get(dependency.getKey());
+            if (symbol == null || !signature(symbol).equals(dependency.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isExported(Symbol symbol) {
+        String scope = symbol.getScope();
+        if (scope.equals("g.")) {
+            return symbol.getKind().equals(Compiler.CLASS);
+        }
+        // members of a class, not the locals of its methods
+        return scope.indexOf('.', 2) < 0 && (symbol.getKind().equals("ivar") || symbol.getData() instanceof MethodData);
+    }
+
+    private static String className(Symbol symbol) {
+        return symbol.getKind().equals(Compiler.CLASS) ? symbol.getValue() : symbol.getScope().substring(2);
+    }
+
+    static String qualifiedName(Symbol symbol) {
+        return symbol.getScope() + " " + symbol.getValue();
+    }
+
+    // what a unit that uses the symbol bakes into its code; the size of a method grows with its body, so it is left out
+    static String signature(Symbol symbol) {
+        StringBuilder signature = new StringBuilder(symbol.getKind());
+        if (symbol.getData() instanceof MethodData) {
+            MethodData data = (MethodData) symbol.getData();
+            signature.append(' ').append(data.getAccessMod()).append(' ').append(data.getType()).append(" (");
+            for (Parameter parameter : data.getParameters()) {
+                signature.append(parameter.getType()).append(',');
+            }
+            signature.append(')');
+        } else {
+            if (symbol.getData() instanceof VariableData) {
+                VariableData data = (VariableData) symbol.getData();
+                signature.append(' ').append(data.getAccessMod()).append(' ').append(data.getType());
+            }
+            signature.append(' ').append(symbol.getSize()).append(' ').append(symbol.getObjectSize());
+        }
+        return signature.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    LinkedHashMap<String, Symbol> getSymbols() {
+        return symbols;
+    }
+
+    Map<String, String> getImports() {
+        return imports;
+    }
+
+    List<ICode> getICodeList() {
+        return iCodeList;
+    }
+
+    /**
+     * writes the module to a file
+     *
+     * @return false if it could not be written
+     */
+    public boolean write(File file) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            try {
+                out.writeInt(MAGIC | VERSION);
+                out.writeInt(sourceHash.length);
+                out.write(sourceHash);
+                out.writeUTF(name);
+
+                out.writeInt(symbols.size());
+                for (Symbol symbol : symbols.values()) {
+                    out.writeUTF(symbol.getScope());
+                    out.writeUTF(symbol.getSymId());
+                    out.writeUTF(symbol.getValue());
+                    out.writeUTF(symbol.getKind());
+                    out.writeInt(symbol.getSize());
+                    out.writeInt(symbol.getObjectSize());
+                    if (symbol.getData() instanceof MethodData) {
+                        MethodData data = (MethodData) symbol.getData();
+                        out.writeByte(2);
+                        out.writeUTF(data.getAccessMod());
+                        out.writeUTF(data.getType());
+                        out.writeInt(data.getParameters().size());
+                        for (Parameter parameter : data.getParameters()) {
+                            out.writeUTF(parameter.getType());
+                            out.writeUTF(parameter.getId());
+                        }
+                    } else if (symbol.getData() instanceof VariableData) {
+                        VariableData data = (VariableData) symbol.getData();
+                        out.writeByte(1);
+                        out.writeUTF(data.getAccessMod());
+                        out.writeUTF(data.getType());
+                    } else {
+                        out.writeByte(0);
+                    }
+                }
+
+                writeMap(out, imports);
+                writeMap(out, dependencies);
+
+                out.writeInt(iCodeList.size());
+                for (ICode iCode : iCodeList) {
+                    out.writeUTF(iCode.getLabel());
+                    out.writeUTF(iCode.getOperation());
+                    out.writeUTF(iCode.getArg1());
+                    out.writeUTF(iCode.getArg2());
+                    out.writeUTF(iCode.getResult());
+                    out.writeUTF(iCode.getComment());
+                }
+            } finally {
+                out.close();
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * reads a module written by write
+     *
+     * @param file       module file
+     * @param sourceHash hash the unit has to have now
+     * @return the module, null if the file is missing, corrupt or for other source
+     */
+    public static ObjectModule read(File file, byte[] sourceHash) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            try {
+                if (in.readInt() != (MAGIC | VERSION)) {
+                    return null;
+                }
+                byte[] hash = new byte[in.readInt()];
+                in.readFully(hash);
+                if (!MessageDigest.isEqual(hash, sourceHash)) {
+                    return null;
+                }
+                String name = in.readUTF();
+
+                LinkedHashMap<String, Symbol> symbols = new LinkedHashMap<String, Symbol>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    String scope = in.readUTF();
+                    String symId = in.readUTF();
+                    String value = in.readUTF();
+                    String kind = in.readUTF();
+                    int size = in.readInt();
+                    int objectSize = in.readInt();
+                    IData data = null;
+                    byte tag = in.readByte();
+                    if (tag == 2) {
+                        String accessMod = in.readUTF();
+                        String returnType = in.readUTF();
+                        List<Parameter> parameters = new ArrayList<Parameter>();
+                        for (int j = in.readInt(); j > 0; j--) {
+                            parameters.add(new Parameter(in.readUTF(), in.readUTF()));
+                        }
+                        data = new MethodData(accessMod, parameters, returnType);
+                    } else if (tag == 1) {
+                        String accessMod = in.readUTF();
+                        data = new VariableData(in.readUTF(), accessMod);
+                    }
+                    symbols.put(symId, new Symbol(scope, symId, value, kind, data, size, objectSize));
+                }
+
+                Map<String, String> imports = readMap(in, new HashMap<String, String>());
+                Map<String, String> dependencies = readMap(in, new TreeMap<String, String>());
+
+                int count = in.readInt();
+                List<ICode> iCodeList = new ArrayList<ICode>(count);
+                for (int i = 0; i < count; i++) {
+                    iCodeList.add(new ICode(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+                }
+                return new ObjectModule(name, hash, symbols, imports, dependencies, iCodeList);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            // a short or corrupt module is compiled again
+            return null;
+        }
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readMap(DataInputStream in, Map<String, String> map) throws IOException {
+        for (int i = in.readInt(); i > 0; i--) {
+            map.put(in.readUTF(), in.readUTF());
+        }
+        return map;
+    }
+}
@@ -0,0 +1,119 @@
+package project;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/21/13
+ * Time: 7:45 PM
+ */
+public class OpcodeReport {
+    private final Map<String, Integer> pairs = new HashMap<String, Integer>();
+    private int total = 0;
+
+    /**
+     * counts each pair of adjacent instructions in an asm file. directives and
+     * blank lines break a sequence
+     *
+     * @param file asm file
+     * @throws IOException
+     */
+    public void addFile(String file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        String last = null;
+
+        while ((line = reader.readLine()) != null) {
+            String opCode = opCodeOf(line);
+            if (opCode == null) {
+                last = null;
+                continue;
+            }
+
+            if (last != null) {
+                addPair(last + " " + opCode);
+            }
+            last = opCode;
+        }
+        reader.close();
+    }
+
+    public void addPair(String pair) {
+        Integer count = pairs.get(pair);
+        pairs.put(pair, count == null ? 1 : count + 1);
+        total++;
+    }
+
+    public int getCount(String pair) {
+        Integer count = pairs.get(pair);
+        return count == null ? 0 : count;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @param limit max number of pairs returned
+     * @return pairs ordered by count, most frequent first
+     */
+    public List<String> top(int limit) {
+        List<String> sorted = new ArrayList<String>(pairs.keySet());
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int diff = pairs.get(b) - pairs.get(a);
+                return diff != 0 ? diff : a.compareTo(b);
+            }
+        });
+
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    /**
+     * @param line line of asm
+     * @return opcode of the instruction on the line, null if it is not an instruction
+     */
+    static String opCodeOf(String line) {
+        int comment = line.indexOf(';');
+        if (comment >= 0) {
+            line = line.substring(0, comment);
+        }
+
+        String[] tokens = line.trim().split("[\t ]+");
+        if (Assembler.opCode(tokens[0]) >= 0) {
+            return tokens[0];
+        }
+        if (tokens.length > 1 && Assembler.opCode(tokens[1]) >= 0) {
+            return tokens[1];
+        }
+
+        return null;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("usage: OpcodeReport file.asm ...");
+            return;
+        }
+
+        OpcodeReport report = new OpcodeReport();
+        try {
+            for (String file : args) {
+                report.addFile(file);
+            }
+        } catch (IOException e) {
+            System.out.println("Error: could not read " + e.getMessage());
+            return;
+        }
+
+        for (String pair : report.top(25)) {
+            int count = report.getCount(pair);
+            System.out.printf("%-10s %6d %6.2f%%%n", pair, count, 100.0 * count / report.getTotal());
+        }
+    }
+}
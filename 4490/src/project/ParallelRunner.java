@@ -0,0 +1,74 @@
+package project;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/4/13
+ * Time: 8:05 PM
+ */
+public class ParallelRunner {
+    private final ExecutorService executor;
+    private final Budget budget;
+
+    public ParallelRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads programs run at once
+     */
+    public ParallelRunner(int threads) {
+        this(threads, Budget.fromProperties());
+    }
+
+    /**
+     * @param threads programs run at once
+     * @param budget  limits on each run of a compiled program
+     */
+    public ParallelRunner(int threads, Budget budget) {
+        executor = Executors.newFixedThreadPool(threads);
+        this.budget = budget;
+    }
+
+    /**
+     * compiles and runs a program on the next free thread
+     *
+     * @see ProgramRunner#run(String, Reader, Writer, Budget)
+     */
+    public Future<RunResult> submit(final String source, final Reader input, final Writer output) {
+        return executor.submit(new Callable<RunResult>() {
+            @Override
+            public RunResult call() throws Exception {
+                return ProgramRunner.run(source, input, output, budget);
+            }
+        });
+    }
+
+    /**
+     * runs a compiled program on the next free thread
+     *
+     * @see ProgramRunner#run(ProgramImage, Reader, Writer, Budget)
+     */
+    public Future<RunResult> submit(final ProgramImage image, final Reader input, final Writer output) {
+        return executor.submit(new Callable<RunResult>() {
+            @Override
+            public RunResult call() throws Exception {
+                return ProgramRunner.run(image, input, output, budget);
+            }
+        });
+    }
+
+    /**
+     * lets submitted programs finish, then stops the threads
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
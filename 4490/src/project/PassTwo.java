@@ -38,17 +38,45 @@ public class PassTwo {
         startHere += this.variableId++;
     }
 
+    public String getErrorList() {
+        return errorList;
+    }
+
+    public LinkedHashMap<String, Symbol> getSymbolTable() {
+        return symbolTable;
+    }
+
+    public List<ICode> getICodeList() {
+        return iCodeList;
+    }
+
+    public String getStartLabel() {
+        return startHere;
+    }
+
     public void evaluate(boolean isTest) {
+        evaluate(isTest, null);
+    }
+
+    /**
+     * @param jarFile when not null the program is compiled straight to a jvm class in this jar instead of the vm
+     */
+    public void evaluate(boolean isTest, String jarFile) {
         // pass two
         if (!compilation_unit()) {
             System.out.print(errorList);
-            System.exit(0);
+            return;
         }
 
         if (isTest) {
             System.out.println("Semantic Analysis Successful!");
         }
 
+        if (jarFile != null) {
+            new JvmCode(symbolTable, iCodeList).writeJar(jarFile);
+            return;
+        }
+
         TCode tCode = new TCode(symbolTable, iCodeList, startHere);
         tCode.buildCode();
     }
@@ -588,6 +616,20 @@ public class PassTwo {
 
             return expression() && EOE() && cinCheck();
 
+        } else if (lexicalAnalyzer.getToken().getName().equals(KeyConst.SPAWN.getKey())) {
+            // check format: "spawn" expression ";"
+            lexicalAnalyzer.nextToken();
+            int start = iCodeList.size();
+
+            return expression() && EOE() && spawnCheck(start);
+
+        } else if (lexicalAnalyzer.getToken().getName().equals(KeyConst.JOIN.getKey())) {
+            // check format: "join" ";"
+            lexicalAnalyzer.nextToken();
+
+            iCodeList.add(new ICode(useLabel(), ICodeOprConst.JOIN_OPR.getKey(), "", "", "", "; wait for spawned calls"));
+            return true;
+
         } else {
             // check format: expression ";"
             if (!expression()) {
@@ -787,7 +829,8 @@ public class PassTwo {
             }
 
             // todo: may need to change return type
-            iCodeList.add(new ICode(useLabel(), ICodeOprConst.RTN_OPR.getKey(), "", "", "", "; return from constructor: " + scope));
+            // a constructor hands back 'this', so it is the operand of its RTN
+            iCodeList.add(new ICode(useLabel(), ICodeOprConst.RTN_OPR.getKey(), KeyConst.THIS.getKey(), "", "", "; return from constructor: " + scope));
 
             decrementScope();
             return true;
@@ -803,7 +846,7 @@ public class PassTwo {
             return false;
         }
 
-        iCodeList.add(new ICode(useLabel(), ICodeOprConst.RTN_OPR.getKey(), "", "", "", "; return from constructor: " + scope));
+        iCodeList.add(new ICode(useLabel(), ICodeOprConst.RTN_OPR.getKey(), KeyConst.THIS.getKey(), "", "", "; return from constructor: " + scope));
 
         decrementScope();
         return true;
@@ -969,6 +1012,28 @@ public class PassTwo {
             }
         }
 
+        return main_declaration();
+    }
+
+    /**
+     * generates the code for a source holding a single class, without the call to main
+     */
+    public boolean class_unit() {
+        return class_declaration();
+    }
+
+    /**
+     * generates the code for a source holding only the main method, without the call to it
+     */
+    public boolean main_unit() {
+        return main_declaration();
+    }
+
+    private boolean main_declaration() {
+        incrementScope("main", false);
+        Symbol method = getSymbol();
+        decrementScope();
+
         // look for main method
         lexicalAnalyzer.nextToken();
 
@@ -1076,6 +1141,12 @@ public class PassTwo {
 
         String type = sar.getType();
 
+        // a char array is written whole
+        if (type.equalsIgnoreCase("@:" + KeyConst.CHAR.name())) {
+            iCodeList.add(new ICode(useLabel(), ICodeOprConst.WRTC_OPR.getKey(), sar.getSarId(), "", "", "; Write chars " + sar.getLexi().getName()));
+            return true;
+        }
+
         if (type.startsWith("@:")) {
             type = type.substring(type.indexOf(":") + 1, type.length());
         }
@@ -1103,8 +1174,10 @@ public class PassTwo {
 
         String type = sar.getType();
 
-        if (!type.startsWith("@:")) {
-            type = type.substring(type.indexOf(":") + 1, type.length());
+        // a char array is filled with a whole line
+        if (type.equalsIgnoreCase("@:" + KeyConst.CHAR.name())) {
+            iCodeList.add(new ICode(useLabel(), ICodeOprConst.RDC_OPR.getKey(), sar.getSarId(), "", "", "; Read chars " + sar.getLexi().getName()));
+            return true;
         }
 
         if (type.equalsIgnoreCase(KeyConst.INT.name()) || type.equalsIgnoreCase(KeyConst.CHAR.name())) {
@@ -1120,6 +1193,54 @@ public class PassTwo {
         return false;
     }
 
+    /**
+     * turns the method call the spawn statement ended with into a spawned call
+     *
+     * @param start index of the first icode of the statement
+     */
+    public boolean spawnCheck(int start) {
+        int frame = -1;
+        for (int i = start; i < iCodeList.size(); i++) {
+            if (iCodeList.get(i).getOperation().equals(ICodeOprConst.FRAME_OPR.getKey())) {
+                frame = i;
+            }
+        }
+
+        // the call has to be the whole expression, its result is thrown away
+        boolean isCall = false;
+        if (frame != -1) {
+            isCall = true;
+            int i = frame + 1;
+            while (i < iCodeList.size() && iCodeList.get(i).getOperation().equals(ICodeOprConst.PUSH_OPR.getKey())) {
+                i++;
+            }
+            if (i == iCodeList.size() || !iCodeList.get(i).getOperation().equals(ICodeOprConst.CALL_OPR.getKey())) {
+                isCall = false;
+            }
+            for (i++; i < iCodeList.size(); i++) {
+                String operation = iCodeList.get(i).getOperation();
+                if (!operation.equals(ICodeOprConst.CREATE_OPR.getKey()) && !operation.equals(ICodeOprConst.PEEK_OPR.getKey())) {
+                    isCall = false;
+                }
+            }
+        }
+
+        if (!isCall) {
+            errorList += "the 'spawn' statement requires a method call. Line: " + lexicalAnalyzer.getToken().getLineNum() + "\n";
+            return false;
+        }
+
+        iCodeList.get(frame).setOperation(ICodeOprConst.SPAWN_OPR.getKey());
+        for (int i = iCodeList.size() - 1; i > frame; i--) {
+            if (iCodeList.get(i).getOperation().equals(ICodeOprConst.PEEK_OPR.getKey())) {
+                iCodeList.remove(i);
+            }
+        }
+
+        popSAS();
+        return true;
+    }
+
     public boolean returnCheck() {
         String returnType;
         int lineNum;
@@ -1310,7 +1431,8 @@ public class PassTwo {
                 Identifier_SAR tempSAR = new Identifier_SAR(scope, new Tuple(tempKey, tempType, id_sar.getLexi().getLineNum()), tempType);
                 tempSAR.setSarId(tempKey);
 
-                iCodeList.add(new ICode(useLabel(), ICodeOprConst.ADD_OPR.getKey(), arrayName.getSarId(), indexName.getSarId(), tempKey, "; base address + " + indexName.getLexi().getName()));
+                // the temp holds the address of the element, and is read and written through
+                iCodeList.add(new ICode(useLabel(), ICodeOprConst.AEF_OPR.getKey(), arrayName.getSarId(), indexName.getSarId(), tempKey, "; " + arrayName.getLexi().getName() + "[" + indexName.getLexi().getName() + "] -> " + tempKey));
                 variableId++;
 
                 SAS.pop();
@@ -1,5 +1,12 @@
 package project;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
 import java.lang.*;
 
 /**
@@ -20,10 +27,146 @@ public class ProgramDriver {
             fileName = args[0];
         }
 
+        // -batch <directory> runs every .kxi file in it on a pool of worker jvms
+        int workers = Runtime.getRuntime().availableProcessors();
+        long timeout = 10000;
+        boolean batch = args.length > 1 && args[0].equals("-batch");
+        boolean kxo = false;
+        String jarFile = null;
+        if (batch) {
+            fileName = args[1];
+        }
+
+        // -interpret turns off compilation of hot blocks in the vm
+        // -virtual runs kxi threads on virtual threads
+        // -green <quantum> runs kxi threads on one thread, switching every quantum instructions
+        // -seed <seed> picks the next green thread at random instead of in turn
+        // -jar <file> compiles to a runnable jar instead of running the program
+        // -asm <file> also writes the generated assembly to file
+        // -kxo keeps the assembled program in a .kxo file beside the source, and runs that while the source is unchanged
+        // -cache <directory> and -cacheSize <bytes> keep assembled programs by a hash of their source
+        // -modules <directory> compiles each class into a module of its own there, and links them
+        // -workers <n> and -timeout <ms> set the worker jvms and the time each job may run in a batch
+        // -maxInstructions <n>, -maxMillis <ms> and -maxHeap <cells> stop a program that goes past them
+        for (int i = batch ? 2 : 1; i < args.length; i++) {
+            if (args[i].equals("-interpret")) {
+                System.setProperty("kxi.interpret", "true");
+            } else if (args[i].equals("-virtual")) {
+                System.setProperty("kxi.virtual", "true");
+            } else if (args[i].equals("-green") && i + 1 < args.length) {
+                System.setProperty("kxi.green", args[++i]);
+            } else if (args[i].equals("-seed") && i + 1 < args.length) {
+                System.setProperty("kxi.seed", args[++i]);
+            } else if (args[i].equals("-jar") && i + 1 < args.length) {
+                jarFile = args[++i];
+            } else if (args[i].equals("-kxo")) {
+                kxo = true;
+            } else if (args[i].equals("-cache") && i + 1 < args.length) {
+                System.setProperty("kxi.cache", args[++i]);
+            } else if (args[i].equals("-cacheSize") && i + 1 < args.length) {
+                System.setProperty("kxi.cacheSize", args[++i]);
+            } else if (args[i].equals("-modules") && i + 1 < args.length) {
+                System.setProperty("kxi.modules", args[++i]);
+            } else if (args[i].equals("-asm") && i + 1 < args.length) {
+                System.setProperty("kxi.asm", args[++i]);
+            } else if (args[i].equals("-maxInstructions") && i + 1 < args.length) {
+                System.setProperty("kxi.maxInstructions", args[++i]);
+            } else if (args[i].equals("-maxMillis") && i + 1 < args.length) {
+                System.setProperty("kxi.maxMillis", args[++i]);
+            } else if (args[i].equals("-maxHeap") && i + 1 < args.length) {
+                System.setProperty("kxi.maxHeap", args[++i]);
+            } else if (args[i].equals("-workers") && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-timeout") && i + 1 < args.length) {
+                timeout = Long.parseLong(args[++i]);
+            }
+        }
+
+        if (batch) {
+            new BatchCoordinator(workers, timeout).run(new File(fileName));
+            return;
+        }
+
+        // a batch worker; jobs come in on System.in and results go out on System.out
+        if (fileName.equals("-worker")) {
+            System.setOut(System.err);
+            try {
+                BatchWorker.serve(System.in, new FileOutputStream(FileDescriptor.out));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        // a .kxo file is run as it is
+        if (fileName.endsWith(".kxo")) {
+            ProgramImage image = ProgramImage.read(new File(fileName), null);
+            if (image == null) {
+                System.out.println("STOP! " + fileName + " is not a program image.");
+                return;
+            }
+            new Assembler().run(image);
+            return;
+        }
+
+        // the cache is looked in before the source is compiled
+        CompileCache cache = CompileCache.fromProperties();
+        Linker linker = Linker.fromProperties();
+        if ((kxo || cache != null || linker != null) && !testing && jarFile == null && System.getProperty("kxi.asm") == null) {
+            runImage(fileName, kxo, cache, linker);
+            return;
+        }
+
         LexicalAnalyzer lexicalAnalyzer = new LexicalAnalyzer();
-        lexicalAnalyzer.processFile(fileName);
+        if (!lexicalAnalyzer.processFile(fileName)) {
+            return;
+        }
 
         Compiler compiler = new Compiler(lexicalAnalyzer);
-        compiler.evaluate(testing);
+        compiler.evaluate(testing, jarFile);
+    }
+
+    // runs the program from its .kxo image or the cache, compiling it only if neither has it
+    private static void runImage(String fileName, boolean kxo, CompileCache cache, Linker linker) {
+        String source;
+        try {
+            source = new String(Files.readAllBytes(new File(fileName).toPath()));
+        } catch (IOException e) {
+            System.out.println("Cannot find File");
+            return;
+        }
+
+        int dot = fileName.lastIndexOf('.');
+        File imageFile = new File((dot > fileName.lastIndexOf(File.separatorChar) ? fileName.substring(0, dot) : fileName) + ".kxo");
+        final byte[] hash = ProgramImage.imageHash(source);
+
+        ProgramImage image = kxo ? ProgramImage.read(imageFile, hash) : null;
+        if (image == null) {
+            Writer diagnostics = new OutputStreamWriter(System.out);
+            if (cache != null) {
+                image = cache.compile(source, diagnostics);
+            } else if (linker != null) {
+                image = linker.compile(source, diagnostics);
+            } else {
+                image = ProgramRunner.compile(source, diagnostics);
+            }
+            if (image == null) {
+                return;
+            }
+            if (kxo) {
+                // other runs of the same program may be reading the image
+                final ProgramImage compiled = image;
+                boolean written = AtomicFile.write(imageFile, new AtomicFile.Contents() {
+                    @Override
+                    public boolean writeTo(File temp) {
+                        return compiled.write(temp, hash);
+                    }
+                });
+                if (!written) {
+                    System.out.println("Cannot write " + imageFile);
+                }
+            }
+        }
+        new Assembler().run(image);
     }
 }
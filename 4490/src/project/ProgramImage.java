@@ -0,0 +1,308 @@
+package project;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/5/13
+ * Time: 6:50 PM
+ */
+public final class ProgramImage {
+    // "KXO" and the format version; images from any other version are compiled again
+    private static final int MAGIC = 0x4B584F00;
+    private static final int VERSION = 2;
+
+    // assembled program, shared by every run of it
+    final int[] code;
+    final List<Instruction> codeList;
+    final Map<String, String> instructionCells;
+
+    // cells used by the input traps
+    final int iniiAddress;
+    final int inctAddress;
+    final int sizeAddress;
+
+    // start of the heap, and the cell new checks against; -1 if the program has none
+    final int heapAddress;
+    final int heapLimitAddress;
+
+    // whether the program has a RUN, and the stack size of the threads it starts
+    final boolean startsThreads;
+    final int threadStackSize;
+
+    // memory as the program starts; only the cells below initializedSize hold anything
+    private final MemoryBlock memory;
+    private final int initializedSize;
+
+    // blocks compiled by any run are used by every later run; CompiledBlock keeps no state.
+    // runs of the image may be going at once, so a block is published through the atomic array
+    final BlockCompiler compiler;
+    final AtomicReferenceArray<CompiledBlock> blocks;
+
+    ProgramImage(int[] code, List<Instruction> codeList, Map<String, String> instructionCells, int iniiAddress, int inctAddress,
+                 int sizeAddress, int heapAddress, int heapLimitAddress, boolean startsThreads, int threadStackSize,
+                 MemoryBlock memory) {
+        this.code = code;
+        this.codeList = Collections.unmodifiableList(new ArrayList<Instruction>(codeList));
+        this.instructionCells = new HashMap<String, String>(instructionCells);
+        this.iniiAddress = iniiAddress;
+        this.inctAddress = inctAddress;
+        this.sizeAddress = sizeAddress;
+        this.heapAddress = heapAddress;
+        this.heapLimitAddress = heapLimitAddress;
+        this.startsThreads = startsThreads;
+        this.threadStackSize = threadStackSize;
+        this.memory = memory;
+        this.initializedSize = memory.initializedSize();
+
+        int count = code.length / Assembler.STRIDE;
+        compiler = new BlockCompiler(code);
+        blocks = new AtomicReferenceArray<CompiledBlock>(count);
+    }
+
+    /**
+     * @param spare cells the run can take for thread stacks
+     * @return memory for a new run of the program
+     */
+    MemoryBlock newMemory(int spare) {
+        return memory.copy(initializedSize, spare);
+    }
+
+    public int size() {
+        return codeList.size();
+    }
+
+    /**
+     * @param source program source
+     * @return hash an image file or cached program is checked against, of the source and the options
+     * it is assembled with, so a changed source or option compiles it again
+     */
+    public static byte[] imageHash(String source) {
+        return hash(source + '\0' + options());
+    }
+
+    /**
+     * @param source program source
+     * @return hash of the source alone
+     */
+    public static byte[] hash(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((byte) VERSION);
+            return digest.digest(source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // options read when a program is assembled; a program assembled with others is another image.
+    // kxi.maxThreads is only read when a program runs
+    private static String options() {
+        return "threadStack=" + Integer.getInteger("kxi.threadStack", TCode.STACK_SIZE);
+    }
+
+    // the hash as hex, for file names
+    static String key(byte[] hash) {
+        StringBuilder key = new StringBuilder();
+        for (byte b : hash) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * writes the program to a .kxo file: the packed code, the decoded instructions with their
+     * labels, the data as the program starts, and the hash of the source
+     *
+     * @param file       image file
+     * @param sourceHash from hash
+     * @return false if the file could not be written
+     */
+    public boolean write(File file, byte[] sourceHash) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            try {
+                out.writeInt(MAGIC | VERSION);
+                out.writeInt(sourceHash.length);
+                out.write(sourceHash);
+
+                out.writeInt(iniiAddress);
+                out.writeInt(inctAddress);
+                out.writeInt(sizeAddress);
+                out.writeInt(heapAddress);
+                out.writeInt(heapLimitAddress);
+                out.writeBoolean(startsThreads);
+                out.writeInt(threadStackSize);
+
+                // only the cells below initializedSize; the rest start as zero ints
+                out.writeInt(memory.size());
+                writeInts(out, memory.values(), initializedSize);
+                out.write(memory.tags(), 0, initializedSize);
+
+                writeInts(out, code, code.length);
+                out.writeInt(codeList.size());
+                for (Instruction instruction : codeList) {
+                    out.writeInt(instruction.getOpCode());
+                    out.writeInt(instruction.getTarget());
+                    out.writeInt(instruction.getAddress());
+                    out.writeInt(instruction.getReg1());
+                    out.writeInt(instruction.getReg2());
+                    out.writeInt(instruction.getReg3());
+                    out.writeInt(instruction.getImmediate());
+                    writeString(out, instruction.getOpd1());
+                    writeString(out, instruction.getOpd2());
+                    writeString(out, instruction.getLabel());
+                }
+
+                out.writeInt(instructionCells.size());
+                for (Map.Entry<String, String> cell : instructionCells.entrySet()) {
+                    writeString(out, cell.getKey());
+                    writeString(out, cell.getValue());
+                }
+            } finally {
+                out.close();
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * reads a .kxo file into memory and the program from it
+     *
+     * @param file       image file
+     * @param sourceHash from hash; null to take the image whatever it was compiled from
+     * @return the program, null if the file is missing, unreadable or from another source
+     */
+    public static ProgramImage read(File file, byte[] sourceHash) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            FileChannel channel = new FileInputStream(file).getChannel();
+            try {
+                // read whole rather than mapped; every section is copied into the arrays the interpreter runs
+                ByteBuffer in = ByteBuffer.allocate((int) channel.size());
+                while (in.hasRemaining()) {
+                    if (channel.read(in) < 0) {
+                        return null;
+                    }
+                }
+                in.flip();
+                if (in.getInt() != (MAGIC | VERSION)) {
+                    return null;
+                }
+                byte[] hash = new byte[in.getInt()];
+                in.get(hash);
+                if (sourceHash != null && !MessageDigest.isEqual(hash, sourceHash)) {
+                    return null;
+                }
+
+                int iniiAddress = in.getInt();
+                int inctAddress = in.getInt();
+                int sizeAddress = in.getInt();
+                int heapAddress = in.getInt();
+                int heapLimitAddress = in.getInt();
+                boolean startsThreads = in.get() != 0;
+                int threadStackSize = in.getInt();
+
+                int size = in.getInt();
+                int[] values = new int[size];
+                byte[] tags = new byte[size];
+                in.get(tags, 0, readInts(in, values));
+
+                int[] code = readInts(in);
+                int count = in.getInt();
+                List<Instruction> codeList = new ArrayList<Instruction>(count);
+                for (int i = 0; i < count; i++) {
+                    int opCode = in.getInt();
+                    int target = in.getInt();
+                    int address = in.getInt();
+                    int reg1 = in.getInt();
+                    int reg2 = in.getInt();
+                    int reg3 = in.getInt();
+                    int immediate = in.getInt();
+
+                    Instruction instruction = new Instruction(opCode, readString(in), readString(in), readString(in));
+                    instruction.setTarget(target);
+                    instruction.setAddress(address);
+                    instruction.setReg1(reg1);
+                    instruction.setReg2(reg2);
+                    instruction.setReg3(reg3);
+                    instruction.setImmediate(immediate);
+                    codeList.add(instruction);
+                }
+
+                Map<String, String> instructionCells = new HashMap<String, String>();
+                for (int i = in.getInt(); i > 0; i--) {
+                    instructionCells.put(readString(in), readString(in));
+                }
+
+                return new ProgramImage(code, codeList, instructionCells, iniiAddress, inctAddress, sizeAddress,
+                        heapAddress, heapLimitAddress, startsThreads, threadStackSize, new MemoryBlock(values, tags, size));
+            } finally {
+                channel.close();
+            }
+        } catch (Exception e) {
+            // a short or corrupt image is compiled again
+            return null;
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints, int count) throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(ints[i]);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        int[] ints = new int[in.getInt(in.position())];
+        readInts(in, ints);
+        return ints;
+    }
+
+    // reads the ints into the start of the array, and returns how many there were
+    private static int readInts(ByteBuffer in, int[] ints) {
+        int count = in.getInt();
+        IntBuffer view = in.asIntBuffer();
+        view.get(ints, 0, count);
+        in.position(in.position() + count * 4);
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
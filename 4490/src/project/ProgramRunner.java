@@ -0,0 +1,122 @@
+package project;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/4/13
+ * Time: 7:35 PM
+ */
+public class ProgramRunner {
+    /**
+     * compiles and runs a program without touching files or System.in and System.out, so any
+     * number of programs can run at once
+     *
+     * @param source program source
+     * @param input  what the program reads; empty if null
+     * @param output what the program and the vm write
+     * @return compiler and assembler errors, and why the program stopped
+     */
+    public static RunResult run(String source, Reader input, Writer output) {
+        return run(source, input, output, Budget.fromProperties());
+    }
+
+    /**
+     * compiles and runs a program, stopping it when it goes over a budget
+     *
+     * @see #run(String, Reader, Writer)
+     */
+    public static RunResult run(String source, Reader input, Writer output, Budget budget) {
+        return run(source, input, output, budget, null);
+    }
+
+    /**
+     * compiles and runs a program, taking it from a cache when it is there
+     *
+     * @param cache where the program is looked for and added; null to compile it every time
+     * @see #run(String, Reader, Writer, Budget)
+     */
+    public static RunResult run(String source, Reader input, Writer output, Budget budget, CompileCache cache) {
+        StringWriter diagnostics = new StringWriter();
+        ProgramImage image = cache != null ? cache.compile(source, diagnostics) : compile(source, diagnostics);
+        if (image == null) {
+            return new RunResult(diagnostics.toString(), StopReason.COMPILE_ERROR);
+        }
+        return run(image, input, output, budget);
+    }
+
+    /**
+     * runs a compiled program; the image is shared, so it can be run any number of times at once
+     *
+     * @param image  program from compile
+     * @param input  what the program reads; empty if null
+     * @param output what the program and the vm write
+     * @return why the program stopped
+     */
+    public static RunResult run(ProgramImage image, Reader input, Writer output) {
+        return run(image, input, output, Budget.fromProperties());
+    }
+
+    /**
+     * runs a compiled program, stopping it when it goes over a budget
+     *
+     * @see #run(ProgramImage, Reader, Writer)
+     */
+    public static RunResult run(ProgramImage image, Reader input, Writer output, Budget budget) {
+        Assembler assembler = new Assembler();
+        assembler.setInput(input == null ? new StringReader("") : input);
+        assembler.setOutput(output);
+        assembler.setBudget(budget);
+        assembler.run(image);
+        return new RunResult("", assembler.getStopReason());
+    }
+
+    /**
+     * compiles and assembles a program
+     *
+     * @param source      program source
+     * @param diagnostics where compiler and assembler errors are written
+     * @return the assembled program, null if it has errors
+     */
+    public static ProgramImage compile(String source, Writer diagnostics) {
+        LexicalAnalyzer lexicalAnalyzer = new LexicalAnalyzer();
+        if (!lexicalAnalyzer.process(new StringReader(source))) {
+            write(diagnostics, "There was an error reading the source\n");
+            return null;
+        }
+
+        // pass one
+        Compiler compiler = new Compiler(lexicalAnalyzer);
+        if (!compiler.compilation_unit()) {
+            write(diagnostics, compiler.getErrorList());
+            return null;
+        }
+
+        // pass two
+        PassTwo passTwo = compiler.passTwo();
+        if (!passTwo.compilation_unit()) {
+            write(diagnostics, passTwo.getErrorList());
+            return null;
+        }
+
+        TCode tCode = new TCode(passTwo.getSymbolTable(), passTwo.getICodeList(), passTwo.getStartLabel());
+
+        Assembler assembler = new Assembler();
+        assembler.setOutput(diagnostics);
+        return assembler.assemble(tCode.generate());
+    }
+
+    private static void write(Writer writer, String s) {
+        try {
+            writer.write(s);
+            writer.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package project;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/17/13
+ * Time: 8:12 PM
+ */
+public class RegisterFile {
+    public static final int SIZE = 101;
+    public static final byte INT = 0;
+    public static final byte CHAR = 1;
+
+    // instructions the thread may run before the vm checks its budgets; past the registers, so
+    // programs can not reach it
+    public static final int FUEL = SIZE;
+
+    private final int[] values = new int[SIZE + 1];
+    private final byte[] tags = new byte[SIZE + 1];
+
+    // last value written to a register for each tag; TRP 1 and TRP 3 print these
+    private final int[] lastWritten = new int[2];
+
+    public int get(int r) {
+        return values[r];
+    }
+
+    public byte getTag(int r) {
+        return tags[r];
+    }
+
+    public boolean isInt(int r) {
+        return tags[r] == INT;
+    }
+
+    public void set(int r, int value, byte tag) {
+        values[r] = value;
+        tags[r] = tag;
+    }
+
+    public void setInt(int r, int value) {
+        values[r] = value;
+        tags[r] = INT;
+    }
+
+    public void copy(int to, int from) {
+        values[to] = values[from];
+        tags[to] = tags[from];
+    }
+
+    public void copyFrom(RegisterFile other) {
+        System.arraycopy(other.values, 0, values, 0, SIZE);
+        System.arraycopy(other.tags, 0, tags, 0, SIZE);
+        lastWritten[INT] = other.lastWritten[INT];
+        lastWritten[CHAR] = other.lastWritten[CHAR];
+    }
+
+    /**
+     * records the value of register r as the last value written for its tag
+     *
+     * @param r register number
+     */
+    public void touch(int r) {
+        lastWritten[tags[r]] = values[r];
+    }
+
+    public int getLastInt() {
+        return lastWritten[INT];
+    }
+
+    public int getLastChar() {
+        return lastWritten[CHAR];
+    }
+
+    // backing arrays for the interpreter loop
+    int[] values() {
+        return values;
+    }
+
+    byte[] tags() {
+        return tags;
+    }
+
+    int[] lastWritten() {
+        return lastWritten;
+    }
+
+    public void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 0;
+            tags[i] = INT;
+        }
+        lastWritten[INT] = 0;
+        lastWritten[CHAR] = 0;
+    }
+}
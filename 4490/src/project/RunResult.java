@@ -0,0 +1,36 @@
+package project;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/4/13
+ * Time: 7:20 PM
+ */
+public class RunResult {
+    private final String diagnostics;
+    private final StopReason stopReason;
+
+    /**
+     * @param diagnostics compiler errors, empty if the program compiled
+     * @param stopReason  why the program stopped
+     */
+    public RunResult(String diagnostics, StopReason stopReason) {
+        this.diagnostics = diagnostics;
+        this.stopReason = stopReason;
+    }
+
+    public String getDiagnostics() {
+        return diagnostics;
+    }
+
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * @return true if the program compiled, assembled and ran to its end
+     */
+    public boolean isSuccessful() {
+        return stopReason == StopReason.FINISHED;
+    }
+}
@@ -1,5 +1,6 @@
 package project;
 
+import java.lang.reflect.Method;
 import java.util.List;
 
 /**
@@ -8,21 +9,78 @@ import java.util.List;
  * Date: 12/8/12
  * Time: 1:09 PM
  */
-public class RunnableThread extends Thread {
+public class RunnableThread implements Runnable {
+    // Thread.ofVirtual() and Thread.Builder.unstarted, when the jvm has virtual threads
+    private static Method ofVirtual;
+    private static Method unstarted;
+
+    static {
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+        } catch (Exception e) {
+            ofVirtual = null;
+        }
+    }
+
     private Assembler assembler;
+    private RegisterFile registers;
     private List<Instruction> instructionList;
     private int instruction;
-    private int end;
+    private int stack;
+    private Thread thread;
+
+    // thread that ran the RUN instruction; BLK waits for the threads it started
+    private Thread parent = Thread.currentThread();
 
-    public RunnableThread(ThreadGroup tg, String name, Assembler assembler, List<Instruction> instructionList, int instruction, int end) {
-        super(tg, name);
+    public RunnableThread(Assembler assembler, RegisterFile registers, List<Instruction> instructionList, int instruction, int stack) {
         this.assembler = assembler;
+        this.registers = registers;
         this.instructionList = instructionList;
         this.instruction = instruction;
-        this.end = end;
+        this.stack = stack;
+    }
+
+    public static boolean hasVirtualThreads() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * starts the kxi thread on a virtual thread if asked for and available, otherwise on a thread in tg
+     */
+    public void start(ThreadGroup tg, String name, boolean virtual) {
+        if (virtual && hasVirtualThreads()) {
+            try {
+                thread = (Thread) unstarted.invoke(ofVirtual.invoke(null), this);
+                thread.setName(name);
+            } catch (Exception e) {
+                thread = null;
+            }
+        }
+        if (thread == null) {
+            thread = new Thread(tg, this, name);
+        }
+        thread.start();
+    }
+
+    public void join() throws InterruptedException {
+        thread.join();
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public Thread getParent() {
+        return parent;
     }
 
     public void run() {
-        assembler.runVM(instructionList, instruction, end);
+        try {
+            assembler.runThread(registers, instructionList, instruction, stack);
+        } finally {
+            assembler.endThread(this);
+            registers = null;
+        }
     }
 }
@@ -0,0 +1,16 @@
+package project;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/7/13
+ * Time: 6:30 PM
+ */
+public enum StopReason {
+    FINISHED,
+    COMPILE_ERROR,
+    VM_ERROR,
+    INSTRUCTION_LIMIT,
+    TIME_LIMIT,
+    HEAP_LIMIT
+}
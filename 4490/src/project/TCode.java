@@ -13,6 +13,8 @@ import java.util.*;
 public class TCode {
     public static final String RUN_TIME_STACK = "RTS";
     public static final String THE_HEAP = "HEAP";
+    // top of the heap new may allocate to; set by the vm when a run starts
+    public static final String HEAP_LIMIT = "HLIM";
     public static final int STACK_SIZE = 5000;
 
     private final String SP = "R100";
@@ -26,6 +28,13 @@ public class TCode {
     private final String END_PROGRAM = "ENDPROGRAM";
     private final int COND_INCR_INDEX_START = 6000;
 
+    // a spawned call gets its arguments in R8 and up, the registers a new thread copies from its parent
+    private final int SPAWN_ARG_REG = 8;
+    private final String SPAWN_CALL = "SPAWNCALL";
+
+    // a frame holds the return address, the previous frame pointer, then 'this'
+    private final int THIS_OFFSET = 2;
+
     private LinkedHashMap<String, Symbol> symbolTable = new LinkedHashMap<String, Symbol>();
     private List<ICode> iCodeList = new ArrayList<ICode>();
     private List<String> tCode = new ArrayList<String>();
@@ -35,6 +44,12 @@ public class TCode {
     private int condIncr = COND_INCR_INDEX_START;
     private Stack<String> L4 = new Stack<String>();
 
+    // start label of each spawned call and the index of its SPAWN icode
+    private LinkedHashMap<String, Integer> spawnCalls = new LinkedHashMap<String, Integer>();
+
+    // temps set by AEF; each holds the address of an array element
+    private Set<String> elementTemps = new HashSet<String>();
+
     private void initReg() {
         for (int i = 0; i < 101; i++) {
             reg.put("R" + i, "");
@@ -70,6 +85,12 @@ public class TCode {
         this.iCodeList = iCodeList;
         this.startLabel = startLabel;
         initReg();
+
+        for (ICode iCode : iCodeList) {
+            if (iCode.getOperation().equals(ICodeOprConst.AEF_OPR.getKey())) {
+                elementTemps.add(iCode.getResult());
+            }
+        }
     }
 
     private String getNewRegister(String id) {
@@ -98,7 +119,36 @@ public class TCode {
         tCode.add("LDR " + r + " CLR");
     }
 
+    /**
+     * runs the program, handing the generated lines straight to the assembler; the assembly is
+     * written out only if -Dkxi.asm names a file for it
+     */
     public void buildCode() {
+        List<String> lines = generate();
+
+        String asmFile = System.getProperty("kxi.asm");
+        if (asmFile != null) {
+            try {
+                BufferedWriter writer = new BufferedWriter(new FileWriter(asmFile));
+
+                for (String s : lines) {
+                    writer.write(s);
+                    writer.newLine();
+                }
+                writer.close();
+            } catch (Exception e) {
+                System.out.println("error creating file");
+            }
+        }
+
+        Assembler assembler = new Assembler();
+        assembler.action(lines);
+    }
+
+    /**
+     * @return assembly source of the program, one line per instruction or directive
+     */
+    public List<String> generate() {
         String reg3 = getRegister("3");
         String reg4 = getRegister("4");
         String reg5 = getRegister("5");
@@ -185,6 +235,10 @@ public class TCode {
                 tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + SP + " 1" + " ; PFP");
                 address++;
 
+                int start = tCode.size();
+                addReceiver(tCode, reg7, reg3, iCode.getArg2());
+                address += tCode.size() - start;
+
                 tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + SP + " " + reg7 + " ; Set 'this' on stack");
                 address++;
                 tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + SP + " 1");
@@ -213,8 +267,7 @@ public class TCode {
                         } else {
                             tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + reg3);
                             address++;
-                            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + parameter.getSize() + " ; Address of " + parameter.getValue());
-                            address++;
+                            addOffset(reg5, parameter, " ; Address of " + parameter.getValue());
                             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; load value of " + parameter.getValue() + " into R6");
                             address++;
                             tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + SP + " " + reg6 + " ; store " + parameter.getValue() + " on stack");
@@ -238,6 +291,23 @@ public class TCode {
                     address++;
                 }
 
+            } else if (iCode.getOperation().equals(ICodeOprConst.SPAWN_OPR.getKey())) {
+
+                addSpawn(iCode, listCount, reg5, reg6, reg7);
+
+            } else if (iCode.getOperation().equals(ICodeOprConst.JOIN_OPR.getKey())) {
+
+                if (iCode.getLabel().isEmpty()) {
+                    if (!L4.isEmpty()) {
+                        tCode.add(L4.pop() + " " + TCodeOprConst.BLK_OPR.getKey() + " " + iCode.getComment());
+                    } else {
+                        tCode.add(TCodeOprConst.BLK_OPR.getKey() + " " + iCode.getComment());
+                    }
+                } else {
+                    tCode.add(setLabel(iCode.getLabel()) + " " + TCodeOprConst.BLK_OPR.getKey() + " " + iCode.getComment());
+                }
+                address++;
+
             } else if (iCode.getOperation().equals(ICodeOprConst.FUNC_OPR.getKey())) {
 
                 Symbol method = symbolTable.get(iCode.getArg1());
@@ -276,8 +346,7 @@ public class TCode {
                 Symbol arg1 = symbolTable.get(iCode.getArg1());
                 tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg3 + " " + FP);
                 address++;
-                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg3 + " " + arg1.getSize());
-                address++;
+                addOffset(reg3, arg1, "");
                 tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg3 + " " + reg6);
                 address++;
 
@@ -304,8 +373,7 @@ public class TCode {
                 }
                 address++;
 
-                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg1.getSize().toString() + " ; get address of " + arg1.getValue());
-                address++;
+                addOffset(reg5, arg1, " ; get address of " + arg1.getValue());
 
                 Symbol arg2 = symbolTable.get(iCode.getArg2());
 
@@ -317,8 +385,7 @@ public class TCode {
                 } else {
                     tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg7 + " " + FP);
                     address++;
-                    tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg7 + " " + arg2.getSize().toString() + " ; get address of " + arg2.getValue());
-                    address++;
+                    addOffset(reg7, arg2, " ; get address of " + arg2.getValue());
                     tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg7 + " ; load value of " + arg2.getValue() + " into R6");
                     address++;
                     tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg6 + " ; store value into address pointed to by R5");
@@ -368,6 +435,14 @@ public class TCode {
                 tCode.add(TCodeOprConst.BLT_OPR.getKey() + " " + reg6 + " " + TCodeOprConst.UNDERFLOW_LBL.getKey());
                 address++;
 
+                // a constructor returns 'this', which the PEEK after its call stores
+                boolean constructor = iCode.getArg1().equals(KeyConst.THIS.getKey());
+                if (constructor) {
+                    int start = tCode.size();
+                    addReceiver(tCode, reg4, FP, KeyConst.THIS.getKey());
+                    address += tCode.size() - start;
+                }
+
                 tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + FP + " ; rtn address");
                 address++;
                 tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
@@ -376,6 +451,10 @@ public class TCode {
                 address++;
                 tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + FP + " " + reg5 + " ; PFP into FP");
                 address++;
+                if (constructor) {
+                    tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + SP + " " + reg4 + " ; return 'this'");
+                    address++;
+                }
                 tCode.add(TCodeOprConst.JMR_OPR.getKey() + " " + reg6 + " " + iCode.getComment());
                 address++;
 
@@ -405,8 +484,7 @@ public class TCode {
                         tCode.add(setLabel(iCode.getLabel()) + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                     }
                     address++;
-                    tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg1.getSize().toString() + " ; get address of " + arg1.getValue());
-                    address++;
+                    addOffset(reg5, arg1, " ; get address of " + arg1.getValue());
                     tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg4 + " " + reg5 + " ; load value of " + arg1.getValue() + " into R4");
                     address++;
                 }
@@ -463,11 +541,30 @@ public class TCode {
                 address++;
                 tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                 address++;
-                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg1.getSize().toString() + " ; get address of " + arg1.getValue());
-                address++;
+                addOffset(reg5, arg1, " ; get address of " + arg1.getValue());
                 tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg6 + " ; store user input into the address pointed to by R5");
                 address++;
 
+            } else if (iCode.getOperation().equals(ICodeOprConst.RDC_OPR.getKey()) && isCharArray(symbolTable.get(iCode.getArg1()))) {
+
+                Symbol arg1 = symbolTable.get(iCode.getArg1());
+
+                if (iCode.getLabel().equals("")) {
+                    if (!L4.isEmpty()) {
+                        tCode.add(L4.pop() + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
+                    } else {
+                        tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
+                    }
+                } else {
+                    tCode.add(iCode.getLabel() + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
+                }
+                address++;
+                addOffset(reg5, arg1, " ; get address of " + arg1.getValue());
+                tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; load array address of " + arg1.getValue() + " into R6");
+                address++;
+                tCode.add(TCodeOprConst.TRP_6.getKey() + " ; read a line into " + arg1.getValue());
+                address++;
+
             } else if (iCode.getOperation().equals(ICodeOprConst.RDC_OPR.getKey())) {
 
                 if (iCode.getLabel().equals("")) {
@@ -487,8 +584,7 @@ public class TCode {
                 address++;
                 tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                 address++;
-                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg1.getSize().toString() + " ; get address of " + arg1.getValue());
-                address++;
+                addOffset(reg5, arg1, " ; get address of " + arg1.getValue());
                 tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg6 + " ; store user input into the address pointed to by R5");
                 address++;
 
@@ -538,8 +634,7 @@ public class TCode {
                         tCode.add(setLabel(iCode.getLabel()) + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                     }
                     address++;
-                    tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg1.getSize().toString() + " ; get address of " + arg1.getValue());
-                    address++;
+                    addOffset(reg5, arg1, " ; get address of " + arg1.getValue());
                     tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg7 + " " + reg5 + " ; load value of " + arg1.getValue() + " into R7");
                     address++;
                 }
@@ -569,8 +664,7 @@ public class TCode {
                 } else {
                     tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                     address++;
-                    tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg2.getSize().toString() + " ; get address of " + arg2.getValue());
-                    address++;
+                    addOffset(reg5, arg2, " ; get address of " + arg2.getValue());
                     tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; load value of " + arg2.getValue() + " into R6");
                     address++;
                 }
@@ -585,8 +679,7 @@ public class TCode {
                 Symbol result = symbolTable.get(iCode.getResult());
                 tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                 address++;
-                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + result.getSize().toString() + " ; get address of " + result.getValue());
-                address++;
+                addOffset(reg5, result, " ; get address of " + result.getValue());
                 tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + REG_FALSE + " ; set result to false");
                 address++;
                 tCode.add(TCodeOprConst.JMP_OPR.getKey() + " " + L4.peek());
@@ -594,8 +687,7 @@ public class TCode {
 
                 tCode.add(L3 + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                 address++;
-                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + result.getSize().toString() + " ; get address of " + result.getValue());
-                address++;
+                addOffset(reg5, result, " ; get address of " + result.getValue());
                 tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + REG_TRUE + " ; set result to true");
                 address++;
 
@@ -633,8 +725,7 @@ public class TCode {
                         tCode.add(setLabel(iCode.getLabel()) + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                     }
                     address++;
-                    tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg1.getSize().toString() + " ; get address of " + arg1.getValue());
-                    address++;
+                    addOffset(reg5, arg1, " ; get address of " + arg1.getValue());
                     tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg7 + " " + reg5 + " ; load value of " + arg1.getValue() + " into R7");
                     address++;
                 }
@@ -655,8 +746,7 @@ public class TCode {
                 } else {
                     tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                     address++;
-                    tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg2.getSize().toString() + " ; get address of " + arg2.getValue());
-                    address++;
+                    addOffset(reg5, arg2, " ; get address of " + arg2.getValue());
                     tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; load value of " + arg2.getValue() + " into R6");
                     address++;
                 }
@@ -680,8 +770,7 @@ public class TCode {
                 Symbol result = symbolTable.get(iCode.getResult());
                 tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                 address++;
-                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + result.getSize().toString() + " ; get address of " + result.getValue());
-                address++;
+                addOffset(reg5, result, " ; get address of " + result.getValue());
                 tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + REG_TRUE + " ; set result to true");
                 address++;
                 tCode.add(TCodeOprConst.JMP_OPR.getKey() + " " + L4.peek());
@@ -708,7 +797,15 @@ public class TCode {
                 address++;
                 tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg6 + " " + iCode.getArg1());
                 address++;
-                tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + FREE + " " + reg6);
+                tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg3 + " " + HEAP_LIMIT + " ; Test heap limit");
+                address++;
+                tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + reg6);
+                address++;
+                tCode.add(TCodeOprConst.CMP_OPR.getKey() + " " + reg5 + " " + reg3);
+                address++;
+                tCode.add(TCodeOprConst.BGT_OPR.getKey() + " " + reg5 + " " + TCodeOprConst.HEAP_FULL_LBL.getKey());
+                address++;
+                tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + FREE + " " + reg6 + " ; move the heap pointer past the object");
                 address++;
                 tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
                 address++;
@@ -717,27 +814,243 @@ public class TCode {
                 tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg7 + " ; store 'this' pointer into: " + symbol.getValue());
                 address++;
 
+            } else if (iCode.getOperation().equals(ICodeOprConst.NEW_OPR.getKey())) {
+
+                // the array goes on the heap with its length in the first cell, the way the array traps read it
+                if (iCode.getLabel().equals("")) {
+                    if (!L4.isEmpty()) {
+                        tCode.add(L4.pop() + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg6 + " " + FREE + " ; get array pointer");
+                    } else {
+                        tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg6 + " " + FREE + " ; get array pointer");
+                    }
+                } else {
+                    tCode.add(setLabel(iCode.getLabel()) + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg6 + " " + FREE + " ; get array pointer");
+                }
+                address++;
+
+                Symbol symbol = symbolTable.get(iCode.getArg2());
+                int length = Integer.parseInt(iCode.getArg1());
+
+                tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg7 + " " + reg6 + " ; put array pointer into R7");
+                address++;
+                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg6 + " " + (length + 1));
+                address++;
+                tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg3 + " " + HEAP_LIMIT + " ; Test heap limit");
+                address++;
+                tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + reg6);
+                address++;
+                tCode.add(TCodeOprConst.CMP_OPR.getKey() + " " + reg5 + " " + reg3);
+                address++;
+                tCode.add(TCodeOprConst.BGT_OPR.getKey() + " " + reg5 + " " + TCodeOprConst.HEAP_FULL_LBL.getKey());
+                address++;
+                tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + FREE + " " + reg6 + " ; move the heap pointer past the array");
+                address++;
+                tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg5 + " CLR");
+                address++;
+                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + length);
+                address++;
+                tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg7 + " " + reg5 + " ; store the length");
+                address++;
+                tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
+                address++;
+                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + symbol.getSize());
+                address++;
+                tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg7 + " ; store array pointer into: " + symbol.getValue());
+                address++;
+
+            } else if (iCode.getOperation().equals(ICodeOprConst.AEF_OPR.getKey())) {
+
+                // the element is at the array pointer + 1 + index, past the length
+                Symbol array = symbolTable.get(iCode.getArg1());
+                if (iCode.getLabel().equals("")) {
+                    if (!L4.isEmpty()) {
+                        tCode.add(L4.pop() + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
+                    } else {
+                        tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
+                    }
+                } else {
+                    tCode.add(setLabel(iCode.getLabel()) + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
+                }
+                address++;
+                addOffset(reg5, array, " ; get address of " + array.getValue());
+                tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg7 + " " + reg5 + " ; load array pointer of " + array.getValue() + " into R7");
+                address++;
+
+                Symbol index = symbolTable.get(iCode.getArg2());
+                if (iCode.getArg2().startsWith("L")) {
+                    tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + iCode.getArg2() + " ; load '" + index.getValue() + "' into R6");
+                    address++;
+                } else {
+                    tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
+                    address++;
+                    addOffset(reg5, index, " ; get address of " + index.getValue());
+                    tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; load value of " + index.getValue() + " into R6");
+                    address++;
+                }
+
+                tCode.add(TCodeOprConst.ADD_OPR.getKey() + " " + reg7 + " " + reg6 + " ; array pointer + index");
+                address++;
+                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg7 + " 1 ; skip the length");
+                address++;
+
+                // the temp itself is set, not the element it points at
+                Symbol result = symbolTable.get(iCode.getResult());
+                tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
+                address++;
+                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + result.getSize() + " ; get address of " + result.getValue());
+                address++;
+                tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg7 + " ; " + result.getValue() + " points at the element");
+                address++;
+
             }
         }
 
+        addSpawnedCalls(reg3, reg5, reg6, reg7);
         addOverflow();
         addUnderflow();
+        addHeapFull();
+        return tCode;
+    }
+
+    /**
+     * adds the offset of symbol to reg, which holds a frame pointer; an ivar is found in the object
+     * that the frame's 'this' points to, and an array element at the address its temp holds
+     */
+    private void addOffset(String reg, Symbol symbol, String comment) {
+        int start = tCode.size();
+        addOffset(tCode, reg, symbol, comment);
+        address += tCode.size() - start;
+    }
+
+    private void addOffset(List<String> code, String reg, Symbol symbol, String comment) {
+        if (elementTemps.contains(symbol.getSymId())) {
+            code.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg + " " + symbol.getSize() + comment);
+            code.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg + " " + reg + " ; load the address of the element");
+            return;
+        }
+        if (symbol.getKind().equals("ivar")) {
+            code.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg + " " + THIS_OFFSET + " ; get address of 'this'");
+            code.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg + " " + reg + " ; load 'this' pointer");
+        }
+        code.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg + " " + symbol.getSize() + comment);
+    }
+
+    /**
+     * loads the object a call is made on into reg; frame holds the frame pointer of the caller
+     */
+    private void addReceiver(List<String> code, String reg, String frame, String receiver) {
+        code.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg + " " + frame);
+        if (receiver.equals(KeyConst.THIS.getKey())) {
+            code.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg + " " + THIS_OFFSET + " ; get address of 'this'");
+        } else {
+            Symbol symbol = symbolTable.get(receiver);
+            addOffset(code, reg, symbol, " ; get address of " + symbol.getValue());
+        }
+        code.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg + " " + reg + " ; load the object the call is made on");
+    }
 
-        try {
-            FileWriter fWriter = new FileWriter("NNM-program.asm");
-            BufferedWriter writer = new BufferedWriter(fWriter);
+    // pushes of the call that starts at index, last argument first like FRAME
+    private List<ICode> getPushes(int index) {
+        List<ICode> pushes = new ArrayList<ICode>();
+        for (int i = index + 1; iCodeList.get(i).getOperation().equals(ICodeOprConst.PUSH_OPR.getKey()); i++) {
+            pushes.add(iCodeList.get(i));
+        }
+        Collections.reverse(pushes);
+        return pushes;
+    }
 
-            for (String s : tCode) {
-                writer.write(s);
-                writer.newLine();
+    /**
+     * loads the receiver and the arguments of a spawned call into registers and starts a thread at its call
+     */
+    private void addSpawn(ICode iCode, int listCount, String reg5, String reg6, String reg7) {
+        List<String> code = new ArrayList<String>();
+
+        List<ICode> pushes = getPushes(listCount);
+        for (int i = 0; i < pushes.size(); i++) {
+            String argument = pushes.get(i).getArg1();
+            Symbol parameter = symbolTable.get(argument);
+            String r = "R" + (SPAWN_ARG_REG + i);
+
+            if (argument.startsWith("L")) {
+                code.add(TCodeOprConst.LDR_OPR.getKey() + " " + r + " " + argument + " ; load '" + parameter.getValue() + "' into " + r);
+            } else {
+                code.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
+                addOffset(code, reg5, parameter, " ; Address of " + parameter.getValue());
+                code.add(TCodeOprConst.LDR_OPR.getKey() + " " + r + " " + reg5 + " ; load value of " + parameter.getValue() + " into " + r);
             }
-            writer.close();
-        } catch (Exception e) {
-            System.out.println("error creating file");
         }
 
-        Assembler assembler = new Assembler();
-        assembler.action("NNM-program.asm");
+        // the thread gets the receiver in R7, which its call stores as 'this' like FRAME does
+        addReceiver(code, reg7, FP, iCode.getArg2());
+
+        String start = SPAWN_CALL + spawnCalls.size();
+        spawnCalls.put(start, listCount);
+        code.add(TCodeOprConst.RUN_OPR.getKey() + " " + reg6 + " " + start + " ; spawn " + symbolTable.get(iCode.getArg1()).getValue());
+
+        if (iCode.getLabel().isEmpty()) {
+            if (!L4.isEmpty()) {
+                code.set(0, L4.pop() + " " + code.get(0));
+            }
+        } else {
+            code.set(0, setLabel(iCode.getLabel()) + " " + code.get(0));
+        }
+
+        tCode.addAll(code);
+        address += code.size();
+    }
+
+    /**
+     * each spawned call builds its frame on its thread's own stack and ends the thread when it returns
+     */
+    private void addSpawnedCalls(String reg3, String reg5, String reg6, String reg7) {
+        for (String start : spawnCalls.keySet()) {
+            int index = spawnCalls.get(start);
+            Symbol method = symbolTable.get(iCodeList.get(index).getArg1());
+            List<ICode> pushes = getPushes(index);
+
+            tCode.add(start + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + SP + " ; spawned call of " + method.getValue());
+            address++;
+            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + method.getObjectSize());
+            address++;
+            tCode.add(TCodeOprConst.CMP_OPR.getKey() + " " + reg5 + " " + SL);
+            address++;
+            tCode.add(TCodeOprConst.BGT_OPR.getKey() + " " + reg5 + " " + TCodeOprConst.OVERFLOW_LBL.getKey());
+            address++;
+
+            tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg3 + " " + FP + " ; Old Frame");
+            address++;
+            tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + FP + " " + SP + " ; New Frame");
+            address++;
+            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + SP + " 1" + " ; PFP");
+            address++;
+            tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + SP + " " + reg3 + " ; Set PFP");
+            address++;
+            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + SP + " 1");
+            address++;
+            tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + SP + " " + reg7 + " ; Set 'this' on stack");
+            address++;
+            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + SP + " 1");
+            address++;
+
+            for (int i = 0; i < pushes.size(); i++) {
+                tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + SP + " R" + (SPAWN_ARG_REG + i) + " ; store argument " + symbolTable.get(pushes.get(i).getArg1()).getValue() + " on the stack");
+                address++;
+                tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + SP + " 1");
+                address++;
+            }
+
+            ICode call = iCodeList.get(index + pushes.size() + 1);
+            tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " CLR");
+            address++;
+            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg6 + " " + (address + 1) + " ; compute rtn addr");
+            address++;
+            tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + FP + " " + reg6 + " ; set rtn addr");
+            address++;
+            tCode.add(TCodeOprConst.JMP_OPR.getKey() + " " + call.getArg1());
+            address++;
+            tCode.add(TCodeOprConst.END_OPR.getKey() + " ; spawned call returns here");
+            address++;
+        }
     }
 
     private void addUnderflow() {
@@ -886,6 +1199,12 @@ public class TCode {
         address++;
     }
 
+    // TRP 7 stops the program, reporting that it ran out of heap
+    private void addHeapFull() {
+        tCode.add(TCodeOprConst.HEAP_FULL_LBL.getKey() + " TRP 7");
+        address++;
+    }
+
     private void addBreakTrueFalse(ICode iCode) {
         String branchType;
         if (iCode.getOperation().equals(ICodeOprConst.BF_OPR.getKey())) {
@@ -929,8 +1248,7 @@ public class TCode {
                 tCode.add(setLabel(iCode.getLabel()) + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
             }
             address++;
-            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg1.getSize().toString() + " ; get address of " + arg1.getValue());
-            address++;
+            addOffset(reg5, arg1, " ; get address of " + arg1.getValue());
             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; load value of " + arg1.getValue() + " into R6");
             address++;
         }
@@ -968,8 +1286,7 @@ public class TCode {
             }
             address++;
 
-            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + lhs.getSize() + " ; get address of " + lhs.getValue());
-            address++;
+            addOffset(reg5, lhs, " ; get address of " + lhs.getValue());
             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg7 + " " + reg5 + " ; put value of " + lhs.getValue() + " into R7");
             address++;
         }
@@ -982,8 +1299,7 @@ public class TCode {
         } else {
             tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
             address++;
-            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + rhs.getSize() + " ; get address of " + rhs.getValue());
-            address++;
+            addOffset(reg5, rhs, " ; get address of " + rhs.getValue());
             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; put value of " + rhs.getValue() + " into R6");
             address++;
         }
@@ -1010,8 +1326,7 @@ public class TCode {
         address++;
         tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
         address++;
-        tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + result.getSize().toString() + " ; get address of " + result.getValue());
-        address++;
+        addOffset(reg5, result, " ; get address of " + result.getValue());
         tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg6 + " ; set " + result.getValue() + " to false");
         address++;
 
@@ -1022,8 +1337,7 @@ public class TCode {
         address++;
         tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
         address++;
-        tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + result.getSize().toString() + " ; get address of " + result.getValue());
-        address++;
+        addOffset(reg5, result, " ; get address of " + result.getValue());
         tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg6 + " ; set " + result.getValue() + " to true");
         address++;
     }
@@ -1063,8 +1377,7 @@ public class TCode {
                 tCode.add(setLabel(iCode.getLabel()) + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
             }
             address++;
-            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg1.getSize().toString() + " ; get address of " + arg1.getValue());
-            address++;
+            addOffset(reg5, arg1, " ; get address of " + arg1.getValue());
             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg7 + " " + reg5 + " ; load value of " + arg1.getValue() + " into R7");
             address++;
         }
@@ -1076,8 +1389,7 @@ public class TCode {
         } else {
             tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
             address++;
-            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg2.getSize().toString() + " ; get address of " + arg2.getValue());
-            address++;
+            addOffset(reg5, arg2, " ; get address of " + arg2.getValue());
             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; load value of " + arg2.getValue() + " into R6");
             address++;
         }
@@ -1095,8 +1407,7 @@ public class TCode {
         address++;
         tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
         address++;
-        tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + result.getSize().toString() + " ; get address of " + result.getValue());
-        address++;
+        addOffset(reg5, result, " ; get address of " + result.getValue());
         tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg6 + " ; set " + result.getValue() + " to false");
         address++;
 
@@ -1107,8 +1418,7 @@ public class TCode {
         address++;
         tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
         address++;
-        tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + result.getSize().toString() + " ; get address of " + result.getValue());
-        address++;
+        addOffset(reg5, result, " ; get address of " + result.getValue());
         tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg6 + " ; set " + result.getValue() + " to true");
         address++;
 
@@ -1155,8 +1465,7 @@ public class TCode {
             }
             address++;
 
-            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + lhs.getSize() + " ; get address of " + lhs.getValue());
-            address++;
+            addOffset(reg5, lhs, " ; get address of " + lhs.getValue());
             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg7 + " " + reg5 + " ; put value of " + lhs.getValue() + " into R7");
             address++;
         }
@@ -1169,8 +1478,7 @@ public class TCode {
         } else {
             tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
             address++;
-            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + rhs.getSize() + " ; get address of " + rhs.getValue());
-            address++;
+            addOffset(reg5, rhs, " ; get address of " + rhs.getValue());
             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; put value of " + rhs.getValue() + " into R6");
             address++;
         }
@@ -1187,8 +1495,7 @@ public class TCode {
         Symbol result = symbolTable.get(iCode.getResult());
         tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
         address++;
-        tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + result.getSize() + " ; get address of " + result.getValue());
-        address++;
+        addOffset(reg5, result, " ; get address of " + result.getValue());
         tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg7 + " " + iCode.getComment());
         address++;
     }
@@ -1220,13 +1527,15 @@ public class TCode {
                 tCode.add(setLabel(iCode.getLabel()) + " " + TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
             }
             address++;
-            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + arg1.getSize().toString() + " ; get address of " + arg1.getValue());
-            address++;
+            addOffset(reg5, arg1, " ; get address of " + arg1.getValue());
             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; load value of " + arg1.getValue() + " into R6");
             address++;
         }
 
-        if (operation.equals(ICodeOprConst.WRTC_OPR.getKey())) {
+        if (isCharArray(arg1)) {
+            // R6 holds the array address; the whole array is written at once, other arrays print their address
+            tCode.add(TCodeOprConst.TRP_5.getKey() + " " + iCode.getComment());
+        } else if (operation.equals(ICodeOprConst.WRTC_OPR.getKey())) {
             tCode.add(TCodeOprConst.TRP_3.getKey() + " " + iCode.getComment());
         } else {
             tCode.add(TCodeOprConst.TRP_1.getKey() + " " + iCode.getComment());
@@ -1234,6 +1543,10 @@ public class TCode {
         address++;
     }
 
+    private boolean isCharArray(Symbol symbol) {
+        return symbol.getData() != null && symbol.getData().getType().equalsIgnoreCase("@:" + KeyConst.CHAR.name());
+    }
+
     private void addVariables() {
         tCode.add("CLR .INT 0");
         tCode.add("ONE .INT 1");
@@ -1276,6 +1589,7 @@ public class TCode {
             }
         }
 
+        tCode.add(HEAP_LIMIT + " .INT 0");
         tCode.add(RUN_TIME_STACK + " .INT 0");
         tCode.add(THE_HEAP + " .INT 0");
     }
@@ -1322,8 +1636,7 @@ public class TCode {
             }
             address++;
 
-            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + lhs.getSize() + " ; get address of " + lhs.getValue());
-            address++;
+            addOffset(reg5, lhs, " ; get address of " + lhs.getValue());
             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg7 + " " + reg5 + " ; put value of " + lhs.getValue() + " into R7");
             address++;
         }
@@ -1336,8 +1649,7 @@ public class TCode {
         } else {
             tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
             address++;
-            tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + rhs.getSize() + " ; get address of " + rhs.getValue());
-            address++;
+            addOffset(reg5, rhs, " ; get address of " + rhs.getValue());
             tCode.add(TCodeOprConst.LDR_OPR.getKey() + " " + reg6 + " " + reg5 + " ; put value of " + rhs.getValue() + " into R6");
             address++;
         }
@@ -1348,8 +1660,7 @@ public class TCode {
         Symbol result = symbolTable.get(iCode.getResult());
         tCode.add(TCodeOprConst.MOV_OPR.getKey() + " " + reg5 + " " + FP);
         address++;
-        tCode.add(TCodeOprConst.ADI_OPR.getKey() + " " + reg5 + " " + result.getSize() + " ; get address of " + result.getValue());
-        address++;
+        addOffset(reg5, result, " ; get address of " + result.getValue());
         tCode.add(TCodeOprConst.STR_OPR.getKey() + " " + reg5 + " " + reg7 + " ; store result into address pointed to by R5");
         address++;
     }
@@ -16,6 +16,7 @@ public enum TCodeOprConst {
     DIV_OPR("DIV"),
     OVERFLOW_LBL("OVERFLOW"),
     UNDERFLOW_LBL("UNDERFLOW"),
+    HEAP_FULL_LBL("HEAPFULL"),
     CMP_OPR("CMP"),
     LDR_OPR("LDR"),
     JMP_OPR("JMP"),
@@ -30,7 +31,19 @@ public enum TCodeOprConst {
     BNZ_OPR("BNZ"),
     BRZ_OPR("BRZ"),
     TRP_3("TRP 3"),
-    TRP_1("TRP 1");
+    TRP_1("TRP 1"),
+    TRP_5("TRP 5"),
+    TRP_6("TRP 6"),
+    CAS_OPR("CAS"),
+    FAA_OPR("FAA"),
+    LCK_OPR("LCK"),
+    ULK_OPR("ULK"),
+    CHN_OPR("CHN"),
+    SND_OPR("SND"),
+    RCV_OPR("RCV"),
+    RUN_OPR("RUN"),
+    END_OPR("END"),
+    BLK_OPR("BLK");
 
     private String key;
 
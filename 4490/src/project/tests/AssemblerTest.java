@@ -0,0 +1,459 @@
+package project.tests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import project.Assembler;
+import project.ProgramImage;
+import project.RunnableThread;
+
+import java.io.*;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/25/13
+ * Time: 4:15 PM
+ */
+public class AssemblerTest {
+    // counts R1 down from 3000, long enough for the loop to be compiled
+    private static final String LOOP = "CLR .INT 0\n" +
+            "N .INT 3000\n" +
+            "SUM .INT 0\n" +
+            "LDR R1 N\n" +
+            "LDR R2 CLR\n" +
+            "LDR R3 CLR\n" +
+            "ADI R3 1\n" +
+            "LOOPTOP ADD R2 R1 ; sum += n\n" +
+            "SUB R1 R3\n" +
+            "MOV R4 R1\n" +
+            "%s\n" +
+            "BNZ R4 LOOPTOP\n" +
+            "STR R2 SUM\n" +
+            "LDR R5 SUM\n" +
+            "TRP 1\n" +
+            "TRP 0\n";
+
+    // each thread changes its own copy of R2; BLK waits for both before the results are added
+    private static final String THREADS = "A .INT 0\n" +
+            "B .INT 0\n" +
+            "SEVEN .INT 7\n" +
+            "LDR R2 SEVEN\n" +
+            "RUN R10 WORKA\n" +
+            "RUN R11 WORKB\n" +
+            "BLK\n" +
+            "LDR R3 A\n" +
+            "LDR R4 B\n" +
+            "ADD R3 R4\n" +
+            "ADD R3 R2\n" +
+            "MOV R5 R3\n" +
+            "TRP 1\n" +
+            "TRP 0\n" +
+            "WORKA ADI R2 1\n" +
+            "STR R2 A\n" +
+            "END\n" +
+            "WORKB ADI R2 2\n" +
+            "STR R2 B\n" +
+            "END\n";
+
+    // two threads each add 1 to COUNT 1000 times, using %s
+    private static final String COUNTERS = "COUNT .INT 0\n" +
+            "N .INT 1000\n" +
+            "ZERO .INT 0\n" +
+            "ONE .INT 1\n" +
+            "LDA R1 COUNT\n" +
+            "RUN R10 ADDER\n" +
+            "RUN R11 ADDER\n" +
+            "BLK\n" +
+            "LDR R5 COUNT\n" +
+            "TRP 1\n" +
+            "%s" +
+            "TRP 0\n" +
+            "ADDER LDR R2 N\n" +
+            "LDR R3 ONE\n" +
+            "LOOPS %s\n" +
+            "SUB R2 R3\n" +
+            "BNZ R2 LOOPS\n" +
+            "END\n";
+
+    // starts %d threads that each add 1 to COUNT, %s after each RUN
+    private static final String MANY = "N .INT %d\n" +
+            "ONE .INT 1\n" +
+            "COUNT .INT 0\n" +
+            "LDA R1 COUNT\n" +
+            "LDR R3 N\n" +
+            "LDR R4 ONE\n" +
+            "LOOPS RUN R10 ADDER\n" +
+            "%s" +
+            "SUB R3 R4\n" +
+            "BNZ R3 LOOPS\n" +
+            "BLK\n" +
+            "LDR R5 COUNT\n" +
+            "TRP 1\n" +
+            "TRP 0\n" +
+            "ADDER MOV R6 R4\n" +
+            "FAA R1 R6\n" +
+            "END\n";
+
+    private PrintStream systemOut;
+    private ByteArrayOutputStream output;
+
+    @Before
+    public void setUp() throws Exception {
+        systemOut = System.out;
+        output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.setOut(systemOut);
+    }
+
+    @Test
+    public void testCompiledLoop() throws Exception {
+        assertEquals("4501500", run(String.format(LOOP, "MOV R4 R1"), false));
+        assertEquals("4501500", run(String.format(LOOP, "MOV R4 R1"), true));
+    }
+
+    @Test
+    public void testCompiledDivideByZero() throws Exception {
+        // fails on the last pass, after the loop has been compiled
+        String program = String.format(LOOP, "DIV R4 R1");
+        String compiled = run(program, false);
+
+        assertTrue(compiled.contains("Can not divide by zero"));
+        assertEquals(run(program, true), compiled);
+    }
+
+    @Test
+    public void testTrapChannels() throws Exception {
+        String program = "ZERO .INT 0\n" +
+                "TRP 2\n" +
+                "LDR R1 INII\n" +
+                "TRP 1\n" +
+                "TRP 2\n" +
+                "LDR R2 INII\n" +
+                "TRP 1\n" +
+                "TRP 0\n";
+
+        // both reads come from the same buffered input
+        StringWriter out = new StringWriter();
+        Assembler assembler = new Assembler();
+        assembler.setInput(new StringReader("41\n7\n"));
+        assembler.setOutput(out);
+        assembler.action(write(program));
+
+        assertEquals("417", out.toString());
+        assertEquals("", output.toString());
+    }
+
+    @Test
+    public void testCharArrayTraps() throws Exception {
+        // a three char array, written, refilled from input and written again
+        String program = "TEXT .INT 3\n" +
+                "H .BYT 'h'\n" +
+                "I .BYT 'i'\n" +
+                "RC .BYT '13'\n" +
+                "LDA R1 TEXT\n" +
+                "MOV R2 R1\n" +
+                "TRP 5\n" +
+                "TRP 6\n" +
+                "TRP 5\n" +
+                "TRP 0\n";
+
+        StringWriter out = new StringWriter();
+        Assembler assembler = new Assembler();
+        assembler.setInput(new StringReader("abcdef\n"));
+        assembler.setOutput(out);
+        assembler.action(write(program));
+
+        assertEquals("hi\r\nabc", out.toString());
+    }
+
+    @Test
+    public void testLinesInMemory() throws Exception {
+        // tabs, runs of spaces and blank lines split the same as in a file
+        StringWriter out = new StringWriter();
+        Assembler assembler = new Assembler();
+        assembler.setOutput(out);
+        assembler.action(Arrays.asList("SIX\t.INT 6", "", "   LDR  R5\tSIX ; load", "\t", "TRP 1  ", "TRP\t0"));
+
+        assertEquals("6", out.toString());
+    }
+
+    @Test
+    public void testForwardLabels() throws Exception {
+        // the jump and the load name labels defined further down
+        String program = "JMP LATER\r\n" +
+                "TRP 0\r\n" +
+                "LATER LDR R5 NINE\r\n" +
+                "TRP 1\r\n" +
+                "TRP 0\r\n" +
+                "NINE .INT 9\r\n";
+        assertEquals("9", run(program, true));
+
+        assertEquals("Label at line: 1 operand 2 does not exist.", run("JMP MISSING\nTRP 0\n", true).trim());
+    }
+
+    @Test
+    public void testLoadTwice() throws Exception {
+        // the second program reuses the labels of the first
+        output.reset();
+        Assembler assembler = new Assembler();
+        assembler.action(write("NINE .INT 9\nLDR R5 NINE\nTRP 1\nTRP 0\n"));
+        assembler.action(write("NINE .INT 8\nLATER LDR R5 NINE\nTRP 1\nTRP 0\n"));
+
+        assertEquals("98", output.toString());
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        assertEquals("24", run(THREADS, false));
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        // platform threads are used when the jvm has no virtual threads
+        output.reset();
+        Assembler assembler = new Assembler();
+        assembler.setVirtualThreads(true);
+        assembler.setThreadLimits(2, 100);
+        assembler.action(write(THREADS));
+
+        assertEquals("24", output.toString());
+    }
+
+    @Test
+    public void testThreadStacksReused() throws Exception {
+        // two stacks are enough for any number of threads that are joined as they go
+        output.reset();
+        Assembler assembler = new Assembler();
+        assembler.setThreadLimits(2, 100);
+        assembler.action(write(String.format(MANY, 2000, "BLK\n")));
+
+        assertEquals("2000", output.toString());
+    }
+
+    @Test
+    public void testManyVirtualThreads() throws Exception {
+        if (!RunnableThread.hasVirtualThreads()) {
+            return;
+        }
+
+        // every thread is started before any is joined
+        output.reset();
+        Assembler assembler = new Assembler();
+        assembler.setVirtualThreads(true);
+        assembler.setThreadLimits(5000, 100);
+        assembler.action(write(String.format(MANY, 5000, "")));
+
+        assertEquals("5000", output.toString());
+    }
+
+    @Test
+    public void testGreenThreads() throws Exception {
+        // main prints 1 and its thread prints 2, three times each, switching every 4 instructions
+        String program = "THREE .INT 3\n" +
+                "ONE .INT 1\n" +
+                "LDR R2 ONE\n" +
+                "LDR R3 THREE\n" +
+                "LDR R4 ONE\n" +
+                "RUN R10 CHILD\n" +
+                "LOOPS MOV R5 R2\n" +
+                "TRP 1\n" +
+                "SUB R3 R4\n" +
+                "BNZ R3 LOOPS\n" +
+                "BLK\n" +
+                "TRP 0\n" +
+                "CHILD ADI R2 1\n" +
+                "JMP LOOPS\n";
+
+        assertEquals("212121", runGreen(program, 4, null));
+        assertEquals("121212", runGreen(program, 3, null));
+        assertEquals(runGreen(program, 2, 7L), runGreen(program, 2, 7L));
+        assertEquals("24", runGreen(THREADS, 1, 7L));
+    }
+
+    @Test
+    public void testLockFreedAtEnd() throws Exception {
+        // the thread ends without ULK; main can still take the lock after BLK
+        String program = "COUNT .INT 5\n" +
+                "LDA R1 COUNT\n" +
+                "RUN R10 CHILD\n" +
+                "BLK\n" +
+                "LCK R1\n" +
+                "LDR R5 COUNT\n" +
+                "TRP 1\n" +
+                "ULK R1\n" +
+                "TRP 0\n" +
+                "CHILD LCK R1\n" +
+                "END\n";
+
+        assertEquals("5", runGreen(program, 2, null));
+        assertEquals("5", run(program, true));
+    }
+
+    @Test
+    public void testGreenRunWaitsForStack() throws Exception {
+        // with one stack the second RUN waits for the first thread to end
+        output.reset();
+        Assembler assembler = new Assembler();
+        assembler.setGreenThreads(2, null);
+        assembler.setThreadLimits(1, 100);
+        assembler.action(write(THREADS));
+
+        assertEquals("24", output.toString());
+    }
+
+    @Test
+    public void testGreenChannels() throws Exception {
+        // a receive with nothing sent waits for the other thread instead of blocking the vm
+        String program = "N .INT 100\n" +
+                "CAP .INT 2\n" +
+                "ZERO .INT 0\n" +
+                "ONE .INT 1\n" +
+                "LDR R2 CAP\n" +
+                "CHN R1 R2\n" +
+                "LDR R3 N\n" +
+                "LDR R4 ONE\n" +
+                "RUN R10 SENDER\n" +
+                "LDR R6 ZERO\n" +
+                "LDR R7 N\n" +
+                "TAKES RCV R1 R5\n" +
+                "ADD R6 R5\n" +
+                "SUB R7 R4\n" +
+                "BNZ R7 TAKES\n" +
+                "MOV R5 R6\n" +
+                "TRP 1\n" +
+                "RCV R1 R5\n" +
+                "TRP 0\n" +
+                "SENDER MOV R5 R3\n" +
+                "SND R1 R5\n" +
+                "SUB R3 R4\n" +
+                "BNZ R3 SENDER\n" +
+                "END\n";
+
+        assertEquals("5050Error: every thread is waiting on another", runGreen(program, 5, null).trim());
+    }
+
+    @Test
+    public void testRunsStartFresh() throws Exception {
+        // the second run of an image gets the same channel and thread ids as the first
+        StringWriter out = new StringWriter();
+        Assembler assembler = new Assembler();
+        assembler.setOutput(out);
+        ProgramImage image = assembler.assemble(Arrays.asList("ONE .INT 1", "LDR R2 ONE", "CHN R5 R2", "TRP 1",
+                "RUN R5 CHILD", "BLK", "MOV R6 R5", "TRP 1", "TRP 0", "CHILD END"));
+        assertTrue(assembler.run(image));
+        assertTrue(assembler.run(image));
+
+        assertEquals("0101", out.toString());
+    }
+
+    @Test
+    public void testGreenLocksFreedAfterAbort() throws Exception {
+        // the first program stops holding the lock on A; the next run can still take it
+        StringWriter out = new StringWriter();
+        Assembler assembler = new Assembler();
+        assembler.setOutput(out);
+        assembler.setGreenThreads(3, null);
+        ProgramImage stuck = assembler.assemble(Arrays.asList("A .INT 5", "LDA R1 A", "LCK R1", "RUN R5 CHILD", "BLK", "TRP 0",
+                "CHILD LCK R1", "END"));
+        ProgramImage image = assembler.assemble(Arrays.asList("A .INT 5", "LDA R1 A", "LCK R1", "LDR R6 A", "TRP 1", "ULK R1", "TRP 0"));
+        assertFalse(assembler.run(stuck));
+        assertTrue(assembler.run(image));
+
+        assertEquals("Error: every thread is waiting on another" + System.lineSeparator() + "5", out.toString());
+    }
+
+    private String runGreen(String program, int quantum, Long seed) throws Exception {
+        output.reset();
+        Assembler assembler = new Assembler();
+        assembler.setGreenThreads(quantum, seed);
+        assembler.action(write(program));
+
+        return output.toString();
+    }
+
+    @Test
+    public void testFetchAndAdd() throws Exception {
+        // then swaps COUNT from 2000 to 0 once, and fails the second time
+        String swap = "LDR R7 COUNT\n" +
+                "LDR R8 ZERO\n" +
+                "CAS R1 R7 R8\n" +
+                "TRP 1\n" +
+                "LDR R8 ZERO\n" +
+                "CAS R1 R7 R8\n" +
+                "TRP 1\n";
+
+        assertEquals("200010", run(String.format(COUNTERS, swap, "MOV R4 R3\nFAA R1 R4"), false));
+    }
+
+    @Test
+    public void testLocks() throws Exception {
+        String add = "LCK R1\n" +
+                "LDR R4 R1\n" +
+                "ADD R4 R3\n" +
+                "STR R1 R4\n" +
+                "ULK R1";
+
+        assertEquals("2000", run(String.format(COUNTERS, "", add), false));
+    }
+
+    @Test
+    public void testChannels() throws Exception {
+        // a channel of 4 makes the sender wait on the receiver while it sends 100 down to 1
+        String program = "N .INT 100\n" +
+                "CAP .INT 4\n" +
+                "ZERO .INT 0\n" +
+                "ONE .INT 1\n" +
+                "LDR R2 CAP\n" +
+                "CHN R1 R2\n" +
+                "LDR R3 N\n" +
+                "LDR R4 ONE\n" +
+                "RUN R10 SENDER\n" +
+                "LDR R6 ZERO\n" +
+                "LDR R7 N\n" +
+                "TAKES RCV R1 R5\n" +
+                "ADD R6 R5\n" +
+                "SUB R7 R4\n" +
+                "BNZ R7 TAKES\n" +
+                "BLK\n" +
+                "MOV R5 R6\n" +
+                "TRP 1\n" +
+                "TRP 0\n" +
+                "SENDER MOV R5 R3\n" +
+                "SND R1 R5\n" +
+                "SUB R3 R4\n" +
+                "BNZ R3 SENDER\n" +
+                "END\n";
+
+        assertEquals("5050", run(program, false));
+    }
+
+    private String run(String program, boolean interpretOnly) throws Exception {
+        output.reset();
+        Assembler assembler = new Assembler();
+        assembler.setInterpretOnly(interpretOnly);
+        assembler.action(write(program));
+
+        return output.toString();
+    }
+
+    private String write(String program) throws Exception {
+        File file = File.createTempFile("assembler", ".asm");
+        file.deleteOnExit();
+
+        FileWriter writer = new FileWriter(file);
+        writer.write(program);
+        writer.close();
+
+        return file.getPath();
+    }
+}
@@ -0,0 +1,84 @@
+package project.tests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import project.BatchCoordinator;
+
+import java.io.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/6/13
+ * Time: 9:05 PM
+ */
+public class BatchCoordinatorTest {
+    private PrintStream systemOut;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        systemOut = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+
+        directory = File.createTempFile("batch", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.setOut(systemOut);
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            write("square" + i + ".kxi", "void main() {\n    int n;\n    cin >> n;\n    cout << n * n;\n}\n");
+            write("square" + i + ".in", (i + 2) + "\n");
+        }
+        write("error.kxi", "void main() {\n    cout << 1\n}\n");
+        write("forever.kxi", "void main() {\n    int i = 0;\n    while (i < 1) {\n        i = 0;\n    }\n}\n");
+
+        BatchCoordinator coordinator = new BatchCoordinator(2, 3000);
+        assertFalse(coordinator.run(directory));
+
+        assertEquals(4, coordinator.getPassed());
+        assertEquals(1, coordinator.getFailed());
+        assertEquals(1, coordinator.getTimedOut());
+        assertEquals(0, coordinator.getCrashed());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(String.valueOf((i + 2) * (i + 2)), read("square" + i + ".out"));
+        }
+        assertTrue(read("error.out").length() > 0);
+        assertTrue(read("forever.out").startsWith("Error: the program ran longer than"));
+    }
+
+    private void write(String name, String text) throws IOException {
+        Writer writer = new FileWriter(new File(directory, name));
+        writer.write(text);
+        writer.close();
+    }
+
+    private String read(String name) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(new File(directory, name)));
+        StringBuilder text = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            text.append(line);
+        }
+        reader.close();
+        return text.toString();
+    }
+}
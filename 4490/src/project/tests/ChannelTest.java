@@ -0,0 +1,88 @@
+package project.tests;
+
+import org.junit.Test;
+import project.Channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/2/13
+ * Time: 4:30 PM
+ */
+public class ChannelTest {
+    @Test
+    public void testCapacity() throws Exception {
+        assertEquals(2, new Channel(1).capacity());
+        assertEquals(8, new Channel(5).capacity());
+    }
+
+    @Test
+    public void testOfferAndPoll() throws Exception {
+        Channel channel = new Channel(2);
+        assertEquals(Channel.EMPTY, channel.poll());
+
+        assertTrue(channel.offer(1));
+        assertTrue(channel.offer(2));
+        assertFalse(channel.offer(3));
+
+        assertEquals(1, channel.poll());
+        assertTrue(channel.offer(3));
+        assertEquals(2, channel.poll());
+        assertEquals(3, channel.poll());
+        assertEquals(Channel.EMPTY, channel.poll());
+    }
+
+    @Test
+    public void testMessage() throws Exception {
+        long message = Channel.message(-1, (byte) 2);
+        assertTrue(message != Channel.EMPTY);
+        assertEquals(-1, Channel.value(message));
+        assertEquals(2, Channel.tag(message));
+    }
+
+    @Test
+    public void testReceiveWaitsForSend() throws Exception {
+        final Channel channel = new Channel(1);
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 1000; i++) {
+                    channel.send(i);
+                }
+            }
+        });
+        sender.start();
+
+        long sum = 0;
+        for (int i = 0; i < 1000; i++) {
+            sum += channel.receive();
+        }
+        sender.join();
+
+        assertEquals(500500, sum);
+    }
+
+    @Test
+    public void testReceiveInterrupted() throws Exception {
+        // a thread waiting on an empty channel gives up when it is interrupted
+        final Channel channel = new Channel(1);
+        final long[] received = new long[1];
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                received[0] = channel.receive();
+            }
+        });
+        receiver.start();
+        Thread.sleep(50);
+        receiver.interrupt();
+        receiver.join(5000);
+
+        assertFalse(receiver.isAlive());
+        assertEquals(Channel.EMPTY, received[0]);
+    }
+}
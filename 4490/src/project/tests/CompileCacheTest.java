@@ -0,0 +1,102 @@
+package project.tests;
+
+import org.junit.Test;
+import project.Budget;
+import project.CompileCache;
+import project.ProgramImage;
+import project.ProgramRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/8/13
+ * Time: 8:10 PM
+ */
+public class CompileCacheTest extends TempDirectoryFixture {
+    private static final String SQUARE = "void main() {\n    int n;\n    cin >> n;\n    cout << n * n;\n}\n";
+    private static final String CUBE = "void main() {\n    int n;\n    cin >> n;\n    cout << n * n * n;\n}\n";
+
+    @Test
+    public void testHits() throws Exception {
+        CompileCache cache = new CompileCache(directory, 1 << 20);
+        assertEquals("9", run(cache.compile(SQUARE, new StringWriter())));
+        assertEquals("9", run(cache.compile(SQUARE, new StringWriter())));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        // kept across runs
+        CompileCache next = new CompileCache(directory, 1 << 20);
+        assertEquals("9", run(next.compile(SQUARE, new StringWriter())));
+        assertEquals(1, next.getHits());
+        assertEquals(cache.getBytes(), next.getBytes());
+
+        // programs with errors are not kept
+        StringWriter diagnostics = new StringWriter();
+        assertNull(next.compile("void main() {\n    cout << 1\n}\n", diagnostics));
+        assertTrue(diagnostics.toString().length() > 0);
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        CompileCache sizing = new CompileCache(directory, 1 << 20);
+        sizing.compile(SQUARE, new StringWriter());
+
+        // room for one program
+        CompileCache cache = new CompileCache(directory, sizing.getBytes() + 1);
+        assertEquals("27", run(cache.compile(CUBE, new StringWriter())));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, directory.listFiles().length);
+
+        assertNotNull(cache.compile(CUBE, new StringWriter()));
+        assertNotNull(cache.compile(SQUARE, new StringWriter()));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void testRunner() throws Exception {
+        // the runner only uses the cache it is given
+        CompileCache cache = new CompileCache(directory, 1 << 20);
+        for (int i = 0; i < 2; i++) {
+            StringWriter output = new StringWriter();
+            assertTrue(ProgramRunner.run(SQUARE, new StringReader("4\n"), output, Budget.fromProperties(), cache).isSuccessful());
+            assertEquals("16", output.toString());
+        }
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testUnwritableDirectory() throws Exception {
+        // the cache is a file, so nothing can be kept; the program still compiles and nothing is printed
+        assertTrue(directory.createNewFile());
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed));
+        try {
+            CompileCache cache = new CompileCache(directory, 1 << 20);
+            assertEquals("9", run(cache.compile(SQUARE, new StringWriter())));
+            assertEquals(0, cache.getBytes());
+        } finally {
+            System.setOut(out);
+        }
+        assertEquals("", printed.toString());
+    }
+
+    private String run(ProgramImage image) {
+        return run(image, "3\n");
+    }
+}
@@ -5,6 +5,12 @@ import org.junit.Test;
 import project.*;
 import project.Compiler;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 
 import static org.junit.Assert.*;
@@ -678,4 +684,92 @@ public class CompilerTest {
         assertTrue(compiler.getErrorList().isEmpty());
         assertEquals(t5, compiler.getLexicalAnalyzer().getToken());
     }
+
+    @Test(timeout = 10000)
+    public void testMethodLocalsKeepReturnAddress() throws Exception {
+        // the locals of step used to be laid over its return address, so the second call never came back
+        File source = File.createTempFile("locals", ".kxi");
+        FileWriter writer = new FileWriter(source);
+        writer.write("class Calc {\n    private int base;\n    Calc(int b) {\n        base = b;\n    }\n" +
+                "    public int step(int x) {\n        int y = 0;\n        int z = 0;\n        y = x + base;\n        z = y + 1;\n        return z;\n    }\n}\n" +
+                "void main() {\n    Calc c = new Calc(5);\n    int r = 0;\n    r = c.step(4);\n    cout << r;\n    cout << '\\n';\n" +
+                "    r = c.step(r);\n    cout << r;\n}\n");
+        writer.close();
+
+        PrintStream systemOut = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+        try {
+            LexicalAnalyzer lexicalAnalyzer = new LexicalAnalyzer();
+            lexicalAnalyzer.processFile(source.getPath());
+            new Compiler(lexicalAnalyzer).evaluate(false);
+        } finally {
+            System.out.flush();
+            System.setOut(systemOut);
+            source.delete();
+        }
+        assertEquals("10\r\n16", output.toString());
+    }
+
+    @Test
+    public void testSpawnInstanceMethod() throws Exception {
+        // the spawned call has to get w as 'this' to read base
+        String source = "class Worker {\n    private int base;\n    Worker(int b) {\n        base = b;\n    }\n" +
+                "    public void work(int x) {\n        cout << base + x;\n    }\n}\n" +
+                "void main() {\n    Worker w = new Worker(10);\n    int i = 0;\n    while (i < 3) {\n" +
+                "        spawn w.work(i);\n        join;\n        i = i + 1;\n    }\n    cout << 'z';\n}\n";
+        ProgramImage image = ProgramRunner.compile(source, new StringWriter());
+        assertNotNull(image);
+
+        StringWriter output = new StringWriter();
+        ProgramRunner.run(image, new StringReader(""), output);
+        assertEquals("101112z", output.toString());
+
+        // and the same on green threads
+        output = new StringWriter();
+        Assembler assembler = new Assembler();
+        assembler.setGreenThreads(3, 1L);
+        assembler.setOutput(output);
+        assertTrue(assembler.run(image));
+        assertEquals("101112z", output.toString());
+    }
+
+    @Test
+    public void testStatementJoin() {
+        ArrayList<Tuple> lexicalList = new ArrayList<Tuple>();
+        Tuple t1 = new Tuple("join", KeyConst.JOIN.getKey(), 1);
+        Tuple t2 = new Tuple(";", LexicalAnalyzer.tokenTypesEnum.EOT.name(), 1);
+
+        LexicalAnalyzer lexicalAnalyzer1 = new LexicalAnalyzer();
+        lexicalList.add(t1);
+        lexicalList.add(t2);
+        lexicalAnalyzer1.setLexicalList(lexicalList);
+
+        compiler = new Compiler(lexicalAnalyzer1);
+        assertTrue(compiler.statement());
+        assertTrue(compiler.getErrorList().isEmpty());
+        assertEquals(t2, compiler.getLexicalAnalyzer().getToken());
+    }
+
+    @Test
+    public void testStatementSpawnMissingEnd() {
+        ArrayList<Tuple> lexicalList = new ArrayList<Tuple>();
+        Tuple t1 = new Tuple("spawn", KeyConst.SPAWN.getKey(), 1);
+        Tuple t2 = new Tuple("work", LexicalAnalyzer.tokenTypesEnum.IDENTIFIER.name(), 1);
+        Tuple t3 = new Tuple("(", LexicalAnalyzer.tokenTypesEnum.PAREN_OPEN.name(), 1);
+        Tuple t4 = new Tuple(")", LexicalAnalyzer.tokenTypesEnum.PAREN_CLOSE.name(), 1);
+        Tuple t5 = new Tuple("join", KeyConst.JOIN.getKey(), 1);
+
+        LexicalAnalyzer lexicalAnalyzer1 = new LexicalAnalyzer();
+        lexicalList.add(t1);
+        lexicalList.add(t2);
+        lexicalList.add(t3);
+        lexicalList.add(t4);
+        lexicalList.add(t5);
+        lexicalAnalyzer1.setLexicalList(lexicalList);
+
+        compiler = new Compiler(lexicalAnalyzer1);
+        assertFalse(compiler.statement());
+        assertEquals("Invalid statement. 'spawn' statement must end with a ';'. Line: 1\n", compiler.getErrorList());
+    }
 }
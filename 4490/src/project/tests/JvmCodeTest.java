@@ -0,0 +1,179 @@
+package project.tests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import project.Compiler;
+import project.ICode;
+import project.JvmCode;
+import project.LexicalAnalyzer;
+import project.MethodData;
+import project.Parameter;
+import project.PassTwo;
+import project.Symbol;
+import project.VariableData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/28/13
+ * Time: 9:20 PM
+ */
+public class JvmCodeTest {
+    private PrintStream systemOut;
+    private ByteArrayOutputStream output;
+    private LinkedHashMap<String, Symbol> symbolTable;
+    private List<ICode> iCodeList;
+
+    @Before
+    public void setUp() throws Exception {
+        systemOut = System.out;
+        output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+
+        symbolTable = new LinkedHashMap<String, Symbol>();
+        iCodeList = new ArrayList<ICode>();
+
+        method("M1", "g", "main", "void");
+        method("M2", "g.Calc", "twice", "int");
+        symbol("P1", "g.Calc.twice", "n", "param", "int", 3);
+        symbol("L1", "g.main", "i", "lvar", "int", 3);
+        symbol("L2", "g.main", "sum", "lvar", "int", 4);
+        symbol("T1", "g.main", "T1", "lvar", "BOOL", 5);
+        symbol("T2", "g.main", "T2", "lvar", "INT", 6);
+        symbol("T3", "g.main", "T3", "lvar", "INT", 7);
+        symbol("T4", "g.main", "T4", "lvar", "INT", 8);
+        symbol("T5", "g.Calc.twice", "T5", "lvar", "INT", 4);
+        symbol("N0", "g", "0", Compiler.LITERAL, "NUMBER", 0);
+        symbol("N1", "g", "1", Compiler.LITERAL, "NUMBER", 0);
+        symbol("N2", "g", "2", Compiler.LITERAL, "NUMBER", 0);
+        symbol("N10", "g", "10", Compiler.LITERAL, "NUMBER", 0);
+        symbol("C1", "g", "'\\n'", Compiler.LITERAL, "CHARACTER", 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.setOut(systemOut);
+    }
+
+    @Test
+    public void testLoopAndCall() throws Exception {
+        // sum = 0 + 1 + ... + 9, then cout << twice(sum) << '\n'
+        add("STARTHERE", "FRAME", "M1", "this", "");
+        add("", "CALL", "M1", "", "");
+        add("", "FUNC", "M1", "", "");
+        add("", "MOV", "L1", "N0", "");
+        add("", "MOV", "L2", "N0", "");
+        add("TOP", "LT", "L1", "N10", "T1");
+        add("", "BF", "T1", "END", "");
+        add("", "ADD", "L2", "L1", "T2");
+        add("", "MOV", "L2", "T2", "");
+        add("", "ADD", "L1", "N1", "T3");
+        add("", "MOV", "L1", "T3", "");
+        add("", "JMP", "TOP", "", "");
+        add("END", "FRAME", "M2", "this", "");
+        add("", "PUSH", "L2", "", "");
+        add("", "CALL", "M2", "", "");
+        add("", "PEEK", "T4", "", "");
+        add("", "WRTI", "T4", "", "");
+        add("", "WRTC", "C1", "", "");
+        add("", "RTN", "", "", "");
+        add("", "FUNC", "M2", "", "");
+        add("", "MUL", "P1", "N2", "T5");
+        add("", "RETURN", "T5", "", "");
+
+        byte[] program = new JvmCode(symbolTable, iCodeList).buildClass();
+        assertNotNull(program);
+
+        Class<?> main = new ClassLoader(getClass().getClassLoader()) {
+            Class<?> define(byte[] bytes) {
+                return defineClass(JvmCode.MAIN_CLASS, bytes, 0, bytes.length);
+            }
+        }.define(program);
+        main.getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+
+        assertEquals("90\r\n", output.toString());
+    }
+
+    @Test
+    public void testObjectsFromJar() throws Exception {
+        // objects are int arrays; next is held in val's array as a handle
+        String source = "class Node {\n    public int val;\n    public Node next;\n    Node(int v) {\n        val = v;\n    }\n" +
+                "    public int sum() {\n        int s = 0;\n        s = val;\n        if (next != null) {\n            s = s + next.sum();\n        }\n        return s;\n    }\n}\n" +
+                "void main() {\n    Node a = new Node(3);\n    Node b = new Node(4);\n    a.next = b;\n    b.val = b.val + 10;\n" +
+                "    cout << a.next.val;\n    cout << '\\n';\n    cout << a.sum();\n}\n";
+        LexicalAnalyzer lexicalAnalyzer = new LexicalAnalyzer();
+        lexicalAnalyzer.process(new StringReader(source));
+        Compiler compiler = new Compiler(lexicalAnalyzer);
+        assertTrue(compiler.compilation_unit());
+        PassTwo passTwo = compiler.passTwo();
+        assertTrue(passTwo.compilation_unit());
+
+        File jar = File.createTempFile("objects", ".jar");
+        try {
+            assertTrue(new JvmCode(passTwo.getSymbolTable(), passTwo.getICodeList()).writeJar(jar.getPath()));
+            URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, getClass().getClassLoader());
+            loader.loadClass(JvmCode.MAIN_CLASS).getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+            loader.close();
+        } finally {
+            jar.delete();
+        }
+
+        assertEquals("14\r\n17", output.toString());
+    }
+
+    @Test
+    public void testArraysFromJar() throws Exception {
+        // arrays are int arrays too; an element is read and written with the index on the stack
+        String source = "class Box {\n    private int v[];\n    Box() {\n        v = new int[4];\n    }\n" +
+                "    public int fill(int n) {\n        int i = 0;\n        int s = 0;\n        while (i < 4) {\n            v[i] = i * n;\n            i = i + 1;\n        }\n" +
+                "        i = 0;\n        while (i < 4) {\n            s = s + v[i];\n            i = i + 1;\n        }\n        return s;\n    }\n}\n" +
+                "void main() {\n    Box b = new Box();\n    int a[] = new int[3];\n    char c[] = new char[2];\n    int i = 2;\n" +
+                "    a[1] = 7;\n    a[i] = 3;\n    cout << a[1];\n    cout << a[0] + a[2];\n    a[a[2] - 3] = a[1] * 2;\n    cout << a[0];\n" +
+                "    c[1] = 'z';\n    cout << c[1];\n    cout << b.fill(2);\n}\n";
+        LexicalAnalyzer lexicalAnalyzer = new LexicalAnalyzer();
+        lexicalAnalyzer.process(new StringReader(source));
+        Compiler compiler = new Compiler(lexicalAnalyzer);
+        assertTrue(compiler.compilation_unit());
+        PassTwo passTwo = compiler.passTwo();
+        assertTrue(passTwo.compilation_unit());
+
+        File jar = File.createTempFile("arrays", ".jar");
+        try {
+            assertTrue(new JvmCode(passTwo.getSymbolTable(), passTwo.getICodeList()).writeJar(jar.getPath()));
+            URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, getClass().getClassLoader());
+            loader.loadClass(JvmCode.MAIN_CLASS).getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+            loader.close();
+        } finally {
+            jar.delete();
+        }
+
+        assertEquals("7314z12", output.toString());
+    }
+
+    private void method(String symId, String scope, String name, String returnType) {
+        symbolTable.put(symId, new Symbol(scope, symId, name, "method", new MethodData("public", new ArrayList<Parameter>(), returnType), 0, 0));
+    }
+
+    private void symbol(String symId, String scope, String name, String kind, String type, int size) {
+        symbolTable.put(symId, new Symbol(scope, symId, name, kind, new VariableData(type, "private"), size, 0));
+    }
+
+    private void add(String label, String operation, String arg1, String arg2, String result) {
+        iCodeList.add(new ICode(label, operation, arg1, arg2, result, ""));
+    }
+}
@@ -63,6 +63,7 @@ public class LexicalAnalyzerTest {
         assertTrue(lexicalAnalyzer.getKeyWords().contains("false"));
         assertTrue(lexicalAnalyzer.getKeyWords().contains("if"));
         assertTrue(lexicalAnalyzer.getKeyWords().contains("itoa"));
+        assertTrue(lexicalAnalyzer.getKeyWords().contains("join"));
         assertTrue(lexicalAnalyzer.getKeyWords().contains("main"));
         assertTrue(lexicalAnalyzer.getKeyWords().contains("new"));
         assertTrue(lexicalAnalyzer.getKeyWords().contains("null"));
@@ -70,6 +71,7 @@ public class LexicalAnalyzerTest {
         assertTrue(lexicalAnalyzer.getKeyWords().contains("public"));
         assertTrue(lexicalAnalyzer.getKeyWords().contains("private"));
         assertTrue(lexicalAnalyzer.getKeyWords().contains("return"));
+        assertTrue(lexicalAnalyzer.getKeyWords().contains("spawn"));
         assertTrue(lexicalAnalyzer.getKeyWords().contains("string"));
         assertTrue(lexicalAnalyzer.getKeyWords().contains("this"));
         assertTrue(lexicalAnalyzer.getKeyWords().contains("true"));
@@ -0,0 +1,88 @@
+package project.tests;
+
+import org.junit.Test;
+import project.Linker;
+import project.ProgramImage;
+import project.ProgramRunner;
+
+import java.io.File;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/9/13
+ * Time: 6:40 PM
+ */
+public class LinkerTest extends TempDirectoryFixture {
+    private static final String BOX = "class Box {\n    private int size;\n    Box(int s) {\n        size = s;\n    }\n" +
+            "    public int grow(int x) {\n        return size + x;\n    }\n}\n";
+    private static final String MAIN = "void main() {\n    Box b = new Box(3);\n    int r = 0;\n    r = b.grow(4);\n    cout << r;\n}\n";
+
+    @Test
+    public void testLink() throws Exception {
+        Linker linker = new Linker(directory);
+        assertEquals("7", run(linker.compile(BOX + MAIN, new StringWriter())));
+        assertEquals("7", run(ProgramRunner.compile(BOX + MAIN, new StringWriter())));
+        assertEquals(2, linker.getCompiled());
+        assertEquals(2, directory.listFiles().length);
+
+        // a new main is linked with the module of the class
+        Linker next = new Linker(directory);
+        assertEquals("13", run(next.compile(BOX + MAIN.replace("grow(4)", "grow(10)"), new StringWriter())));
+        assertEquals(1, next.getCompiled());
+        assertEquals(1, next.getReused());
+    }
+
+    @Test
+    public void testChangedClass() throws Exception {
+        Linker linker = new Linker(directory);
+        linker.compile(BOX + MAIN, new StringWriter());
+
+        // a body that changes nothing main uses only compiles the class again
+        assertEquals("8", run(linker.compile(BOX.replace("size + x", "size + x + 1") + MAIN, new StringWriter())));
+        assertEquals(3, linker.getCompiled());
+        assertEquals(1, linker.getReused());
+
+        // main is compiled against the new method, and its errors are reported as without modules
+        StringWriter diagnostics = new StringWriter();
+        assertNull(linker.compile(BOX.replace("int x", "char x") + MAIN, diagnostics));
+        assertTrue(diagnostics.toString().length() > 0);
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        // programs are compiled at once, each module file written whole
+        final Linker linker = new Linker(directory);
+        final String[] outputs = new String[4];
+        Thread[] threads = new Thread[outputs.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    outputs[n] = LinkerTest.this.run(linker.compile(BOX + MAIN.replace("grow(4)", "grow(" + n + ")"), new StringWriter()));
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertEquals(String.valueOf(3 + i), outputs[i]);
+        }
+        assertEquals(2 * threads.length, linker.getCompiled() + linker.getReused());
+
+        // only modules are left in the directory
+        for (File file : directory.listFiles()) {
+            assertTrue(file.getName().endsWith(".kxm"));
+        }
+    }
+
+    private String run(ProgramImage image) {
+        return run(image, "");
+    }
+}
@@ -0,0 +1,74 @@
+package project.tests;
+
+import org.junit.Before;
+import org.junit.Test;
+import project.MemoryBlock;
+import project.RegisterFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/19/13
+ * Time: 3:30 PM
+ */
+public class MemoryBlockTest {
+    private MemoryBlock memory;
+
+    @Before
+    public void setUp() throws Exception {
+        memory = new MemoryBlock();
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        assertEquals(0, memory.add(7, RegisterFile.INT));
+        assertEquals(1, memory.add('a', RegisterFile.CHAR));
+        assertEquals(2, memory.size());
+        assertEquals(7, memory.get(0));
+        assertTrue(memory.isInt(0));
+        assertEquals('a', memory.get(1));
+        assertFalse(memory.isInt(1));
+    }
+
+    @Test
+    public void testReserve() throws Exception {
+        memory.add(1, RegisterFile.INT);
+        memory.reserve(5000);
+        assertEquals(5001, memory.size());
+        assertEquals(0, memory.get(5000));
+        assertEquals(5001, memory.add(2, RegisterFile.INT));
+    }
+
+    @Test
+    public void testSet() throws Exception {
+        memory.reserve(3);
+        memory.set(2, 'z', RegisterFile.CHAR);
+        assertEquals('z', memory.get(2));
+        assertEquals(RegisterFile.CHAR, memory.getTag(2));
+
+        memory.setInt(2, -4);
+        assertEquals(-4, memory.get(2));
+        assertTrue(memory.isInt(2));
+    }
+
+    @Test
+    public void testTrim() throws Exception {
+        memory.add(9, RegisterFile.INT);
+        memory.reserve(2);
+        memory.trim();
+        assertEquals(3, memory.size());
+        assertEquals(9, memory.get(0));
+        assertEquals(3, memory.add(4, RegisterFile.INT));
+        assertEquals(4, memory.get(3));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() throws Exception {
+        memory.reserve(3);
+        memory.get(3);
+    }
+}
@@ -0,0 +1,49 @@
+package project.tests;
+
+import org.junit.Before;
+import org.junit.Test;
+import project.OpcodeReport;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/21/13
+ * Time: 8:20 PM
+ */
+public class OpcodeReportTest {
+    private OpcodeReport report;
+
+    @Before
+    public void setUp() throws Exception {
+        report = new OpcodeReport();
+    }
+
+    @Test
+    public void testAddFile() throws Exception {
+        File file = File.createTempFile("report", ".asm");
+        file.deleteOnExit();
+
+        FileWriter writer = new FileWriter(file);
+        writer.write("L2 .INT 0\n");
+        writer.write("MOV R5 R99\n");
+        writer.write("ADI R5 2 ; get address of s\n");
+        writer.write("LDR R7 R5\n");
+        writer.write("V1 .INT 0\n");
+        writer.write("M1000 MOV R5 R99\n");
+        writer.write("ADI R5 1\n");
+        writer.close();
+
+        report.addFile(file.getPath());
+
+        assertEquals(3, report.getTotal());
+        assertEquals(2, report.getCount("MOV ADI"));
+        assertEquals(1, report.getCount("ADI LDR"));
+        assertEquals(0, report.getCount("LDR MOV"));
+        assertEquals("MOV ADI", report.top(1).get(0));
+    }
+}
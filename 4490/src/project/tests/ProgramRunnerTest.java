@@ -0,0 +1,289 @@
+package project.tests;
+
+import org.junit.Test;
+import project.Assembler;
+import project.Budget;
+import project.ParallelRunner;
+import project.ProgramImage;
+import project.ProgramRunner;
+import project.RunResult;
+import project.StopReason;
+
+import java.io.File;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/4/13
+ * Time: 8:40 PM
+ */
+public class ProgramRunnerTest {
+    // reads n, then writes n * n
+    private static final String SQUARE = "void main() {\n" +
+            "    int n;\n" +
+            "    cin >> n;\n" +
+            "    cout << n * n;\n" +
+            "}\n";
+
+    // reads n, then writes 0 + 1 + ... + n - 1; long enough for the loop to be compiled
+    private static final String SUM = "void main() {\n" +
+            "    int n;\n" +
+            "    int i = 0;\n" +
+            "    int sum = 0;\n" +
+            "    cin >> n;\n" +
+            "    while (i < n) {\n" +
+            "        sum = sum + i;\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "    cout << sum;\n" +
+            "}\n";
+
+    // allocates objects until the heap runs out, writing how many it made
+    private static final String ALLOCATE = "class Box {\n" +
+            "    private int a;\n" +
+            "    private int b;\n" +
+            "    Box() {\n" +
+            "    }\n" +
+            "}\n" +
+            "void main() {\n" +
+            "    int i = 0;\n" +
+            "    Box box;\n" +
+            "    while (i < 1000000) {\n" +
+            "        box = new Box();\n" +
+            "        i = i + 1;\n" +
+            "        cout << i;\n" +
+            "        cout << ' ';\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String FOREVER = "void main() {\n" +
+            "    int i = 0;\n" +
+            "    while (i < 1) {\n" +
+            "        i = 0;\n" +
+            "    }\n" +
+            "}\n";
+
+    @Test
+    public void testRun() throws Exception {
+        StringWriter output = new StringWriter();
+        RunResult result = ProgramRunner.run(SQUARE, new StringReader("12\n"), output);
+
+        assertTrue(result.isSuccessful());
+        assertEquals("", result.getDiagnostics());
+        assertEquals("144", output.toString());
+    }
+
+    @Test
+    public void testArrays() throws Exception {
+        // a char array is read and written whole, an int array still prints its address
+        StringWriter output = new StringWriter();
+        RunResult result = ProgramRunner.run("void main() {\n    char s[] = new char[10];\n    int a[] = new int[3];\n" +
+                "    cin >> s;\n    cout << s;\n    cout << '\\n';\n    cout << a;\n}\n", new StringReader("hello\n"), output);
+
+        assertTrue(result.isSuccessful());
+        String[] lines = output.toString().split("\r\n");
+        assertEquals("hello", lines[0]);
+        assertTrue(lines[1].matches("[0-9]+"));
+    }
+
+    @Test
+    public void testArrayElements() throws Exception {
+        // elements are written and read back, past the length in the first cell
+        StringWriter output = new StringWriter();
+        RunResult result = ProgramRunner.run("void main() {\n    int a[] = new int[3];\n    char c[] = new char[2];\n" +
+                "    int i = 2;\n    int x = 0;\n    a[1] = 7;\n    a[i] = 3;\n    x = a[1];\n    cout << x;\n" +
+                "    cout << a[0] + a[2];\n    a[a[2] - 3] = a[1] * 2;\n    cout << a[0];\n    c[1] = 'z';\n    cout << c[1];\n}\n",
+                null, output);
+
+        assertTrue(result.isSuccessful());
+        assertEquals("7314z", output.toString());
+    }
+
+    @Test
+    public void testCompileError() throws Exception {
+        StringWriter output = new StringWriter();
+        RunResult result = ProgramRunner.run("void main() {\n    cout << 1\n}\n", null, output);
+
+        assertFalse(result.isSuccessful());
+        assertTrue(result.getDiagnostics().length() > 0);
+        assertEquals("", output.toString());
+    }
+
+    @Test
+    public void testParallelRunner() throws Exception {
+        ParallelRunner runner = new ParallelRunner(4);
+        List<StringWriter> outputs = new ArrayList<StringWriter>();
+        List<Future<RunResult>> results = new ArrayList<Future<RunResult>>();
+
+        for (int i = 0; i < 16; i++) {
+            StringWriter output = new StringWriter();
+            outputs.add(output);
+            results.add(runner.submit(SQUARE, new StringReader(i + "\n"), output));
+        }
+        runner.shutdown();
+
+        for (int i = 0; i < 16; i++) {
+            assertTrue(results.get(i).get().isSuccessful());
+            assertEquals(String.valueOf(i * i), outputs.get(i).toString());
+        }
+    }
+
+    @Test
+    public void testSharedImage() throws Exception {
+        StringWriter diagnostics = new StringWriter();
+        ProgramImage image = ProgramRunner.compile(SUM, diagnostics);
+        assertNotNull(image);
+        assertEquals("", diagnostics.toString());
+
+        ParallelRunner runner = new ParallelRunner(4);
+        List<StringWriter> outputs = new ArrayList<StringWriter>();
+        List<Future<RunResult>> results = new ArrayList<Future<RunResult>>();
+
+        for (int i = 0; i < 16; i++) {
+            StringWriter output = new StringWriter();
+            outputs.add(output);
+            results.add(runner.submit(image, new StringReader((3000 + i) + "\n"), output));
+        }
+        runner.shutdown();
+
+        for (int i = 0; i < 16; i++) {
+            int n = 3000 + i;
+            assertTrue(results.get(i).get().isSuccessful());
+            assertEquals(String.valueOf(n * (n - 1) / 2), outputs.get(i).toString());
+        }
+    }
+
+    @Test
+    public void testImageFile() throws Exception {
+        File file = File.createTempFile("program", ".kxo");
+        file.deleteOnExit();
+
+        ProgramImage compiled = ProgramRunner.compile(SUM, new StringWriter());
+        assertTrue(compiled.write(file, ProgramImage.imageHash(SUM)));
+
+        // an image is only taken for the source and the options it was compiled with
+        assertNull(ProgramImage.read(file, ProgramImage.imageHash(SQUARE)));
+        System.setProperty("kxi.threadStack", "64");
+        try {
+            assertNull(ProgramImage.read(file, ProgramImage.imageHash(SUM)));
+        } finally {
+            System.clearProperty("kxi.threadStack");
+        }
+        ProgramImage image = ProgramImage.read(file, ProgramImage.imageHash(SUM));
+        assertNotNull(image);
+        assertEquals(compiled.size(), image.size());
+
+        for (int n : new int[]{10, 3000}) {
+            StringWriter output = new StringWriter();
+            assertTrue(ProgramRunner.run(image, new StringReader(n + "\n"), output).isSuccessful());
+            assertEquals(String.valueOf(n * (n - 1) / 2), output.toString());
+        }
+    }
+
+    @Test
+    public void testVmError() throws Exception {
+        // an error in an instruction stops the program, and the run is not counted as finished
+        StringWriter output = new StringWriter();
+        RunResult result = ProgramRunner.run("void main() {\n    int x = 0;\n    int y = 5;\n    y = y / x;\n    cout << y;\n}\n",
+                null, output);
+        assertEquals(StopReason.VM_ERROR, result.getStopReason());
+        assertFalse(result.isSuccessful());
+        assertTrue(output.toString().contains("Can not divide by zero"));
+
+        // adding to a char
+        ProgramImage image = new Assembler().assemble(Arrays.asList("C .BYT 'a'", "LDR R1 C", "ADI R1 1", "TRP 0"));
+        assertNotNull(image);
+        output = new StringWriter();
+        result = ProgramRunner.run(image, null, output);
+        assertEquals(StopReason.VM_ERROR, result.getStopReason());
+        assertTrue(output.toString().contains("the ADI instruction requires integer values"));
+    }
+
+    @Test
+    public void testInstructionLimit() throws Exception {
+        StringWriter output = new StringWriter();
+        RunResult result = ProgramRunner.run(FOREVER, null, output, new Budget(1000000, 0, 0));
+
+        assertEquals(StopReason.INSTRUCTION_LIMIT, result.getStopReason());
+        assertFalse(result.isSuccessful());
+        assertEquals("Error: the program ran more than 1000000 instructions", output.toString().trim());
+
+        // the loop also stops once the blocks it runs are compiled
+        result = ProgramRunner.run(FOREVER, null, new StringWriter(), new Budget(50000000, 0, 0));
+        assertEquals(StopReason.INSTRUCTION_LIMIT, result.getStopReason());
+    }
+
+    @Test
+    public void testTimeLimit() throws Exception {
+        long start = System.currentTimeMillis();
+        RunResult result = ProgramRunner.run(FOREVER, null, new StringWriter(), new Budget(0, 200, 0));
+
+        assertEquals(StopReason.TIME_LIMIT, result.getStopReason());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testTimeLimitWhileWaiting() throws Exception {
+        // input that never comes
+        PipedReader input = new PipedReader(new PipedWriter());
+        long start = System.currentTimeMillis();
+        RunResult result = ProgramRunner.run(SQUARE, input, new StringWriter(), new Budget(0, 300, 0));
+        assertEquals(StopReason.TIME_LIMIT, result.getStopReason());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        // a message that never comes
+        ProgramImage image = new Assembler().assemble(Arrays.asList("ONE .INT 1", "LDR R2 ONE", "CHN R3 R2", "RCV R3 R4", "TRP 0"));
+        start = System.currentTimeMillis();
+        result = ProgramRunner.run(image, null, new StringWriter(), new Budget(0, 300, 0));
+        assertEquals(StopReason.TIME_LIMIT, result.getStopReason());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        // a thread waiting on the channel, and BLK waiting on the thread
+        image = new Assembler().assemble(Arrays.asList("ONE .INT 1", "LDR R2 ONE", "CHN R3 R2", "RUN R5 WAITER", "BLK", "TRP 0",
+                "WAITER RCV R3 R4", "END"));
+        start = System.currentTimeMillis();
+        result = ProgramRunner.run(image, null, new StringWriter(), new Budget(0, 300, 0));
+        assertEquals(StopReason.TIME_LIMIT, result.getStopReason());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void testHeapLimit() throws Exception {
+        StringWriter small = new StringWriter();
+        RunResult result = ProgramRunner.run(ALLOCATE, null, small, new Budget(0, 0, 100));
+
+        assertEquals(StopReason.HEAP_LIMIT, result.getStopReason());
+        assertTrue(small.toString().startsWith("1 2 3 "));
+        assertTrue(small.toString().endsWith(" Error: the program ran out of heap" + System.lineSeparator()));
+
+        // without a budget the whole heap can be used
+        StringWriter large = new StringWriter();
+        result = ProgramRunner.run(ALLOCATE, null, large, Budget.NONE);
+        assertEquals(StopReason.HEAP_LIMIT, result.getStopReason());
+        assertTrue(large.toString().length() > small.toString().length() * 10);
+    }
+
+    @Test
+    public void testWithinBudget() throws Exception {
+        StringWriter output = new StringWriter();
+        RunResult result = ProgramRunner.run(SUM, new StringReader("3000\n"), output, new Budget(100000000, 60000, 100));
+
+        assertEquals(StopReason.FINISHED, result.getStopReason());
+        assertEquals("4498500", output.toString());
+    }
+}
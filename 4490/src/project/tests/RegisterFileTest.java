@@ -0,0 +1,78 @@
+package project.tests;
+
+import org.junit.Before;
+import org.junit.Test;
+import project.RegisterFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 10/17/13
+ * Time: 9:40 PM
+ */
+public class RegisterFileTest {
+    private RegisterFile registers;
+
+    @Before
+    public void setUp() throws Exception {
+        registers = new RegisterFile();
+    }
+
+    @Test
+    public void testSetInt() throws Exception {
+        registers.setInt(5, 42);
+        assertEquals(42, registers.get(5));
+        assertTrue(registers.isInt(5));
+    }
+
+    @Test
+    public void testSetChar() throws Exception {
+        registers.set(7, 'a', RegisterFile.CHAR);
+        assertEquals('a', registers.get(7));
+        assertFalse(registers.isInt(7));
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        registers.set(7, 'a', RegisterFile.CHAR);
+        registers.copy(3, 7);
+        assertEquals('a', registers.get(3));
+        assertEquals(RegisterFile.CHAR, registers.getTag(3));
+    }
+
+    @Test
+    public void testTouch() throws Exception {
+        registers.setInt(1, 12);
+        registers.touch(1);
+        registers.set(2, 'x', RegisterFile.CHAR);
+        registers.touch(2);
+        assertEquals(12, registers.getLastInt());
+        assertEquals('x', registers.getLastChar());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        registers.set(100, 'z', RegisterFile.CHAR);
+        registers.clear();
+        assertEquals(0, registers.get(100));
+        assertTrue(registers.isInt(100));
+    }
+
+    @Test
+    public void testCopyFrom() throws Exception {
+        registers.set(7, 'a', RegisterFile.CHAR);
+        registers.touch(7);
+
+        RegisterFile copy = new RegisterFile();
+        copy.copyFrom(registers);
+        registers.setInt(7, 1);
+
+        assertEquals('a', copy.get(7));
+        assertFalse(copy.isInt(7));
+        assertEquals('a', copy.getLastChar());
+    }
+}
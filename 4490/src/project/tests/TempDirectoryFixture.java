@@ -0,0 +1,44 @@
+package project.tests;
+
+import org.junit.After;
+import org.junit.Before;
+import project.ProgramImage;
+import project.ProgramRunner;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Created with IntelliJ IDEA.
+ * User: Nathanael
+ * Date: 11/9/13
+ * Time: 7:45 PM
+ */
+public abstract class TempDirectoryFixture {
+    // a fresh directory for each test, for the files it keeps
+    protected File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile(getClass().getSimpleName(), "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    protected static String run(ProgramImage image, String input) {
+        StringWriter output = new StringWriter();
+        ProgramRunner.run(image, new StringReader(input), output);
+        return output.toString();
+    }
+}